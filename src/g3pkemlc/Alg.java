@@ -1,31 +1,43 @@
 package g3pkemlc;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationRuntimeException;
 
+import g3pkemlc.distributed.FitnessCoordinator;
+import g3pkemlc.distributed.PoolBuildCoordinator;
+import g3pkemlc.distributed.PoolBuildWorker;
 import g3pkemlc.mutator.Mutator;
 import g3pkemlc.recombinator.Crossover;
+import g3pkemlc.utils.DatasetCache;
 import g3pkemlc.utils.DatasetTransformation;
 import g3pkemlc.utils.KLabelset;
 import g3pkemlc.utils.KLabelsetGenerator;
 import g3pkemlc.utils.MulanUtils;
+import g3pkemlc.utils.PoolWriter;
+import g3pkemlc.utils.RandomStreams;
 import g3pkemlc.utils.TreeUtils;
+import g3pkemlc.utils.TreeValidator;
 import g3pkemlc.utils.Utils;
 import g3pkemlc.utils.Utils.KMode;
 import mulan.classifier.MultiLabelLearner;
 import mulan.classifier.MultiLabelLearnerBase;
 import mulan.classifier.transformation.LabelPowerset2;
 import mulan.data.MultiLabelInstances;
-import mulan.data.Statistics;
+import net.sf.jclec.IIndividual;
+import net.sf.jclec.algorithm.classic.SG;
 import net.sf.jclec.algorithm.classic.SGE;
 import net.sf.jclec.fitness.SimpleValueFitness;
 import net.sf.jclec.selector.BettersSelector;
@@ -110,6 +122,16 @@ public class Alg extends SGE {
 	 */
 	MultiLabelInstances testData;
 	
+	/**
+	 * Cached full training dataset, released from the cache when the run is cleared
+	 */
+	DatasetCache.CachedDataset cachedTrainData;
+	
+	/**
+	 * Cached test dataset, released from the cache when the run is cleared
+	 */
+	DatasetCache.CachedDataset cachedTestData;
+	
 	/**
 	 * Number of different MLC in the pool.
 	 * It varies depending on the expected average number of votes in the initial pool.
@@ -196,6 +218,197 @@ public class Alg extends SGE {
 	 */
 	KLabelsetGenerator klabelsetGen;
 	
+	/**
+	 * Number of threads used to store the classifiers of the pool in the hard disk.
+	 * By default, it is set to 2.
+	 */
+	int ioThreads;
+	
+	/**
+	 * Write-behind stage storing the classifiers of the pool while they are built
+	 */
+	PoolWriter poolWriter;
+	
+	/**
+	 * Directory where the classifiers and reports of this run are stored.
+	 * By default, it is the working directory.
+	 */
+	String workspace;
+	
+	/**
+	 * Indicates if the pool is shared with other runs with the same pool parameters.
+	 * By default, it is false.
+	 */
+	boolean sharedPool;
+	
+	/**
+	 * Shared pool used by this run; null if the pool is not shared
+	 */
+	Pool pool;
+	
+	/**
+	 * Directory where the classifiers of the pool are stored
+	 */
+	String poolDirectory;
+	
+	/**
+	 * Random numbers generator used to build the pool
+	 */
+	IRandGen poolRandgen;
+	
+	/**
+	 * Number of generations between checkpoints.
+	 * By default, it is 0 (no checkpoints are stored).
+	 */
+	int checkpointFrequency;
+	
+	/**
+	 * Checkpoint to resume the run from; null if the run starts from scratch
+	 */
+	Checkpoint checkpoint;
+	
+	/**
+	 * File where the checkpoints of this run are stored
+	 */
+	String checkpointFilename;
+	
+	/**
+	 * File where the final ensemble is exported, relative to the workspace.
+	 * By default, it is empty and the ensemble is not exported.
+	 */
+	String exportFilename;
+	
+	/**
+	 * Average time (in microseconds) each classifier of the pool takes to predict an instance.
+	 * It is measured when obtaining the predictions of the classifiers over the training data.
+	 */
+	double[] classifierCosts;
+	
+	/**
+	 * Weight of the prediction cost of the tree in the fitness
+	 */
+	double costWeight;
+	
+	/**
+	 * Maximum prediction cost (in microseconds per instance) of the tree; 0 if there is no budget
+	 */
+	double costBudget;
+	
+	/**
+	 * Indicates if the final tree is simplified before building the ensemble
+	 */
+	boolean simplify;
+	
+	/**
+	 * Maximum decrease in training fitness allowed when simplifying the final tree.
+	 * If 0, the training bipartitions of the tree can not change.
+	 */
+	double simplifyTolerance;
+	
+	/**
+	 * Indicates if each created and generated individual is validated
+	 */
+	boolean validate;
+	
+	/**
+	 * Number of threads creating and varying the individuals.
+	 * If greater than 1 (or if the run is reproducible), each individual is created, crossed or mutated with its own random numbers generator,
+	 * 	derived from the seed, the generation and its position, so the result does not depend on the number of threads.
+	 */
+	int variationThreads;
+	
+	/**
+	 * Executor creating and varying the individuals in parallel; null if they are processed sequentially
+	 */
+	ExecutorService variationExecutor = null;
+	
+	/**
+	 * Number of threads evaluating the individuals; if lower than 1, the number of available processors
+	 */
+	int evaluationThreads;
+	
+	/**
+	 * Number of instances of each chunk to calculate the fitness of a tree in parallel; 0 to not split the instances
+	 */
+	int evaluationChunk;
+	
+	/**
+	 * Number of worker processes calculating the fitness over shards of the training data; 0 to calculate it in this process
+	 */
+	int fitnessWorkers;
+	
+	/**
+	 * Coordinator of the worker processes calculating the fitness; null if they are not used
+	 */
+	FitnessCoordinator fitnessCoordinator = null;
+	
+	/**
+	 * Maximum time (in seconds) to wait for each answer of a worker process; 0 to wait forever
+	 */
+	int workerTimeout;
+	
+	/**
+	 * Number of worker processes building the classifiers of the pool; 0 to build them in this process
+	 */
+	int poolWorkers;
+	
+	/**
+	 * Maximum number of times a classifier of the pool is built again after its worker process failed
+	 */
+	int poolRetries;
+	
+	/**
+	 * Number of islands evolving their own subpopulation concurrently; 1 to evolve a single population
+	 */
+	int nIslands;
+	
+	/**
+	 * Number of generations between migrations of the best individuals of each island
+	 */
+	int migrationInterval;
+	
+	/**
+	 * Number of best individuals of each island sent to its neighbours in each migration
+	 */
+	int migrants;
+	
+	/**
+	 * Topology of the migration between islands
+	 */
+	Island.Topology topology;
+	
+	/**
+	 * Islands of the run; null if a single population is evolved
+	 */
+	Island[] islands = null;
+	
+	/**
+	 * Executor evolving each island in its own thread; null if a single population is evolved
+	 */
+	ExecutorService islandExecutor = null;
+	
+	/**
+	 * First error building a classifier of the pool in this process; null if there is no error
+	 */
+	volatile Exception buildError = null;
+	
+	/**
+	 * Indicates if the run is reproducible regardless of the number of threads.
+	 * Then, the k-labelsets, the creation and variation of the individuals, and the ties in the predictions of the
+	 * 	classifiers use random numbers derived from the seed and the unit of work, instead of shared generators.
+	 */
+	boolean reproducible;
+	
+	/**
+	 * Maximum number of training instances predicted to measure the latency of the simplified tree
+	 */
+	static final int LATENCY_INSTANCES = 1000;
+	
+	/**
+	 * Name of the file storing the state of the pool in its directory
+	 */
+	static final String POOL_STATE_FILE = "pool.ckp";
+	
 	/**
 	 * Getter for test data.
 	 * 
@@ -214,6 +427,15 @@ public class Alg extends SGE {
 		return seed;
 	}
 	
+	/**
+	 * Getter for the workspace.
+	 * 
+	 * @return Directory where the classifiers and reports of this run are stored
+	 */
+	public String getWorkspace() {
+		return workspace;
+	}
+	
 	/**
 	 * Getter for the ensemble.
 	 * 
@@ -321,6 +543,105 @@ public class Alg extends SGE {
 		if(! configuration.containsKey("beta")) {
 			configuration.addProperty("beta", "0.5");
 		}
+		
+		//Threads storing the classifiers of the pool
+		if(! configuration.containsKey("io-threads")) {
+			configuration.addProperty("io-threads", "2");
+		}
+		
+		//Workspace of the run
+		if(! configuration.containsKey("workspace")) {
+			configuration.addProperty("workspace", "");
+		}
+		
+		//Checkpoints
+		if(! configuration.containsKey("checkpoint-frequency")) {
+			configuration.addProperty("checkpoint-frequency", "0");
+		}
+		if(! configuration.containsKey("resume")) {
+			configuration.addProperty("resume", "false");
+		}
+		
+		//Export of the final ensemble
+		if(! configuration.containsKey("export-ensemble")) {
+			configuration.addProperty("export-ensemble", "");
+		}
+		
+		//Prediction cost of the tree in the fitness
+		if(! configuration.containsKey("cost-weight")) {
+			configuration.addProperty("cost-weight", "0.0");
+		}
+		if(! configuration.containsKey("cost-budget")) {
+			configuration.addProperty("cost-budget", "0.0");
+		}
+		
+		//Simplification of the final tree
+		if(! configuration.containsKey("simplify")) {
+			configuration.addProperty("simplify", "false");
+		}
+		if(! configuration.containsKey("simplify-tolerance")) {
+			configuration.addProperty("simplify-tolerance", "0.0");
+		}
+		
+		//Validation of the individuals
+		if(! configuration.containsKey("validate")) {
+			configuration.addProperty("validate", "false");
+		}
+		
+		//Parallel creation and variation of the individuals
+		if(! configuration.containsKey("variation-threads")) {
+			configuration.addProperty("variation-threads", "1");
+		}
+		
+		//Threads evaluating the individuals
+		if(! configuration.containsKey("evaluation-threads")) {
+			configuration.addProperty("evaluation-threads", "0");
+		}
+		
+		//Instances of each chunk to calculate the fitness of a tree in parallel
+		if(! configuration.containsKey("evaluation-chunk")) {
+			configuration.addProperty("evaluation-chunk", "0");
+		}
+		
+		//Worker processes calculating the fitness over shards of the training data
+		if(! configuration.containsKey("fitness-workers")) {
+			configuration.addProperty("fitness-workers", "0");
+		}
+		if(! configuration.containsKey("worker-timeout")) {
+			configuration.addProperty("worker-timeout", "600");
+		}
+		
+		//Worker processes building the classifiers of the pool
+		if(! configuration.containsKey("pool-workers")) {
+			configuration.addProperty("pool-workers", "0");
+		}
+		if(! configuration.containsKey("pool-retries")) {
+			configuration.addProperty("pool-retries", "2");
+		}
+		
+		//Island model
+		if(! configuration.containsKey("islands")) {
+			configuration.addProperty("islands", "1");
+		}
+		if(! configuration.containsKey("migration-interval")) {
+			configuration.addProperty("migration-interval", "10");
+		}
+		if(! configuration.containsKey("migrants")) {
+			configuration.addProperty("migrants", "1");
+		}
+		if(! configuration.containsKey("topology")) {
+			configuration.addProperty("topology", "ring");
+		}
+		
+		//Results independent of the number of threads
+		if(! configuration.containsKey("reproducible")) {
+			configuration.addProperty("reproducible", "false");
+		}
+		
+		//Share the pool with other runs
+		if(! configuration.containsKey("shared-pool")) {
+			configuration.addProperty("shared-pool", "false");
+		}
 	}
 	
 	@Override
@@ -332,6 +653,21 @@ public class Alg extends SGE {
 		randgen = randGenFactory.createRandGen();
 		utils = new Utils(randgen);
 		
+		reproducible = configuration.getBoolean("reproducible");
+		sharedPool = configuration.getBoolean("shared-pool");
+		if(reproducible) {
+			//The k-labelsets only depend on the seed
+			poolRandgen = new RandomStreams(seed).create(RandomStreams.Purpose.klabelsets);
+		}
+		else if(sharedPool) {
+			//The pool is built with its own generator, so the evolution of each run
+			//	does not depend on which of the runs sharing the pool has built it
+			poolRandgen = randGenFactory.createRandGen();
+		}
+		else {
+			poolRandgen = randgen;
+		}
+		
 		//Initialize table for predictions
 		tablePredictions = new Hashtable<String, Prediction>();
 		
@@ -351,6 +687,111 @@ public class Alg extends SGE {
 		
 		phiBasedPool = configuration.getBoolean("phi-based-klabelsets");
 		
+		ioThreads = configuration.getInt("io-threads");
+		if(ioThreads < 1) {
+			System.out.println("Incorrect value for io-threads.");
+		}
+		
+		workspace = configuration.getString("workspace");
+		if(workspace.length() > 0 && !workspace.endsWith("/")) {
+			workspace += "/";
+		}
+		poolDirectory = workspace + "mlc/";
+		
+		exportFilename = configuration.getString("export-ensemble");
+		
+		costWeight = configuration.getDouble("cost-weight");
+		costBudget = configuration.getDouble("cost-budget");
+		if(costWeight < 0 || costBudget < 0) {
+			System.out.println("cost-weight and cost-budget can not be negative.");
+		}
+		if(reproducible && (costWeight > 0 || costBudget > 0)) {
+			System.out.println("The costs of the classifiers are measured times, so the run is not reproducible if they are included in the fitness.");
+		}
+		
+		simplify = configuration.getBoolean("simplify");
+		simplifyTolerance = configuration.getDouble("simplify-tolerance");
+		
+		validate = configuration.getBoolean("validate");
+		evaluationThreads = configuration.getInt("evaluation-threads");
+		evaluationChunk = configuration.getInt("evaluation-chunk");
+		if(evaluationChunk < 0) {
+			System.out.println("Incorrect value for evaluation-chunk.");
+		}
+		
+		fitnessWorkers = configuration.getInt("fitness-workers");
+		if(fitnessWorkers < 0) {
+			System.out.println("Incorrect value for fitness-workers.");
+		}
+		workerTimeout = configuration.getInt("worker-timeout");
+		if(workerTimeout < 0) {
+			System.out.println("Incorrect value for worker-timeout.");
+		}
+		poolWorkers = configuration.getInt("pool-workers");
+		poolRetries = configuration.getInt("pool-retries");
+		if(poolWorkers < 0) {
+			System.out.println("Incorrect value for pool-workers.");
+		}
+		if(poolRetries < 0) {
+			System.out.println("Incorrect value for pool-retries.");
+		}
+		if(fitnessWorkers > 0 && simplify) {
+			System.out.println("The tree can not be simplified without the table of predictions, so it is not simplified when using fitness-workers.");
+			simplify = false;
+		}
+		
+		variationThreads = configuration.getInt("variation-threads");
+		if(variationThreads < 1) {
+			System.out.println("Incorrect value for variation-threads.");
+		}
+		
+		nIslands = configuration.getInt("islands");
+		migrationInterval = configuration.getInt("migration-interval");
+		migrants = configuration.getInt("migrants");
+		//The island model can not run with these values, so only this run fails
+		if(nIslands < 1) {
+			throw new ConfigurationRuntimeException("Incorrect value for islands.");
+		}
+		if(migrationInterval < 1) {
+			throw new ConfigurationRuntimeException("Incorrect value for migration-interval.");
+		}
+		String topologyString = configuration.getString("topology");
+		if(topologyString.equalsIgnoreCase("ring")) {
+			topology = Island.Topology.ring;
+		}
+		else if(topologyString.equalsIgnoreCase("complete")) {
+			topology = Island.Topology.complete;
+		}
+		else if(topologyString.equalsIgnoreCase("random")) {
+			topology = Island.Topology.random;
+		}
+		else {
+			throw new ConfigurationRuntimeException(topologyString + " is not a valid value for topology.");
+		}
+		//Each island must keep some of its own individuals after receiving the immigrants
+		int maxImmigrants = (topology == Island.Topology.ring) ? migrants : migrants * (nIslands - 1);
+		if(migrants < 0 || (nIslands > 1 && maxImmigrants >= populationSize)) {
+			throw new ConfigurationRuntimeException("Incorrect value for migrants.");
+		}
+		
+		checkpointFrequency = configuration.getInt("checkpoint-frequency");
+		checkpointFilename = workspace + "checkpoint.ckp";
+		checkpoint = null;
+		if(configuration.getBoolean("resume")) {
+			if(utils.fileExist(checkpointFilename)) {
+				checkpoint = (Checkpoint) utils.loadObject(checkpointFilename);
+				
+				int checkpointIslands = (checkpoint.islandRandgens == null) ? 1 : checkpoint.islandRandgens.length;
+				if(checkpointIslands != nIslands) {
+					System.out.println("The checkpoint in " + checkpointFilename + " has " + checkpointIslands + " islands instead of " + nIslands + "; the run starts from scratch.");
+					checkpoint = null;
+				}
+			}
+			else {
+				System.out.println("No checkpoint found in " + checkpointFilename + "; the run starts from scratch.");
+			}
+		}
+		
 		String kModeString = configuration.getString("k-mode");
 		if(kModeString.equalsIgnoreCase("uniform")) {
 			kMode = KMode.uniform;
@@ -359,8 +800,8 @@ public class Alg extends SGE {
 			kMode = KMode.gaussian;
 		}
 		else {
-			System.out.println(kModeString + " is not a valid value for k-mode.");
-			System.exit(-1);
+			//Only this run fails, so other runs executed in parallel continue
+			throw new ConfigurationRuntimeException(kModeString + " is not a valid value for k-mode.");
 		}
 		
 		//Get datasets
@@ -372,8 +813,12 @@ public class Alg extends SGE {
 		currentTrainData = null;
 		testData = null;
 		try {
-			fullTrainData = new MultiLabelInstances(datasetTrainFileName, datasetXMLFileName);
-			testData = new MultiLabelInstances(datasetTestFileName, datasetXMLFileName);
+			//Datasets (and their statistics) are shared with other runs over the same files
+			cachedTrainData = DatasetCache.get(datasetTrainFileName, datasetXMLFileName);
+			cachedTestData = DatasetCache.get(datasetTestFileName, datasetXMLFileName);
+			fullTrainData = cachedTrainData.getData();
+			testData = cachedTestData.getData();
+			((Evaluator)evaluator).setLabelBitmasks(cachedTrainData.getLabelBitmasks());
 			
 			int nLabels = fullTrainData.getNumLabels();
 			if(maxK < 0) {
@@ -392,88 +837,448 @@ public class Alg extends SGE {
 				System.out.println("Incorrect value for v.");
 			}
 			
-			//Create folder for classifiers if it does not exist
-			File f = new File("mlc/");
-			if (!f.exists()) {
-			   f.mkdir();
-			}
-			
-			//Generate k-labelsets
-			klabelsetGen = new KLabelsetGenerator(minK, maxK, nLabels, kMode);
-			klabelsetGen.setRandgen(randgen);
-			if(phiBasedPool) {
-				//Get phi matrix
-				Statistics stat = new Statistics();
-				double [][] phi = stat.calculatePhi(fullTrainData);
+			if(sharedPool) {
+				//Runs with the same pool parameters share the pool
+				//	The k-labelsets depend on the generator used (reproducible or from the factory), and so do the ties of the classifiers
+				String poolKey = cachedTrainData.getKey() + "|" + seed + "|" + randGenFactory.getClass().getName() + "|" + reproducible + "|" + minK + "|" + maxK + "|" + kMode + "|" + v + "|" + sampleRatio + "|" + phiBasedPool + "|" + useConfidences + "|" + (fitnessWorkers > 0);
+				pool = Pool.acquire(poolKey, workspace);
+				poolDirectory = pool.getDirectory();
 				
-				//Change NaNs by 0
-				for(int i=0; i<phi.length; i++) {
-					for(int j=0; j<phi[0].length; j++) {
-						if(Double.isNaN(phi[i][j])) {
-							phi[i][j] = 0.0;
+				try {
+					if(pool.startBuilding()) {
+						try {
+							loadOrBuildPool(cachedTrainData, nLabels);
+						} catch (Exception e) {
+							//Other runs are notified of the failure, so they do not wait forever nor use an empty pool
+							pool.setFailed(e);
+							throw e;
 						}
+						pool.setBuilt(klabelsetGen, klabelsets, tablePredictions, classifierCosts);
+					}
+					else {
+						//Wait until other run builds the pool and use it
+						pool.awaitBuilt();
+						klabelsetGen = pool.getKlabelsetGen();
+						klabelsets = pool.getKlabelsets();
+						tablePredictions = pool.getTablePredictions();
+						classifierCosts = pool.getClassifierCosts();
+						nMLC = klabelsets.size();
+						System.out.println("nMLC: " + nMLC + " (shared pool)");
 					}
+				} catch (Exception e) {
+					//The run does not use the pool anymore, so it is removed when no other run uses it
+					Pool.release(pool);
+					pool = null;
+					throw e;
 				}
-				
-				klabelsetGen.setPhiBiased(true, phi);
 			}
 			else {
-				klabelsetGen.setPhiBiased(false, null);
+				loadOrBuildPool(cachedTrainData, nLabels);
 			}
 			
-			//Generate k-labelsets
-			klabelsets = klabelsetGen.generateKLabelsets(v);
-			
-			//Get number of classifiers finally created
-			nMLC = klabelsets.size();
-
-			//Print the k-labelsets
-			System.out.println("nMLC: " + nMLC);
-			klabelsetGen.printKLabelsets();
-
-			//Set number of threads
-			ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+			currentTrainData = null;
 			
-			//Create, store, and get predictions of each different classifier
-			for(int c=0; c<nMLC; c++) {
-				executorService.execute(new BuildClassifierParallel(c));				
+			if(fitnessWorkers > 0) {
+				//Each worker predicts its shard with the stored classifiers, so the costs are measured by them
+				fitnessCoordinator = new FitnessCoordinator(fitnessWorkers, workerTimeout * 1000);
+				classifierCosts = fitnessCoordinator.start(fullTrainData, cachedTrainData.getLabelBitmasks(), poolDirectory, klabelsets, useConfidences);
 			}
-			executorService.shutdown();
-			
-			try {
-				//Wait until all threads finish
-				executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-			
-			currentTrainData = null;
 			
 		} catch (Exception e) {
-			e.printStackTrace();
+			releaseDatasets();
+			throw new ConfigurationRuntimeException("The data or the pool of the run could not be loaded", e);
 		}
 		
 		//Set settings of provider, genetic operators and evaluator
-		((StringTreeCreator)provider).setMaxChildren(maxChildren);
-		((StringTreeCreator)provider).setMaxDepth(maxDepth);
-		((StringTreeCreator)provider).setnMax(nMLC);
-		
-		((Mutator)mutator.getDecorated()).setnChildren(maxChildren);
-		((Mutator)mutator.getDecorated()).setMaxTreeDepth(maxDepth);
-		((Mutator)mutator.getDecorated()).setnMax(nMLC);
-		
-		((Crossover)recombinator.getDecorated()).setMaxTreeDepth(maxDepth);
+		if(variationThreads > 1 || reproducible) {
+			variationExecutor = new ForkJoinPool(variationThreads);
+		}
+		setOperatorSettings(this, utils, new RandomStreams(seed));
 		
 		((Evaluator)evaluator).setFullTrainData(fullTrainData);
 		((Evaluator)evaluator).setTablePredictions(tablePredictions);
 		((Evaluator)evaluator).setUseConfidences(useConfidences);
 		((Evaluator)evaluator).setBeta(beta);
-		((Evaluator)evaluator).setRandgen(randgen);
+		((Evaluator)evaluator).setThreads(evaluationThreads);
+		((Evaluator)evaluator).setChunkSize(evaluationChunk);
+		((Evaluator)evaluator).setCoordinator(fitnessCoordinator);
+		if(costWeight > 0 || costBudget > 0) {
+			if(classifierCosts != null) {
+				((Evaluator)evaluator).setCosts(classifierCosts, costWeight, costBudget);
+			}
+			else {
+				System.out.println("The costs of the classifiers are not available, so the cost is not included in the fitness.");
+			}
+		}
+		
+		if(nIslands > 1) {
+			//Each island has its own components, seeded from the seed of the run and its index, and shares the evaluator
+			RandomStreams streams = new RandomStreams(seed);
+			islands = new Island[nIslands];
+			for(int i=0; i<nIslands; i++) {
+				int islandSeed = streams.create(RandomStreams.Purpose.islands, i).choose(1, Integer.MAX_VALUE);
+				islands[i] = new Island(i, islandSeed);
+				islands[i].configure(configuration);
+				islands[i].setEvaluator(evaluator);
+				setOperatorSettings(islands[i], islands[i].utils, new RandomStreams(islandSeed));
+			}
+			islandExecutor = Executors.newFixedThreadPool(nIslands);
+		}
+	}
+	
+	/**
+	 * Set the settings of the provider and genetic operators of the run or of one of its islands
+	 * 
+	 * @param algorithm Run or island
+	 * @param utils Utils with the random numbers generator used by the genetic operators
+	 * @param streams Random streams used when the individuals are created and varied in parallel
+	 */
+	private void setOperatorSettings(SG algorithm, Utils utils, RandomStreams streams) {
+		StringTreeCreator creator = (StringTreeCreator) algorithm.getProvider();
+		Mutator mut = (Mutator) algorithm.getMutator();
+		Crossover crossover = (Crossover) algorithm.getRecombinator();
+		
+		creator.setMaxChildren(maxChildren);
+		creator.setMaxDepth(maxDepth);
+		creator.setnMax(nMLC);
+		
+		mut.setnChildren(maxChildren);
+		mut.setMaxTreeDepth(maxDepth);
+		mut.setnMax(nMLC);
+		mut.setUtils(utils);
+		
+		crossover.setMaxTreeDepth(maxDepth);
+		crossover.setUtils(utils);
+		
+		if(validate) {
+			TreeValidator validator = new TreeValidator(nMLC, maxDepth, maxChildren);
+			creator.setValidator(validator);
+			mut.setValidator(validator);
+			crossover.setValidator(validator);
+		}
+		
+		if(variationExecutor != null) {
+			creator.setParallel(variationExecutor, streams);
+			mut.setParallel(variationExecutor, streams);
+			crossover.setParallel(variationExecutor, streams);
+		}
+	}
+	
+	/**
+	 * Restore the pool of the checkpoint if available; otherwise, build it.
+	 * If checkpoints are enabled, the state of a new pool is stored in its directory.
+	 * 
+	 * @param cachedTrainData Cached full training data
+	 * @param nLabels Number of labels
+	 * @throws Exception if the pool can not be built
+	 */
+	private void loadOrBuildPool(DatasetCache.CachedDataset cachedTrainData, int nLabels) throws Exception {
+		String poolStateFilename = poolDirectory + POOL_STATE_FILE;
+		
+		if(checkpoint != null && checkpoint.poolDirectory.equals(poolDirectory) && utils.fileExist(poolStateFilename)) {
+			//The classifiers are already stored, so only the k-labelsets and predictions are loaded
+			Checkpoint.PoolState poolState = (Checkpoint.PoolState) utils.loadObject(poolStateFilename);
+			
+			klabelsetGen = new KLabelsetGenerator(minK, maxK, nLabels, kMode);
+			klabelsetGen.kSizes = poolState.kSizes;
+			klabelsets = poolState.klabelsets;
+			tablePredictions = poolState.tablePredictions;
+			classifierCosts = poolState.classifierCosts;
+			nMLC = klabelsets.size();
+			
+			System.out.println("nMLC: " + nMLC + " (restored from checkpoint)");
+		}
+		else {
+			buildPool(cachedTrainData, nLabels);
+			
+			if(checkpointFrequency > 0) {
+				Checkpoint.write(new Checkpoint.PoolState(klabelsets, tablePredictions, klabelsetGen.kSizes, classifierCosts), poolStateFilename);
+			}
+		}
+	}
+	
+	/**
+	 * Generate the k-labelsets of the pool, and build, store and get the predictions of each classifier
+	 * 
+	 * @param cachedTrainData Cached full training data
+	 * @param nLabels Number of labels
+	 * @throws Exception if the pool can not be built
+	 */
+	private void buildPool(DatasetCache.CachedDataset cachedTrainData, int nLabels) throws Exception {
+		//Create folder for classifiers if it does not exist
+		File f = new File(poolDirectory);
+		if (!f.exists()) {
+		   f.mkdirs();
+		}
+		
+		//Generate k-labelsets
+		klabelsetGen = new KLabelsetGenerator(minK, maxK, nLabels, kMode);
+		klabelsetGen.setRandgen(poolRandgen);
+		if(phiBasedPool) {
+			//Get phi matrix (NaNs are already replaced by 0)
+			double [][] phi = cachedTrainData.getPhi();
+			
+			klabelsetGen.setPhiBiased(true, phi);
+		}
+		else {
+			klabelsetGen.setPhiBiased(false, null);
+		}
+		
+		//Generate k-labelsets
+		klabelsets = klabelsetGen.generateKLabelsets(v);
+		
+		//Get number of classifiers finally created
+		nMLC = klabelsets.size();
+
+		//Print the k-labelsets
+		System.out.println("nMLC: " + nMLC);
+		klabelsetGen.printKLabelsets();
+
+		classifierCosts = new double[nMLC];
+		
+		if(poolWorkers > 0) {
+			//Classifiers are built by worker processes, and stored by the coordinator as they are returned
+			//	If the fitness is calculated by workers too, the predictions are obtained by them
+			PoolBuildWorker.Setup setup = new PoolBuildWorker.Setup(cachedTrainData.getArffFilename(), cachedTrainData.getXmlFilename(), klabelsets, sampleRatio, useConfidences, reproducible, fitnessWorkers == 0);
+			new PoolBuildCoordinator(poolWorkers, workerTimeout * 1000, poolRetries).build(setup, poolDirectory, tablePredictions, classifierCosts);
+			return;
+		}
+		
+		//Set number of threads
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executorService = Executors.newFixedThreadPool(nThreads);
+		
+		//Classifiers are stored by the I/O threads, so building threads do not wait for the hard disk
+		//	At most one classifier per building thread is waiting to be stored
+		poolWriter = new PoolWriter(ioThreads, nThreads);
+		
+		//Create, store, and get predictions of each different classifier
+		buildError = null;
+		for(int c=0; c<nMLC; c++) {
+			executorService.execute(new BuildClassifierParallel(c));				
+		}
+		executorService.shutdown();
+		
+		//Wait until all threads finish
+		executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		
+		//Wait until all classifiers are stored in the hard disk
+		//	An error storing them is thrown here, unless building them already failed
+		try {
+			poolWriter.close();
+		} catch (IOException e) {
+			if(buildError == null) {
+				buildError = e;
+			}
+		} finally {
+			poolWriter = null;
+		}
+		
+		if(buildError != null) {
+			throw buildError;
+		}
 	}
 	
 	@Override
 	protected void doInit() {
-		super.doInit();
+		if(checkpoint != null) {
+			//Resume the population instead of creating and evaluating a new one
+			restoreCheckpoint(checkpoint);
+			checkpoint = null;
+		}
+		else if(islands != null) {
+			//Each island creates and evaluates its subpopulation in its own thread
+			Utils.runParallel(islandExecutor, islands.length, i -> islands[i].init());
+			gatherInhabitants();
+			doControl();
+		}
+		else {
+			super.doInit();
+		}
+	}
+	
+	@Override
+	protected void doIterate() {
+		if(islands == null) {
+			super.doIterate();
+			return;
+		}
+		
+		generation++;
+		
+		//Each island evolves its subpopulation one generation in its own thread
+		Utils.runParallel(islandExecutor, islands.length, i -> islands[i].iterate());
+		
+		if(generation % migrationInterval == 0) {
+			migrate();
+		}
+		
+		gatherInhabitants();
+		doControl();
+	}
+	
+	/**
+	 * Join the subpopulations of all the islands as the population of the run, in the order of the islands.
+	 * The stop condition, the reports and the checkpoints consider all the individuals.
+	 */
+	private void gatherInhabitants() {
+		List<IIndividual> population = new ArrayList<IIndividual>(islands.length * populationSize);
+		for(Island island : islands) {
+			population.addAll(island.getInhabitants());
+		}
+		bset = population;
+	}
+	
+	/**
+	 * Send copies of the best individuals of each island to its neighbours in the topology, where they replace the worst ones.
+	 * All the emigrants are chosen before any island receives immigrants, so the result does not depend on the order of the islands.
+	 */
+	private void migrate() {
+		List<List<IIndividual>> emigrants = new ArrayList<List<IIndividual>>(islands.length);
+		List<List<IIndividual>> immigrants = new ArrayList<List<IIndividual>>(islands.length);
+		for(Island island : islands) {
+			emigrants.add(island.emigrants(migrants));
+			immigrants.add(new ArrayList<IIndividual>());
+		}
+		
+		//Random destinations only depend on the seed and the generation
+		IRandGen migrationRandgen = new RandomStreams(seed).create(RandomStreams.Purpose.migration, generation);
+		for(int i=0; i<islands.length; i++) {
+			for(int j : neighbours(i, migrationRandgen)) {
+				for(IIndividual ind : emigrants.get(i)) {
+					immigrants.get(j).add(ind.copy());
+				}
+			}
+		}
+		
+		for(int i=0; i<islands.length; i++) {
+			islands[i].immigrate(immigrants.get(i));
+		}
+	}
+	
+	/**
+	 * Get the islands receiving the emigrants of a given island
+	 * 
+	 * @param i Index of the island
+	 * @param migrationRandgen Random numbers generator used in random topology
+	 * @return Indices of the neighbours of the island
+	 */
+	private int[] neighbours(int i, IRandGen migrationRandgen) {
+		if(topology == Island.Topology.ring) {
+			return new int[] {(i + 1) % islands.length};
+		}
+		else if(topology == Island.Topology.complete) {
+			int[] neighbours = new int[islands.length - 1];
+			for(int j=0, n=0; j<islands.length; j++) {
+				if(j != i) {
+					neighbours[n++] = j;
+				}
+			}
+			return neighbours;
+		}
+		else {
+			//Any other island, chosen uniformly
+			int j = migrationRandgen.choose(0, islands.length - 1);
+			return new int[] {(j >= i) ? j + 1 : j};
+		}
+	}
+	
+	/**
+	 * Get the components of the algorithm that have their own random numbers generator
+	 * 
+	 * @return Array with the provider, parents selector and genetic operators
+	 */
+	private Object[] randomComponents() {
+		return new Object[] {provider, parentsSelector, mutator, mutator.getDecorated(), recombinator, recombinator.getDecorated()};
+	}
+	
+	/**
+	 * Store a checkpoint with the current state of the evolution
+	 */
+	private void writeCheckpoint() {
+		Checkpoint cp = new Checkpoint();
+		
+		cp.genotypes = new String[bset.size()];
+		cp.fitness = new double[bset.size()];
+		for(int i=0; i<bset.size(); i++) {
+			cp.genotypes[i] = ((StringTreeIndividual)bset.get(i)).getGenotype();
+			cp.fitness[i] = ((SimpleValueFitness)bset.get(i).getFitness()).getValue();
+		}
+		
+		cp.generation = generation;
+		cp.recombinationProb = getRecombinationProb();
+		cp.mutationProb = getMutationProb();
+		cp.bestFitness = bestFitness;
+		cp.lastIterBestFitness = lastIterBestFitness;
+		cp.bestAvgFitness = bestAvgFitness;
+		
+		cp.randgen = randgen;
+		Object[] components = randomComponents();
+		cp.componentRandgens = new IRandGen[components.length];
+		for(int i=0; i<components.length; i++) {
+			cp.componentRandgens[i] = Checkpoint.getRandgen(components[i]);
+		}
+		
+		if(islands != null) {
+			cp.islandRandgens = new IRandGen[islands.length][];
+			for(int i=0; i<islands.length; i++) {
+				cp.islandRandgens[i] = islands[i].getRandgens();
+			}
+		}
+		
+		cp.poolDirectory = poolDirectory;
+		
+		try {
+			Checkpoint.write(cp, checkpointFilename);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Restore the state of the evolution from a checkpoint
+	 * 
+	 * @param cp Checkpoint
+	 */
+	private void restoreCheckpoint(Checkpoint cp) {
+		List<IIndividual> population = new ArrayList<IIndividual>(cp.genotypes.length);
+		for(int i=0; i<cp.genotypes.length; i++) {
+			population.add(new StringTreeIndividual(cp.genotypes[i], new SimpleValueFitness(cp.fitness[i])));
+		}
+		bset = population;
+		
+		generation = cp.generation;
+		setRecombinationProb(cp.recombinationProb);
+		setMutationProb(cp.mutationProb);
+		bestFitness = cp.bestFitness;
+		lastIterBestFitness = cp.lastIterBestFitness;
+		bestAvgFitness = cp.bestAvgFitness;
+		
+		randgen = cp.randgen;
+		utils = new Utils(randgen);
+		((Mutator)mutator.getDecorated()).setUtils(utils);
+		((Crossover)recombinator.getDecorated()).setUtils(utils);
+		
+		Object[] components = randomComponents();
+		for(int i=0; i<components.length; i++) {
+			Checkpoint.setRandgen(components[i], cp.componentRandgens[i]);
+		}
+		
+		if(islands != null) {
+			//The population of the run is the subpopulations of the islands, in their order
+			int from = 0;
+			for(int i=0; i<islands.length; i++) {
+				int size = islands[i].getPopulationSize();
+				islands[i].setInhabitants(new ArrayList<IIndividual>(population.subList(from, from + size)));
+				islands[i].setGeneration(generation);
+				islands[i].setRecombinationProb(cp.recombinationProb);
+				islands[i].setMutationProb(cp.mutationProb);
+				islands[i].setRandgens(cp.islandRandgens[i]);
+				from += size;
+			}
+		}
+		
+		System.out.println("Resumed from checkpoint at generation " + generation);
 	}
 	
 	@Override
@@ -511,6 +1316,14 @@ public class Alg extends SGE {
 				setMutationProb(getMutationProb() + 0.02);
 			}
 		}
+		
+		//Probabilities are adapted over all the islands, so all of them use the same ones
+		if(islands != null) {
+			for(Island island : islands) {
+				island.setRecombinationProb(getRecombinationProb());
+				island.setMutationProb(getMutationProb());
+			}
+		}
 	
 		//Stop condition
 		if ((generation >= (lastIterBestFitness+nItersWithoutImprovement) && bestFitness > 0)|| generation >= maxOfGenerations) {			
@@ -519,25 +1332,92 @@ public class Alg extends SGE {
 			//Get base learner
 			MultiLabelLearner learner = new LabelPowerset2(new J48());
 			((LabelPowerset2)learner).setSeed(seed);
+			((LabelPowerset2)learner).setInstanceTieBreaking(reproducible);
+			
+			//Simplify the tree, keeping its training predictions
+			String finalGenotype = bestGenotype;
+			if(simplify) {
+				TreeSimplifier simplifier = new TreeSimplifier((Evaluator)evaluator, simplifyTolerance);
+				finalGenotype = simplifier.simplify(bestGenotype);
+				System.out.println(simplifier.report());
+			}
 			
 			//Generate ensemble object
-			ensemble = new EMLC(learner, klabelsets, bestGenotype, useConfidences);
+			ensemble = new EMLC(learner, klabelsets, finalGenotype, useConfidences);
+			ensemble.setPoolDirectory(poolDirectory);
 			
-			System.out.println("Votes per label: " + Arrays.toString(TreeUtils.votesPerLabel(bestGenotype, klabelsets, fullTrainData.getNumLabels())));
+			System.out.println("Votes per label: " + Arrays.toString(TreeUtils.votesPerLabel(finalGenotype, klabelsets, fullTrainData.getNumLabels())));
+			if(((Evaluator)evaluator).classifierCosts != null) {
+				System.out.println("Estimated prediction cost: " + String.format("%.2f", ((Evaluator)evaluator).cost(finalGenotype)) + " us per instance");
+			}
 			
 			try {
 				//Build the ensemble
 				ensemble.build(fullTrainData);
 				
-				//After building the ensemble, we can remove all the classifiers built and stored in hard disk
-				utils.purgeDirectory(new File("mlc/"));				
+				//Compare the latency of the original and simplified trees
+				if(!finalGenotype.equals(bestGenotype)) {
+					MultiLabelLearner originalLearner = new LabelPowerset2(new J48());
+					((LabelPowerset2)originalLearner).setSeed(seed);
+					((LabelPowerset2)originalLearner).setInstanceTieBreaking(reproducible);
+					EMLC original = new EMLC(originalLearner, klabelsets, bestGenotype, useConfidences);
+					original.setPoolDirectory(poolDirectory);
+					original.build(fullTrainData);
+					
+					double[] latencies = TreeSimplifier.measureLatencies(new EMLC[] {original, ensemble}, fullTrainData, LATENCY_INSTANCES);
+					System.out.println("Latency per instance before simplifying: " + String.format("%.2f", latencies[0]) + " us; after: " + String.format("%.2f", latencies[1]) + " us");
+					
+					//Predictions made to measure latency must not change the ties solved afterwards
+					ensemble.resetSeed(seed);
+				}
+				
+				//Export the ensemble with its leaves, so it can be used without the pool
+				if(exportFilename.length() > 0) {
+					EnsembleArtifact.export(ensemble, fullTrainData, workspace + exportFilename);
+					System.out.println("Ensemble exported to " + workspace + exportFilename);
+				}
 			} catch (Exception e) {
 				e.printStackTrace();
+			} finally {
+				//After building the ensemble, we can remove all the classifiers built and stored in hard disk
+				//	They are removed even if the ensemble could not be built or exported
+				//	A shared pool is only removed when no other run is using it
+				if(pool != null) {
+					Pool.release(pool);
+					pool = null;
+				}
+				else {
+					utils.purgeDirectory(new File(poolDirectory));
+				}
+			}
+			
+			//The run is finished, so its checkpoint is no longer needed
+			if(checkpointFrequency > 0) {
+				new File(checkpointFilename).delete();
+			}
+			
+			if(variationExecutor != null) {
+				variationExecutor.shutdown();
+				variationExecutor = null;
+			}
+			if(islandExecutor != null) {
+				islandExecutor.shutdown();
+				islandExecutor = null;
+			}
+			((Evaluator)evaluator).shutdown();
+			if(fitnessCoordinator != null) {
+				fitnessCoordinator.close();
+				fitnessCoordinator = null;
 			}
 			
 			state = FINISHED;
 			return;
 		}
+		
+		//Store checkpoint
+		if(checkpointFrequency > 0 && generation % checkpointFrequency == 0) {
+			writeCheckpoint();
+		}
 	}	
 	
 //	@Override
@@ -569,9 +1449,20 @@ public class Alg extends SGE {
 		klabelsets = null;
 		testData = null;
 		ensemble = null;
+		releaseDatasets();
 		System.gc();
 	}
 	
+	/**
+	 * Release the datasets of the run from the cache, so they are removed if no other run uses them
+	 */
+	private void releaseDatasets() {
+		DatasetCache.release(cachedTrainData);
+		DatasetCache.release(cachedTestData);
+		cachedTrainData = null;
+		cachedTestData = null;
+	}
+	
 	/**
 	 * Class to parallelize building base classifiers
 	 * 
@@ -591,8 +1482,12 @@ public class Alg extends SGE {
 			try {
 				buildClassifier(index);
 			}catch(Exception e) {
-				e.printStackTrace();
-				System.exit(-1);
+				//The pool is not built, but other runs executed in parallel continue
+				lock.lock();
+				if(buildError == null) {
+					buildError = e;
+				}
+				lock.unlock();
 			}
 		}
 	}
@@ -601,8 +1496,9 @@ public class Alg extends SGE {
 	 * Build the c-th classifier
 	 * 
 	 * @param c Index of classifier to build
+	 * @throws Exception if the classifier can not be built
 	 */
-	public void buildClassifier(int c) {
+	public void buildClassifier(int c) throws Exception {
 		IRandGen randgen = null;
 		MultiLabelInstances currentTrainData, currentFullData;
 		MultiLabelLearnerBase learner;
@@ -618,12 +1514,23 @@ public class Alg extends SGE {
 			learner = null;
 			learner = new LabelPowerset2(new J48());
 			((LabelPowerset2)learner).setSeed(seed);
+			((LabelPowerset2)learner).setInstanceTieBreaking(reproducible);
 			//Transform full train data
 			DatasetTransformation dt = new DatasetTransformation();
 			currentTrainData = dt.transformDataset(currentTrainData, klabelsets.get(c).getKlabelset());
 			//Build
 			learner.build(currentTrainData);
 			
+			//Hand a snapshot of the classifier to the I/O threads to store it in the hard disk
+			//	It is serialized here, since predicting below changes the state of the learner
+			//	It waits only if there are too many classifiers pending to be stored
+			poolWriter.write(learner, poolDirectory + "classifier"+c+".mlc");
+			
+			//The predictions over the full data are obtained by the fitness workers, each one over its shard
+			if(fitnessWorkers > 0) {
+				return;
+			}
+			
 			//If data was sampled to build, transform fullTrain too; otherwise just use same data to gather predictions
 			if(sampleRatio >= 0.999) {
 				currentFullData = currentTrainData;
@@ -632,11 +1539,10 @@ public class Alg extends SGE {
 				currentFullData = dt.transformDataset(fullTrainData, klabelsets.get(c).getKlabelset());
 			}
 			
-			//Store object of classifier in the hard disk				
-			utils.writeObject(learner, "mlc/classifier"+c+".mlc");
-			
 			//Get predictions of c-th classifier over all data
+			//	The time to predict each instance is the cost of the classifier
 			float[][] currentPredictions = new float[currentFullData.getNumInstances()][klabelsets.get(c).k];
+			long start = System.nanoTime();
 			for(int i=0; i<currentFullData.getNumInstances(); i++) {
 				if(useConfidences) {
 					System.arraycopy(learner.makePrediction(currentFullData.getDataSet().get(i)).getConfidences(), 0, currentPredictions[i], 0, currentFullData.getNumLabels());
@@ -646,6 +1552,8 @@ public class Alg extends SGE {
 				}
 			}
 			
+			classifierCosts[c] = (System.nanoTime() - start) / 1000.0 / currentFullData.getNumInstances();
+			
 			//Create Prediction object
 			Prediction pred = new Prediction(dt.getOriginalLabelIndices(), currentPredictions);
 			
@@ -664,8 +1572,7 @@ public class Alg extends SGE {
 			System.gc();
 			
 		} catch(Exception e) {
-			e.printStackTrace();
-			System.exit(-1);
+			throw new Exception("Classifier " + c + " could not be built", e);
 		}		
 	}	
 }
@@ -0,0 +1,103 @@
+package g3pkemlc;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import mulan.classifier.MultiLabelOutput;
+
+/**
+ * Class implementing the predictions of the ensemble for a batch of instances
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class BatchPrediction {
+	
+	/**
+	 * Confidences for each instance and label
+	 */
+	float[][] confidences;
+	
+	/**
+	 * Bipartitions for each instance and label
+	 */
+	boolean[][] bipartitions;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param confidences Confidences for each instance and label
+	 * @param threshold Threshold to obtain the bipartitions
+	 */
+	public BatchPrediction(float[][] confidences, float threshold) {
+		this.confidences = confidences;
+		
+		bipartitions = new boolean[confidences.length][];
+		for(int i=0; i<confidences.length; i++) {
+			bipartitions[i] = new boolean[confidences[i].length];
+			for(int j=0; j<confidences[i].length; j++) {
+				bipartitions[i][j] = confidences[i][j] >= threshold;
+			}
+		}
+	}
+	
+	/**
+	 * Constructor with confidences and bipartitions
+	 * 
+	 * @param confidences Confidences for each instance and label
+	 * @param bipartitions Bipartitions for each instance and label
+	 */
+	public BatchPrediction(float[][] confidences, boolean[][] bipartitions) {
+		this.confidences = confidences;
+		this.bipartitions = bipartitions;
+	}
+	
+	/**
+	 * Getter for the confidences
+	 * 
+	 * @return Confidences for each instance and label
+	 */
+	public float[][] getConfidences() {
+		return confidences;
+	}
+	
+	/**
+	 * Getter for the bipartitions
+	 * 
+	 * @return Bipartitions for each instance and label
+	 */
+	public boolean[][] getBipartitions() {
+		return bipartitions;
+	}
+	
+	/**
+	 * Get the number of instances in the batch
+	 * 
+	 * @return Number of instances
+	 */
+	public int getNumInstances() {
+		return confidences.length;
+	}
+	
+	/**
+	 * Get the predictions of a range of instances of the batch
+	 * 
+	 * @param from Index of the first instance (inclusive)
+	 * @param to Index of the last instance (exclusive)
+	 * @return Predictions of the instances in the range
+	 */
+	public BatchPrediction subset(int from, int to) {
+		return new BatchPrediction(Arrays.copyOfRange(confidences, from, to), Arrays.copyOfRange(bipartitions, from, to));
+	}
+	
+	/**
+	 * Get the prediction of a given instance as multi-label output
+	 * 
+	 * @param instance Index of the instance in the batch
+	 * @return Multi-label output
+	 */
+	public MultiLabelOutput getOutput(int instance) {
+		float[] confs = confidences[instance];
+		return new MultiLabelOutput(bipartitions[instance].clone(), IntStream.range(0, confs.length).mapToDouble(i -> confs[i]).toArray());
+	}
+}
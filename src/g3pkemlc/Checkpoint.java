@@ -0,0 +1,224 @@
+package g3pkemlc;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+import g3pkemlc.utils.KLabelset;
+import net.sf.jclec.util.random.IRandGen;
+
+/**
+ * Class implementing a checkpoint of the evolution.
+ * It stores the state needed to resume a run at the generation it was taken;
+ * 	the pool is stored once in its own directory and the checkpoint only keeps a reference to it.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class Checkpoint implements Serializable {
+	
+	/**
+	 * serialVersionUID
+	 */
+	private static final long serialVersionUID = 8219563476913586512L;
+	
+	/**
+	 * Genotypes of the individuals in the population
+	 */
+	String[] genotypes;
+	
+	/**
+	 * Fitness of the individuals in the population
+	 */
+	double[] fitness;
+	
+	/**
+	 * Generation in which the checkpoint was taken
+	 */
+	int generation;
+	
+	/**
+	 * Crossover probability
+	 */
+	double recombinationProb;
+	
+	/**
+	 * Mutation probability
+	 */
+	double mutationProb;
+	
+	/**
+	 * Best fitness so far
+	 */
+	float bestFitness;
+	
+	/**
+	 * Iteration in which best fitness was achieved
+	 */
+	int lastIterBestFitness;
+	
+	/**
+	 * Best average fitness so far
+	 */
+	float bestAvgFitness;
+	
+	/**
+	 * Random numbers generator of the algorithm
+	 */
+	IRandGen randgen;
+	
+	/**
+	 * Random numbers generators of the provider, selector and genetic operators
+	 */
+	IRandGen[] componentRandgens;
+	
+	/**
+	 * Random numbers generators of each island and its components; null if islands are not used
+	 */
+	IRandGen[][] islandRandgens;
+	
+	/**
+	 * Directory where the classifiers and the state of the pool are stored
+	 */
+	String poolDirectory;
+	
+	/**
+	 * Write an object in the hard disk atomically.
+	 * It is first written to a temporary file, which then replaces the target one,
+	 * 	so a failure while writing never leaves a partially written file.
+	 * 
+	 * @param obj Object to write
+	 * @param filepath Path of the file
+	 * @throws IOException if the object can not be written
+	 */
+	public static void write(Object obj, String filepath) throws IOException {
+		Path target = Paths.get(filepath);
+		Path tmp = Paths.get(filepath + ".tmp");
+		
+		try (FileOutputStream fileOut = new FileOutputStream(tmp.toFile());
+				ObjectOutputStream objectOut = new ObjectOutputStream(fileOut)) {
+			objectOut.writeObject(obj);
+			objectOut.flush();
+			fileOut.getFD().sync();
+		}
+		
+		try {
+			Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Get the random numbers generator of a component of the algorithm
+	 * 
+	 * @param component Provider, selector or genetic operator
+	 * @return Random numbers generator; null if the component has no one
+	 */
+	static IRandGen getRandgen(Object component) {
+		try {
+			Field field = randgenField(component);
+			if(field != null) {
+				return (IRandGen) field.get(component);
+			}
+		} catch (IllegalAccessException e) {
+			e.printStackTrace();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Set the random numbers generator of a component of the algorithm
+	 * 
+	 * @param component Provider, selector or genetic operator
+	 * @param randgen Random numbers generator
+	 */
+	static void setRandgen(Object component, IRandGen randgen) {
+		try {
+			Field field = randgenField(component);
+			if(field != null && randgen != null) {
+				field.set(component, randgen);
+			}
+		} catch (IllegalAccessException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Find the field storing the random numbers generator in the class hierarchy of a component.
+	 * JCLEC components create their generators when contextualized and do not expose them.
+	 * 
+	 * @param component Provider, selector or genetic operator
+	 * @return Accessible field; null if not found
+	 */
+	private static Field randgenField(Object component) {
+		for(Class<?> c = component.getClass(); c != null; c = c.getSuperclass()) {
+			try {
+				Field field = c.getDeclaredField("randgen");
+				field.setAccessible(true);
+				return field;
+			} catch (NoSuchFieldException e) {
+				//Look in the superclass
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Class storing the pool state needed to resume a run without rebuilding it.
+	 * The classifiers themselves are already stored in the directory of the pool.
+	 */
+	public static class PoolState implements Serializable {
+		
+		/**
+		 * serialVersionUID
+		 */
+		private static final long serialVersionUID = -4870136652190348217L;
+		
+		/**
+		 * Array of k-labelsets of the pool
+		 */
+		ArrayList<KLabelset> klabelsets;
+		
+		/**
+		 * Table with predictions of each classifier
+		 */
+		Hashtable<String, Prediction> tablePredictions;
+		
+		/**
+		 * Number of k-labelsets of each size
+		 */
+		int[] kSizes;
+		
+		/**
+		 * Average time (in microseconds) each classifier takes to predict an instance
+		 */
+		double[] classifierCosts;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param klabelsets Array of k-labelsets of the pool
+		 * @param tablePredictions Table with predictions of each classifier
+		 * @param kSizes Number of k-labelsets of each size
+		 * @param classifierCosts Average time (in microseconds) each classifier takes to predict an instance
+		 */
+		PoolState(ArrayList<KLabelset> klabelsets, Hashtable<String, Prediction> tablePredictions, int[] kSizes, double[] classifierCosts) {
+			this.klabelsets = klabelsets;
+			this.tablePredictions = tablePredictions;
+			this.kSizes = kSizes;
+			this.classifierCosts = classifierCosts;
+		}
+	}
+}
@@ -2,14 +2,16 @@ package g3pkemlc;
 
 import java.util.ArrayList;
 import java.util.Hashtable;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.IntStream;
 
-import g3pkemlc.utils.DatasetTransformation;
+import g3pkemlc.utils.CompiledTree;
 import g3pkemlc.utils.KLabelset;
 import g3pkemlc.utils.Utils;
 import mulan.classifier.InvalidDataException;
+import mulan.classifier.ModelInitializationException;
 import mulan.classifier.MultiLabelLearner;
 import mulan.classifier.MultiLabelLearnerBase;
 import mulan.classifier.MultiLabelOutput;
@@ -17,6 +19,7 @@ import mulan.classifier.meta.MultiLabelMetaLearner;
 import mulan.classifier.transformation.LabelPowerset2;
 import mulan.data.MultiLabelInstances;
 import weka.core.Instance;
+import weka.core.Instances;
 import weka.core.TechnicalInformation;
 
 /**
@@ -53,9 +56,14 @@ public class EMLC extends MultiLabelMetaLearner {
 	ArrayList<KLabelset> klabelsets;
 	
 	/**
-	 * Table with predictions of combined nodes
+	 * Tree compiled from the genotype when the ensemble is built
 	 */
-	Hashtable<String, Prediction> tablePredictions = new Hashtable<String, Prediction>();
+	CompiledTree tree;
+	
+	/**
+	 * Classifier of each distinct leaf of the compiled tree
+	 */
+	MultiLabelLearner[] treeLearners;
 	
 	/**
 	 * Utils
@@ -77,6 +85,17 @@ public class EMLC extends MultiLabelMetaLearner {
 	 */
 	float threshold = (float) 0.5;
 	
+	/**
+	 * Directory where the classifiers of the pool are stored
+	 */
+	String poolDirectory = "mlc/";
+	
+	/**
+	 * Number of instances predicted together in batch predictions.
+	 * By default, it is 256.
+	 */
+	int batchSize = 256;
+	
 	/**
 	 * Constructor
 	 * 
@@ -125,6 +144,42 @@ public class EMLC extends MultiLabelMetaLearner {
 		this.threshold = threshold;
 	}
 	
+	/**
+	 * Setter for the directory of the pool
+	 * 
+	 * @param poolDirectory Directory where the classifiers of the pool are stored
+	 */
+	public void setPoolDirectory(String poolDirectory) {
+		this.poolDirectory = poolDirectory;
+	}
+	
+	/**
+	 * Setter for the batch size
+	 * 
+	 * @param batchSize Number of instances predicted together in batch predictions
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Getter for the number of leaf calls made when predicting combining bipartitions
+	 * 
+	 * @return Number of leaf classifiers called
+	 */
+	public long getLeafCallsMade() {
+		return tree.getLeafCallsMade();
+	}
+	
+	/**
+	 * Getter for the number of leaf calls avoided when predicting combining bipartitions
+	 * 
+	 * @return Number of leaf classifiers not called because their labels were already decided
+	 */
+	public long getLeafCallsAvoided() {
+		return tree.getLeafCallsAvoided();
+	}
+	
 	/**
 	 * Reset seed for each member
 	 */
@@ -141,18 +196,32 @@ public class EMLC extends MultiLabelMetaLearner {
 		//Load each learner from hard disk
 		//	They were built when the initial pool was created
 		for(int i=0; i<leaves.size(); i++) {
-			learners.put(String.valueOf(leaves.get(i)), (MultiLabelLearnerBase) utils.loadObject("mlc/classifier"+leaves.get(i)+".mlc"));
+			learners.put(String.valueOf(leaves.get(i)), (MultiLabelLearnerBase) utils.loadObject(poolDirectory+"classifier"+leaves.get(i)+".mlc"));
 		}
 		
 		//Store the label indices of the original dataset
 		labelIndices = trainingSet.getLabelIndices();
+		
+		//Compile the genotype, so it is not parsed for each prediction
+		tree = new CompiledTree(genotype, klabelsets, trainingSet.getNumLabels());
+		treeLearners = new MultiLabelLearner[tree.getLeaves().length];
+		for(int i=0; i<treeLearners.length; i++) {
+			treeLearners[i] = learners.get(String.valueOf(tree.getLeaves()[i]));
+		}
 	}
 	
 	@Override
 	protected MultiLabelOutput makePredictionInternal(Instance instance) throws Exception, InvalidDataException {
-		//Get final prediction by reducing the tree
-		//	Returns a matrix of predictions; get only the first row
-		float [] confs = reduce(genotype, instance).pred[0];
+		//Get final prediction with the compiled tree
+		//	Labels not covered by the tree have confidence 0
+		//	Combining bipartitions, only the nodes needed to decide each label are evaluated
+		float [] confs;
+		if(useConfidences) {
+			confs = tree.predict(instance, treeLearners, true, threshold);
+		}
+		else {
+			confs = tree.predictLazy(instance, treeLearners, threshold);
+		}
 		
 		//Transform to multi-label output
 		boolean[] bip = new boolean[numLabels];
@@ -169,115 +238,82 @@ public class EMLC extends MultiLabelMetaLearner {
 	}
 	
 	/**
-	 * Reduce the tree and obtain the final tree prediction for a given instance
+	 * Predict all the instances of a multi-label dataset
 	 * 
-	 * @param ind Individual, tree
-	 * @param instance Instance to predict
-	 * @return Prediction of the tree for the instance
+	 * @param data Multi-label dataset
+	 * @return Predictions for each instance
+	 * @throws Exception if the ensemble is not built or some classifier fails predicting
 	 */
-	public Prediction reduce(String ind, Instance instance) {
-		//Match two or more leaves (numer or _number) between parenthesis
-		//	Only number means a classifier from the pool
-		//	_number means a previous combination of nodes
-		Pattern pattern = Pattern.compile("\\((_?\\d+ )+_?\\d+\\)");
-		Matcher m = pattern.matcher(ind);
-		
-		//count to add predictions of combined nodes into the table
-		int count = 0;
-		Prediction pred = new Prediction(1);
-		
-		while(m.find()) {
-			//Combine the predictions of current nodes
-			pred = combine(m.group(0), instance);
-			
-			//Put combined predictions into the table
-			tablePredictions.put("_"+count, pred);
-			
-			//Replace node in the genotype
-			ind = ind.substring(0, m.start()) + "_" + count + ind.substring(m.end(), ind.length());
-			
-			//Increment counter and match next one
-			count++;
-			m = pattern.matcher(ind);
-		}
-		
-		return pred;
+	public BatchPrediction predictBatch(MultiLabelInstances data) throws Exception {
+		return predictBatch(data.getDataSet(), 1);
 	}
 	
 	/**
-	 * Combine predictions of several nodes
+	 * Predict all the instances of a dataset
 	 * 
-	 * @param nodes String with the nodes to combine
-	 * @param instance Instance to predict
-	 * @return Combined prediction
+	 * @param instances Instances to predict
+	 * @param nThreads Number of threads predicting chunks of instances
+	 * @return Predictions for each instance
+	 * @throws Exception if the ensemble is not built or some classifier fails predicting
 	 */
-	protected Prediction combine(String nodes, Instance instance){
-		Prediction pred = new Prediction(1);
-		
-		Pattern pattern = Pattern.compile("\\d+");
-		Matcher m;
-		
-		int n;
-		
-		DatasetTransformation dt = new DatasetTransformation();
-		
-		//Split the nodes by space, so get the leaves
-		String [] pieces = nodes.split(" ");
-		for(String piece : pieces) {
-			//Get index included in the piece and store in n
-			m = pattern.matcher(piece);
-			m.find();
-			n = Integer.parseInt(m.group(0));
-
-			//If the piece contains the character "_" is a combination of other nodes
-			if(piece.contains("_")) {
-				//Add to the current prediction, the prediction of one of the previously combined nodes
-				pred.addPrediction(tablePredictions.get("_"+n));
-				
-				//Remove because it is not going to be used again
-				tablePredictions.remove("_"+n);
-			}
-			else {
-				//Add to the current prediction, the prediction of the corresponding classifier
-				pred.addPrediction(new Prediction(dt.getOriginalLabelIndices(labelIndices, klabelsets.get(n).getKlabelset()), getPredictions(learners.get(String.valueOf(n)), instance)));
-			}
-		}
-
-		//Divide prediction by the number of learners and apply threshold (in case)
-		if(useConfidences) {
-			pred.divide();
-		}
-		else {
-			pred.divideAndThresholdPrediction(threshold);
+	public BatchPrediction predictBatch(Instances instances, int nThreads) throws Exception {
+		Instance[] array = new Instance[instances.numInstances()];
+		for(int i=0; i<array.length; i++) {
+			array[i] = instances.get(i);
 		}
 		
-		return pred;
+		return predictBatch(array, nThreads);
 	}
-
+	
 	/**
-	 * Get the predictions of a given learner and for a given instance
+	 * Predict an array of instances.
+	 * Instances are split in chunks of batchSize instances; for each chunk, each classifier
+	 * 	predicts all its instances and then the nodes of the tree are combined for all of them at once.
 	 * 
-	 * @param learner Multi-label classifier
-	 * @param instance Instance to predict
-	 * @return Predictions
+	 * @param instances Instances to predict
+	 * @param nThreads Number of threads predicting chunks of instances
+	 * @return Predictions for each instance
+	 * @throws Exception if the ensemble is not built or some classifier fails predicting
 	 */
-	protected float[][] getPredictions(MultiLabelLearner learner, Instance instance){
-		float[][] pred = new float[1][numLabels];
-		pred[0] = null;
+	public BatchPrediction predictBatch(Instance[] instances, int nThreads) throws Exception {
+		if(tree == null) {
+			throw new ModelInitializationException("The model has not been trained.");
+		}
 		
-		try {
-			if(useConfidences) {
-				pred[0] = utils.doublesToFloat(learner.makePrediction(instance).getConfidences());
+		float[][] confidences = new float[instances.length][];
+		int size = Math.max(1, batchSize);
+		
+		if(nThreads <= 1) {
+			for(int from=0; from<instances.length; from+=size) {
+				tree.predictBatch(instances, from, Math.min(from+size, instances.length), treeLearners, useConfidences, threshold, confidences);
 			}
-			else {
-				pred[0] = utils.bipartitionToConfidence(learner.makePrediction(instance).getBipartition());
+		}
+		else {
+			//Each chunk stores its predictions in its own rows of the matrix
+			ExecutorService executorService = Executors.newFixedThreadPool(nThreads);
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+			
+			for(int from=0; from<instances.length; from+=size) {
+				int chunkFrom = from;
+				int chunkTo = Math.min(from+size, instances.length);
+				futures.add(executorService.submit(() -> {
+					tree.predictBatch(instances, chunkFrom, chunkTo, treeLearners, useConfidences, threshold, confidences);
+					return null;
+				}));
 			}
+			executorService.shutdown();
 			
-		} catch (Exception e) {
-			e.printStackTrace();
+			try {
+				//Wait until all chunks are predicted, propagating their errors
+				for(Future<?> future : futures) {
+					future.get();
+				}
+			} finally {
+				executorService.shutdownNow();
+			}
 		}
 		
-		return pred;
+		return new BatchPrediction(confidences, threshold);
 	}
 	
 	
@@ -0,0 +1,525 @@
+package g3pkemlc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import g3pkemlc.utils.CompiledTree;
+import g3pkemlc.utils.KLabelset;
+import mulan.classifier.InvalidDataException;
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.MultiLabelOutput;
+import mulan.data.MultiLabelInstances;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Class implementing a deployable ensemble stored in a single file.
+ * The file includes the genotype (with leaves renumbered from 0), the k-labelsets of its leaves,
+ * 	the header of the data with the label metadata, and each distinct leaf classifier once.
+ * When loaded, the file is memory-mapped and each leaf classifier is only deserialized
+ * 	the first time it is needed, so neither the training data nor the pool are required.
+ * 
+ * File layout: magic number, version, length and bytes of the serialized metadata,
+ * 	number of leaves, offset and length of each leaf, and the serialized leaves.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class EnsembleArtifact {
+	
+	/**
+	 * Magic number at the beginning of the file
+	 */
+	static final int MAGIC = 0x47334B45;
+	
+	/**
+	 * Version of the file format
+	 */
+	static final int VERSION = 1;
+	
+	/**
+	 * Metadata of the ensemble
+	 */
+	Metadata metadata;
+	
+	/**
+	 * Memory-mapped file
+	 */
+	MappedByteBuffer buffer;
+	
+	/**
+	 * Position of each leaf classifier in the file
+	 */
+	long[] offsets;
+	
+	/**
+	 * Length of each leaf classifier in the file
+	 */
+	int[] lengths;
+	
+	/**
+	 * Classifier of each leaf, deserialized when first used
+	 */
+	MultiLabelLearner[] learners;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param metadata Metadata of the ensemble
+	 * @param buffer Memory-mapped file
+	 * @param offsets Position of each leaf classifier in the file
+	 * @param lengths Length of each leaf classifier in the file
+	 */
+	EnsembleArtifact(Metadata metadata, MappedByteBuffer buffer, long[] offsets, int[] lengths) {
+		this.metadata = metadata;
+		this.buffer = buffer;
+		this.offsets = offsets;
+		this.lengths = lengths;
+		
+		learners = new MultiLabelLearner[offsets.length];
+		for(int i=0; i<learners.length; i++) {
+			learners[i] = new LazyLearner(i);
+		}
+	}
+	
+	/**
+	 * Export a built ensemble to a file
+	 * 
+	 * @param ensemble Built ensemble
+	 * @param data Multi-label data used to build the ensemble (only its header is stored)
+	 * @param filepath Path of the file
+	 * @throws IOException if the file can not be written
+	 */
+	public static void export(EMLC ensemble, MultiLabelInstances data, String filepath) throws IOException {
+		//Renumber the leaves in order of appearance, as they are numbered in the compiled tree
+		HashMap<Integer, Integer> ids = new HashMap<Integer, Integer>();
+		ArrayList<Integer> poolLeaves = new ArrayList<Integer>();
+		
+		Matcher m = Pattern.compile("\\d+").matcher(ensemble.genotype);
+		StringBuffer genotype = new StringBuffer();
+		while(m.find()) {
+			int leaf = Integer.parseInt(m.group());
+			Integer id = ids.get(leaf);
+			if(id == null) {
+				id = poolLeaves.size();
+				ids.put(leaf, id);
+				poolLeaves.add(leaf);
+			}
+			m.appendReplacement(genotype, String.valueOf(id));
+		}
+		m.appendTail(genotype);
+		
+		//Only the k-labelsets and classifiers of the leaves are stored
+		ArrayList<KLabelset> klabelsets = new ArrayList<KLabelset>(poolLeaves.size());
+		byte[][] blobs = new byte[poolLeaves.size()][];
+		for(int i=0; i<poolLeaves.size(); i++) {
+			klabelsets.add(ensemble.klabelsets.get(poolLeaves.get(i)));
+			blobs[i] = serialize(ensemble.learners.get(String.valueOf(poolLeaves.get(i))));
+		}
+		
+		Metadata metadata = new Metadata();
+		metadata.genotype = genotype.toString();
+		metadata.klabelsets = klabelsets;
+		metadata.tree = new CompiledTree(metadata.genotype, klabelsets, data.getNumLabels());
+		metadata.header = new Instances(data.getDataSet(), 0);
+		metadata.labelIndices = data.getLabelIndices();
+		metadata.labelNames = new String[metadata.labelIndices.length];
+		for(int j=0; j<metadata.labelIndices.length; j++) {
+			metadata.labelNames[j] = metadata.header.attribute(metadata.labelIndices[j]).name();
+		}
+		metadata.useConfidences = ensemble.useConfidences;
+		metadata.threshold = ensemble.threshold;
+		byte[] meta = serialize(metadata);
+		
+		//Write in a temporary file that replaces the target one when complete
+		Path target = Paths.get(filepath);
+		Path tmp = Paths.get(filepath + ".tmp");
+		
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp.toFile())))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(meta.length);
+			out.write(meta);
+			out.writeInt(blobs.length);
+			
+			long offset = 4 + 4 + 4 + meta.length + 4 + (long)blobs.length * (8 + 4);
+			for(byte[] blob : blobs) {
+				out.writeLong(offset);
+				out.writeInt(blob.length);
+				offset += blob.length;
+			}
+			for(byte[] blob : blobs) {
+				out.write(blob);
+			}
+		}
+		
+		try {
+			Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Load an ensemble from a file.
+	 * Only the metadata is deserialized; leaf classifiers are deserialized when first used.
+	 * 
+	 * @param filepath Path of the file
+	 * @return Loaded ensemble
+	 * @throws IOException if the file can not be read or its format is not valid
+	 */
+	public static EnsembleArtifact load(String filepath) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ)) {
+			if(channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("The file " + filepath + " is too large to be mapped.");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		
+		if(buffer.getInt() != MAGIC) {
+			throw new IOException(filepath + " is not an ensemble file.");
+		}
+		int version = buffer.getInt();
+		if(version != VERSION) {
+			throw new IOException("Version " + version + " of the ensemble file is not supported.");
+		}
+		
+		byte[] meta = new byte[buffer.getInt()];
+		buffer.get(meta);
+		Metadata metadata;
+		try {
+			metadata = (Metadata) deserialize(meta);
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+		
+		int nLeaves = buffer.getInt();
+		long[] offsets = new long[nLeaves];
+		int[] lengths = new int[nLeaves];
+		for(int i=0; i<nLeaves; i++) {
+			offsets[i] = buffer.getLong();
+			lengths[i] = buffer.getInt();
+		}
+		
+		return new EnsembleArtifact(metadata, buffer, offsets, lengths);
+	}
+	
+	/**
+	 * Predict an instance.
+	 * It is safe to call it concurrently.
+	 * 
+	 * @param instance Instance to predict, with the format of getHeader()
+	 * @return Multi-label output
+	 * @throws Exception if some classifier fails predicting the instance
+	 */
+	public MultiLabelOutput predict(Instance instance) throws Exception {
+		float [] confs;
+		if(metadata.useConfidences) {
+			confs = metadata.tree.predict(instance, learners, true, metadata.threshold);
+		}
+		else {
+			confs = metadata.tree.predictLazy(instance, learners, metadata.threshold);
+		}
+		
+		boolean[] bip = new boolean[confs.length];
+		for(int i=0; i<confs.length; i++) {
+			bip[i] = confs[i] >= metadata.threshold;
+		}
+		
+		return new MultiLabelOutput(bip, IntStream.range(0, confs.length).mapToDouble(i -> confs[i]).toArray());
+	}
+	
+	/**
+	 * Predict a range of instances, each leaf predicting all of them before combining the nodes
+	 * 
+	 * @param instances Instances to predict, with the format of getHeader()
+	 * @param from Index of the first instance to predict (inclusive)
+	 * @param to Index of the last instance to predict (exclusive)
+	 * @return Predictions of the instances in the range
+	 * @throws Exception if some classifier fails predicting the instances
+	 */
+	public BatchPrediction predictBatch(Instance[] instances, int from, int to) throws Exception {
+		float[][] confidences = new float[instances.length][];
+		metadata.tree.predictBatch(instances, from, to, learners, metadata.useConfidences, metadata.threshold, confidences);
+		
+		float[][] range = new float[to - from][];
+		System.arraycopy(confidences, from, range, 0, to - from);
+		return new BatchPrediction(range, metadata.threshold);
+	}
+	
+	/**
+	 * Getter for the header
+	 * 
+	 * @return Empty dataset with the format of the data
+	 */
+	public Instances getHeader() {
+		return metadata.header;
+	}
+	
+	/**
+	 * Getter for the label names
+	 * 
+	 * @return Name of each label
+	 */
+	public String[] getLabelNames() {
+		return metadata.labelNames;
+	}
+	
+	/**
+	 * Getter for the label indices
+	 * 
+	 * @return Index of each label in the header
+	 */
+	public int[] getLabelIndices() {
+		return metadata.labelIndices;
+	}
+	
+	/**
+	 * Get the indices of the features, i.e., the attributes that are not labels
+	 * 
+	 * @return Index of each feature in the header, in the order of the header
+	 */
+	public int[] getFeatureIndices() {
+		boolean[] isLabel = new boolean[metadata.header.numAttributes()];
+		for(int l : metadata.labelIndices) {
+			isLabel[l] = true;
+		}
+		
+		int[] featureIndices = new int[isLabel.length - metadata.labelIndices.length];
+		int f = 0;
+		for(int a=0; a<isLabel.length; a++) {
+			if(!isLabel[a]) {
+				featureIndices[f] = a;
+				f++;
+			}
+		}
+		
+		return featureIndices;
+	}
+	
+	/**
+	 * Getter for the number of labels
+	 * 
+	 * @return Number of labels
+	 */
+	public int getNumLabels() {
+		return metadata.labelIndices.length;
+	}
+	
+	/**
+	 * Getter for the genotype
+	 * 
+	 * @return Genotype of the ensemble, with leaves renumbered from 0
+	 */
+	public String getGenotype() {
+		return metadata.genotype;
+	}
+	
+	/**
+	 * Getter for the compiled tree
+	 * 
+	 * @return Compiled tree
+	 */
+	public CompiledTree getTree() {
+		return metadata.tree;
+	}
+	
+	/**
+	 * Get the number of leaf classifiers
+	 * 
+	 * @return Number of distinct leaves
+	 */
+	public int getNumLeaves() {
+		return learners.length;
+	}
+	
+	/**
+	 * Get the classifier of a leaf, deserializing it if needed
+	 * 
+	 * @param leaf Index of the leaf
+	 * @return Classifier of the leaf
+	 * @throws Exception if the classifier can not be deserialized
+	 */
+	public MultiLabelLearner getLeaf(int leaf) throws Exception {
+		return ((LazyLearner)learners[leaf]).get();
+	}
+	
+	/**
+	 * Indicates if the ensemble combines confidences
+	 * 
+	 * @return True if confidences are combined; false if bipartitions are combined
+	 */
+	public boolean isUsingConfidences() {
+		return metadata.useConfidences;
+	}
+	
+	/**
+	 * Getter for the threshold
+	 * 
+	 * @return Threshold to obtain the bipartitions
+	 */
+	public float getThreshold() {
+		return metadata.threshold;
+	}
+	
+	/**
+	 * Get the number of leaf classifiers already deserialized
+	 * 
+	 * @return Number of loaded leaves
+	 */
+	public int getNumLoadedLeaves() {
+		int count = 0;
+		for(MultiLabelLearner learner : learners) {
+			if(((LazyLearner)learner).learner != null) {
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Serialize an object into an array of bytes
+	 * 
+	 * @param obj Object
+	 * @return Bytes of the serialized object
+	 * @throws IOException if the object can not be serialized
+	 */
+	static byte[] serialize(Object obj) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(obj);
+		}
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Deserialize an object from an array of bytes
+	 * 
+	 * @param bytes Bytes of the serialized object
+	 * @return Object
+	 * @throws IOException if the object can not be deserialized
+	 * @throws ClassNotFoundException if the class of the object is not found
+	 */
+	static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return in.readObject();
+		}
+	}
+	
+	/**
+	 * Metadata of the ensemble
+	 */
+	static class Metadata implements Serializable {
+		
+		private static final long serialVersionUID = 2940457286611308925L;
+		
+		String genotype;
+		
+		ArrayList<KLabelset> klabelsets;
+		
+		CompiledTree tree;
+		
+		Instances header;
+		
+		int[] labelIndices;
+		
+		String[] labelNames;
+		
+		boolean useConfidences;
+		
+		float threshold;
+	}
+	
+	/**
+	 * Leaf classifier deserialized from the mapped file the first time it predicts
+	 */
+	class LazyLearner implements MultiLabelLearner {
+		
+		/**
+		 * Index of the leaf
+		 */
+		int index;
+		
+		/**
+		 * Deserialized classifier; null until it is needed
+		 */
+		volatile MultiLabelLearner learner;
+		
+		LazyLearner(int index) {
+			this.index = index;
+		}
+		
+		/**
+		 * Get the classifier, deserializing it if needed
+		 * 
+		 * @return Classifier
+		 * @throws Exception if the classifier can not be deserialized
+		 */
+		MultiLabelLearner get() throws Exception {
+			MultiLabelLearner current = learner;
+			if(current == null) {
+				synchronized (this) {
+					if(learner == null) {
+						byte[] bytes = new byte[lengths[index]];
+						ByteBuffer slice = buffer.duplicate();
+						slice.position((int) offsets[index]);
+						slice.get(bytes);
+						learner = (MultiLabelLearner) deserialize(bytes);
+					}
+					current = learner;
+				}
+			}
+			
+			return current;
+		}
+		
+		@Override
+		public MultiLabelOutput makePrediction(Instance instance) throws Exception, InvalidDataException {
+			return get().makePrediction(instance);
+		}
+		
+		@Override
+		public boolean isUpdatable() {
+			return false;
+		}
+		
+		@Override
+		public void build(MultiLabelInstances instances) throws Exception {
+			throw new UnsupportedOperationException("Leaves of a deployed ensemble can not be built.");
+		}
+		
+		@Override
+		public MultiLabelLearner makeCopy() throws Exception {
+			return get().makeCopy();
+		}
+		
+		@Override
+		public void setDebug(boolean debug) {
+			//Do nothing
+		}
+	}
+}
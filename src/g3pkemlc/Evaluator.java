@@ -1,10 +1,19 @@
 package g3pkemlc;
 
-import java.sql.Timestamp;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Hashtable;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
 
+import g3pkemlc.distributed.FitnessCoordinator;
+import g3pkemlc.utils.CompiledTree;
+import g3pkemlc.utils.DatasetCache;
 import g3pkemlc.utils.TreeUtils;
 import g3pkemlc.utils.Utils;
 import mulan.data.MultiLabelInstances;
@@ -15,7 +24,6 @@ import net.sf.jclec.base.AbstractParallelEvaluator;
 import net.sf.jclec.fitness.SimpleValueFitness;
 import net.sf.jclec.fitness.ValueFitnessComparator;
 import net.sf.jclec.stringtree.StringTreeIndividual;
-import net.sf.jclec.util.random.IRandGen;
 
 /**
  * Class implementing the evaluator for StringTreeIndividuals.
@@ -46,13 +54,19 @@ public class Evaluator extends AbstractParallelEvaluator {
 	 */
 	MultiLabelInstances fullTrainData;
 	
+	/**
+	 * Bitmask of relevant labels for each instance in fullTrainData
+	 */
+	long[][] labelBitmasks;
+	
 	/**
 	 * Utils
 	 */
 	Utils utils = new Utils();
 	
 	/**
-	 * Table with predictions of each classifier over fullTrainData
+	 * Table with predictions of each classifier over fullTrainData.
+	 * It is only read, so it may be shared with other runs.
 	 */
 	Hashtable<String, Prediction> tablePredictions;
 	
@@ -67,14 +81,61 @@ public class Evaluator extends AbstractParallelEvaluator {
 	double beta;
 	
 	/**
-	 * Random numbers generator
+	 * Average time (in microseconds) each classifier takes to predict an instance; null if the cost is not considered
 	 */
-	IRandGen randgen;
+	double[] classifierCosts;
 	
 	/**
-	 * Locker for critical code blocks in parallel execution
+	 * Sum of the costs of all the classifiers, used to normalize the cost of the trees
 	 */
-	ReentrantLock lock = new ReentrantLock(); 
+	double totalCost;
+	
+	/**
+	 * Weight of the normalized cost of the tree in the fitness
+	 */
+	double costWeight;
+	
+	/**
+	 * Maximum cost (in microseconds per instance) of the tree; 0 if there is no budget
+	 */
+	double costBudget;
+	
+	/**
+	 * Persistent pool of threads evaluating the individuals; null if the evaluation of JCLEC is used
+	 */
+	transient ForkJoinPool pool = null;
+	
+	/**
+	 * Number of threads of the pool
+	 */
+	int nThreads;
+	
+	/**
+	 * Wall time (in ms) of the last evaluation of a population
+	 */
+	double lastWallTime = 0;
+	
+	/**
+	 * Fraction of the time of the threads spent evaluating in the last evaluation of a population
+	 */
+	double lastUtilization = 0;
+	
+	/**
+	 * Number of instances of each chunk when the fitness of a tree is calculated over chunks of instances in parallel;
+	 * 	0 if the fitness is calculated over all the instances at once
+	 */
+	int chunkSize = 0;
+	
+	/**
+	 * Labels (from 0 to numLabels-1) predicted by each classifier of the pool, in the order of its predictions
+	 */
+	transient volatile int[][] poolLabels = null;
+	
+	/**
+	 * Coordinator of the worker processes calculating the fitness over shards of the training data;
+	 * 	null if the fitness is calculated in this process
+	 */
+	transient FitnessCoordinator coordinator = null;
 	
 	/**
 	 * Constructor
@@ -100,6 +161,15 @@ public class Evaluator extends AbstractParallelEvaluator {
 		this.fullTrainData = fullTrainData;
 	}
 
+	/**
+	 * Setter for labelBitmasks
+	 * 
+	 * @param labelBitmasks Bitmask of relevant labels for each instance in full train data
+	 */
+	public void setLabelBitmasks(long[][] labelBitmasks) {
+		this.labelBitmasks = labelBitmasks;
+	}
+	
 	/**
 	 * Setter for tablePredictions
 	 * 
@@ -107,6 +177,7 @@ public class Evaluator extends AbstractParallelEvaluator {
 	 */
 	public void setTablePredictions(Hashtable<String, Prediction> tablePredictions) {
 		this.tablePredictions = tablePredictions;
+		this.poolLabels = null;
 	}
 	
 	/**
@@ -128,46 +199,405 @@ public class Evaluator extends AbstractParallelEvaluator {
 	}
 	
 	/**
-	 * Setter for randgen
+	 * Set the costs of the classifiers, to include the cost of the trees in the fitness
+	 * 
+	 * @param classifierCosts Average time (in microseconds) each classifier takes to predict an instance
+	 * @param costWeight Weight of the normalized cost of the tree in the fitness
+	 * @param costBudget Maximum cost (in microseconds per instance) of the tree; 0 if there is no budget
+	 */
+	public void setCosts(double[] classifierCosts, double costWeight, double costBudget) {
+		this.classifierCosts = classifierCosts;
+		this.costWeight = costWeight;
+		this.costBudget = costBudget;
+		
+		totalCost = 0;
+		for(double c : classifierCosts) {
+			totalCost += c;
+		}
+	}
+	
+	/**
+	 * Calculate the prediction cost of a tree.
+	 * Each distinct leaf predicts once, so the cost is the sum of the costs of the distinct leaves.
+	 * 
+	 * @param gen Genotype of the tree
+	 * @return Cost in microseconds per instance
+	 */
+	public double cost(String gen) {
+		double cost = 0;
+		for(int leaf : utils.getLeaves(gen)) {
+			cost += classifierCosts[leaf];
+		}
+		
+		return cost;
+	}
+	
+	/**
+	 * Set the number of threads evaluating the individuals.
+	 * The threads are kept between generations, and idle threads steal work from the busy ones.
 	 * 
-	 * @param randgen Randgen
+	 * @param nThreads Number of threads; if lower than 1, the number of available processors
 	 */
-	public void setRandgen(IRandGen randgen) {
-		this.randgen = randgen;
+	public void setThreads(int nThreads) {
+		if(pool != null) {
+			pool.shutdown();
+		}
+		
+		this.nThreads = (nThreads < 1) ? Runtime.getRuntime().availableProcessors() : nThreads;
+		pool = new ForkJoinPool(this.nThreads);
+	}
+	
+	/**
+	 * Set the number of instances of each chunk to calculate the fitness of a tree in parallel.
+	 * The instances are split in chunks that are reduced in the pool of threads, and the statistics
+	 * 	of the chunks are merged, so large datasets use all the threads even if few individuals are evaluated.
+	 * 
+	 * @param chunkSize Number of instances of each chunk; 0 to calculate the fitness over all the instances at once
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
 	}
 	
+	/**
+	 * Set the coordinator of the worker processes calculating the fitness.
+	 * The table of predictions is kept in shards by the workers, so it is not used in this process.
+	 * 
+	 * @param coordinator Coordinator with the workers already started; null to calculate the fitness in this process
+	 */
+	public void setCoordinator(FitnessCoordinator coordinator) {
+		this.coordinator = coordinator;
+		this.poolLabels = null;
+	}
+	
+	/**
+	 * Stop the threads evaluating the individuals
+	 */
+	public void shutdown() {
+		if(pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+	
+	/**
+	 * Getter for the wall time of the last evaluation of a population
+	 * 
+	 * @return Time in ms
+	 */
+	public double getLastWallTime() {
+		return lastWallTime;
+	}
+	
+	/**
+	 * Getter for the utilization of the threads in the last evaluation of a population
+	 * 
+	 * @return Fraction of the time of the threads spent evaluating, in [0, 1]
+	 */
+	public double getLastUtilization() {
+		return lastUtilization;
+	}
+	
+	/**
+	 * Evaluate the individuals without fitness in the persistent pool of threads.
+	 * The cost of evaluating a tree grows with its number of leaves, so the individuals are submitted
+	 * 	from the largest to the smallest genotype, and the smallest ones fill the idle threads at the end.
+	 */
 	@Override
-	protected void evaluate(IIndividual ind) 
-	{
-		//Lock here the use of randgen to generate the unique key for the individual
-		lock.lock();
-		String key = Long.toString(new Timestamp(System.currentTimeMillis()).getTime());
-		int r = randgen.choose(3, 10);
-		for(int i=0; i<r; i++) {
-			key += (char)randgen.choose(48, 123);
+	public void evaluate(List<IIndividual> inds) {
+		if(coordinator != null) {
+			distributedEvaluate(inds);
+			return;
+		}
+		if(pool == null) {
+			super.evaluate(inds);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		
+		ArrayList<IIndividual> pending = new ArrayList<IIndividual>();
+		for(IIndividual ind : inds) {
+			if(ind.getFitness() == null) {
+				pending.add(ind);
+			}
+		}
+		pending.sort(Comparator.comparingInt((IIndividual ind) -> ((StringTreeIndividual)ind).getGenotype().length()).reversed());
+		
+		//Time spent by the threads evaluating
+		LongAdder busy = new LongAdder();
+		ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(pending.size());
+		for(IIndividual ind : pending) {
+			tasks.add(pool.submit(() -> {
+				long t = System.nanoTime();
+				evaluate(ind);
+				busy.add(System.nanoTime() - t);
+			}));
+		}
+		for(ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+		
+		long wall = System.nanoTime() - start;
+		//Islands evaluate their subpopulations concurrently in the same pool
+		synchronized(this) {
+			numberOfEvaluations += pending.size();
+			evaluationTime += wall / 1000000;
+			lastWallTime = wall / 1000000.0;
+			lastUtilization = (wall > 0) ? Math.min(1.0, busy.sum() / ((double)wall * nThreads)) : 0.0;
+		}
+	}
+	
+	/**
+	 * Evaluate the individuals without fitness in the worker processes, all in the same batch
+	 * 
+	 * @param inds Individuals to evaluate
+	 */
+	protected void distributedEvaluate(List<IIndividual> inds) {
+		long start = System.nanoTime();
+		
+		ArrayList<IIndividual> pending = new ArrayList<IIndividual>();
+		for(IIndividual ind : inds) {
+			if(ind.getFitness() == null) {
+				pending.add(ind);
+			}
 		}
-		lock.unlock();
 		
+		String[] gens = new String[pending.size()];
+		for(int i=0; i<gens.length; i++) {
+			gens[i] = ((StringTreeIndividual)pending.get(i)).getGenotype();
+		}
+		
+		double[] fitness = distributedFitness(gens);
+		for(int i=0; i<gens.length; i++) {
+			pending.get(i).setFitness(new SimpleValueFitness(fitness[i]));
+		}
+		
+		long wall = System.nanoTime() - start;
+		synchronized(this) {
+			numberOfEvaluations += pending.size();
+			evaluationTime += wall / 1000000;
+			lastWallTime = wall / 1000000.0;
+			lastUtilization = 0;
+		}
+	}
+	
+	@Override
+	protected void evaluate(IIndividual ind) 
+	{
 		String gen = ((StringTreeIndividual)ind).getGenotype();
-
-		double fitness = 0.0;
+		
+		if(coordinator != null) {
+			ind.setFitness(new SimpleValueFitness(distributedFitness(new String[] {gen})[0]));
+			return;
+		}
+		if(chunkSize > 0) {
+			ind.setFitness(new SimpleValueFitness(chunkedFitness(gen)));
+			return;
+		}
 		
 		//Get final predictions by reducing the tree
-		Prediction pred = TreeUtils.reduce(gen, key, tablePredictions, fullTrainData.getNumInstances(), useConfidences);
+		Prediction pred = TreeUtils.reduce(gen, tablePredictions, fullTrainData.getNumInstances(), useConfidences);
 		
+		//Set individual fitness
+		ind.setFitness(new SimpleValueFitness(fitness(gen, pred)));
+	}
+	
+	/**
+	 * Calculate the fitness of a tree given its predictions over the full training data.
+	 * If costs are set, the normalized cost of the tree is subtracted with the given weight,
+	 * 	and trees exceeding the budget have negative fitness, lower as the excess is greater.
+	 * 
+	 * @param gen Genotype of the tree
+	 * @param pred Predictions of the tree, obtained by reducing it
+	 * @return Fitness
+	 */
+	public double fitness(String gen, Prediction pred) {
 		//If the tree does not cover all the labels, the fitness is negative
 		if(pred.labelIndices.size() != fullTrainData.getNumLabels()) {
-			//The fitness is lower (worse) as it cover less number of labels
-			//	In case of hipothetically selecting two negative fitness individuals in tournament, the one that cover more labels is selected
-			fitness = ((pred.labelIndices.size()*1.0) / fullTrainData.getNumLabels()) - 1;
+			return uncoveredFitness(pred.labelIndices.size());
 		}
-		else {
-			//Calculate fitness (ExF and MaF) with the reduced predictions
-			fitness = beta*exF(pred, fullTrainData) + (1-beta)*maF(pred, fullTrainData);
+		
+		//Calculate fitness (ExF and MaF) with the reduced predictions
+		return fitness(gen, exF(pred, fullTrainData), maF(pred, fullTrainData));
+	}
+	
+	/**
+	 * Calculate the fitness of a tree that does not cover all the labels.
+	 * The fitness is lower (worse) as it cover less number of labels.
+	 * In case of hipothetically selecting two negative fitness individuals in tournament, the one that cover more labels is selected.
+	 * 
+	 * @param nCovered Number of labels covered by the tree
+	 * @return Fitness, in [-1, 0) range
+	 */
+	protected double uncoveredFitness(int nCovered) {
+		return ((nCovered*1.0) / fullTrainData.getNumLabels()) - 1;
+	}
+	
+	/**
+	 * Calculate the fitness of a tree covering all the labels given its ExF and MaF.
+	 * 
+	 * @param gen Genotype of the tree
+	 * @param exF Example-based FMeasure of the tree
+	 * @param maF Macro-averaged FMeasure of the tree
+	 * @return Fitness
+	 */
+	protected double fitness(String gen, double exF, double maF) {
+		double fitness = beta*exF + (1-beta)*maF;
+		
+		if(classifierCosts != null) {
+			double cost = cost(gen);
+			//Trees over the budget are below the ones not covering all the labels, in (-2, -1)
+			if(costBudget > 0 && cost > costBudget) {
+				fitness = -1 - (cost - costBudget) / cost;
+			}
+			else if(totalCost > 0) {
+				fitness -= costWeight * (cost / totalCost);
+			}
 		}
 		
-		//Set individual fitness
-		ind.setFitness(new SimpleValueFitness(fitness));
+		return fitness;
+	}
+	
+	/**
+	 * Calculate the fitness of a tree over chunks of instances in parallel.
+	 * The tree is compiled once, and each chunk is reduced with the columns of its leaves in the table of predictions,
+	 * 	combining the nodes as TreeUtils.reduce, so the predictions are the same than reducing the whole tree.
+	 * The partial statistics of the chunks are merged in a fixed order, so the result does not depend on the number of threads.
+	 * 
+	 * @param gen Genotype of the tree
+	 * @return Fitness
+	 */
+	public double chunkedFitness(String gen) {
+		CompiledTree tree = new CompiledTree(gen, getPoolLabels(), fullTrainData.getNumLabels());
+		
+		int nCovered = tree.getNodeLabels()[tree.getNodeLabels().length - 1].length;
+		if(nCovered != fullTrainData.getNumLabels()) {
+			return uncoveredFitness(nCovered);
+		}
+		
+		Prediction[] leafPredictions = new Prediction[tree.getLeaves().length];
+		for(int s=0; s<leafPredictions.length; s++) {
+			leafPredictions[s] = tablePredictions.get(String.valueOf(tree.getLeaves()[s]));
+		}
+		
+		//If called from the pool (i.e., evaluating a population), the chunks are forked in the same pool
+		StatsTask task = new StatsTask(tree, leafPredictions, 0, fullTrainData.getNumInstances());
+		FitnessStats stats = (pool != null && !ForkJoinTask.inForkJoinPool()) ? pool.invoke(task) : task.invoke();
+		
+		return fitness(gen, stats.getExF(), stats.getMaF());
+	}
+	
+	/**
+	 * Calculate the fitness of a batch of trees in the worker processes.
+	 * Trees are compiled in this process, and only those covering all the labels are sent to the workers.
+	 * 
+	 * @param gens Genotypes of the trees
+	 * @return Fitness of each tree
+	 */
+	public double[] distributedFitness(String[] gens) {
+		double[] fitness = new double[gens.length];
+		
+		ArrayList<CompiledTree> trees = new ArrayList<CompiledTree>();
+		ArrayList<Integer> sent = new ArrayList<Integer>();
+		for(int i=0; i<gens.length; i++) {
+			CompiledTree tree = new CompiledTree(gens[i], getPoolLabels(), fullTrainData.getNumLabels());
+			int nCovered = tree.getNodeLabels()[tree.getNodeLabels().length - 1].length;
+			if(nCovered != fullTrainData.getNumLabels()) {
+				fitness[i] = uncoveredFitness(nCovered);
+			}
+			else {
+				trees.add(tree);
+				sent.add(i);
+			}
+		}
+		
+		if(!trees.isEmpty()) {
+			FitnessStats[] stats;
+			try {
+				stats = coordinator.evaluate(trees.toArray(new CompiledTree[0]));
+			} catch (IOException e) {
+				throw new IllegalStateException("The fitness workers failed", e);
+			}
+			
+			for(int t=0; t<stats.length; t++) {
+				int i = sent.get(t);
+				fitness[i] = fitness(gens[i], stats[t].getExF(), stats[t].getMaF());
+			}
+		}
+		
+		return fitness;
+	}
+	
+	/**
+	 * Get the labels predicted by each classifier of the pool, computing them the first time.
+	 * Labels in the table of predictions are indices of attributes of the dataset, so they are
+	 * 	converted to their position among the labels, as columns of the reduced predictions.
+	 * 
+	 * @return Labels (from 0 to numLabels-1) predicted by each classifier of the pool
+	 */
+	int[][] getPoolLabels() {
+		int[][] labels = poolLabels;
+		if(labels == null) {
+			synchronized (this) {
+				if(poolLabels == null) {
+					int[] labelIndices = fullTrainData.getLabelIndices().clone();
+					Arrays.sort(labelIndices);
+					
+					int[][] computed;
+					if(coordinator != null) {
+						//The table is in the workers, so the labels are given by the k-labelsets
+						int[][] klabelsets = coordinator.getPoolLabels();
+						computed = new int[klabelsets.length][];
+						for(int c=0; c<computed.length; c++) {
+							computed[c] = new int[klabelsets[c].length];
+							for(int j=0; j<computed[c].length; j++) {
+								computed[c][j] = Arrays.binarySearch(labelIndices, fullTrainData.getLabelIndices()[klabelsets[c][j]]);
+							}
+						}
+					}
+					else {
+						int max = -1;
+						for(String key : tablePredictions.keySet()) {
+							max = Math.max(max, Integer.parseInt(key));
+						}
+						computed = new int[max + 1][];
+						for(int c=0; c<computed.length; c++) {
+							Prediction pred = tablePredictions.get(String.valueOf(c));
+							if(pred != null) {
+								computed[c] = new int[pred.labelIndices.size()];
+								for(int j=0; j<computed[c].length; j++) {
+									computed[c][j] = Arrays.binarySearch(labelIndices, pred.labelIndices.get(j));
+								}
+							}
+						}
+					}
+					poolLabels = computed;
+				}
+				labels = poolLabels;
+			}
+		}
+		
+		return labels;
+	}
+	
+	/**
+	 * Calculate the statistics of the fitness of a tree over a set of instances
+	 * 
+	 * @param tree Compiled tree
+	 * @param leafPredictions Prediction of each distinct leaf of the tree over all the instances
+	 * @param from Index of the first instance (inclusive)
+	 * @param to Index of the last instance (exclusive)
+	 * @return Statistics of the fitness over the instances
+	 */
+	public FitnessStats stats(CompiledTree tree, Prediction[] leafPredictions, int from, int to) {
+		float[][] pred = tree.reduceBatch(leafPredictions, from, to, useConfidences, (float)0.5);
+		
+		FitnessStats stats = new FitnessStats(fullTrainData.getNumLabels());
+		for(int i=from; i<to; i++) {
+			stats.add(pred[i-from], labelBitmasks[i], (float)0.5);
+		}
+		
+		return stats;
 	}
 	
 	/**
@@ -178,7 +608,6 @@ public class Evaluator extends AbstractParallelEvaluator {
 	 * @return Macro-averaged FMeasure
 	 */
 	protected double maF(Prediction pred, MultiLabelInstances mlData) {
-		int[] labelIndices = mlData.getLabelIndices();
 		boolean [] ground = new boolean[mlData.getNumLabels()];
 		
 		int[] tp = new int[mlData.getNumLabels()];
@@ -192,7 +621,7 @@ public class Evaluator extends AbstractParallelEvaluator {
 			boolean[] bip = utils.confidenceToBipartition(pred.pred[i], (float)0.5);
 			for(int j=0; j<mlData.getNumLabels(); j++) {
 				//Get ground truth for all labels in i-th instance
-				if(mlData.getDataSet().get(i).value(labelIndices[j]) >= 0.5) {
+				if(DatasetCache.isRelevant(labelBitmasks[i], j)) {
 					ground[j] = true;
 					if(bip[j]) {
 						tp[j]++;
@@ -230,7 +659,6 @@ public class Evaluator extends AbstractParallelEvaluator {
 	 * @return Example-based FMeasure
 	 */
 	protected double exF(Prediction pred, MultiLabelInstances mlData) {
-		int[] labelIndices = mlData.getLabelIndices();
 		boolean [] ground = new boolean[mlData.getNumLabels()];
 		
 		double exF = 0.0;
@@ -238,7 +666,7 @@ public class Evaluator extends AbstractParallelEvaluator {
 		for(int i=0; i<mlData.getNumInstances(); i++) {
 			for(int j=0; j<mlData.getNumLabels(); j++) {
 				//Get boolean ground truth for all labels in i-th instance
-				if(mlData.getDataSet().get(i).value(labelIndices[j]) >= 0.5) {
+				if(DatasetCache.isRelevant(labelBitmasks[i], j)) {
 					ground[j] = true;
 				}
 				else {
@@ -279,4 +707,66 @@ public class Evaluator extends AbstractParallelEvaluator {
 		
 		return InformationRetrievalMeasures.fMeasure(tp, fp, fn, 1.0);
 	}	
+	
+	/**
+	 * Task calculating the statistics of a range of instances, split in halves until they fit in a chunk
+	 */
+	class StatsTask extends RecursiveTask<FitnessStats> {
+		
+		/**
+		 * serialVersionUID
+		 */
+		private static final long serialVersionUID = -2609833744917426610L;
+		
+		/**
+		 * Compiled tree
+		 */
+		CompiledTree tree;
+		
+		/**
+		 * Prediction of each distinct leaf of the tree
+		 */
+		Prediction[] leafPredictions;
+		
+		/**
+		 * Index of the first instance (inclusive)
+		 */
+		int from;
+		
+		/**
+		 * Index of the last instance (exclusive)
+		 */
+		int to;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param tree Compiled tree
+		 * @param leafPredictions Prediction of each distinct leaf of the tree
+		 * @param from Index of the first instance (inclusive)
+		 * @param to Index of the last instance (exclusive)
+		 */
+		StatsTask(CompiledTree tree, Prediction[] leafPredictions, int from, int to) {
+			this.tree = tree;
+			this.leafPredictions = leafPredictions;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected FitnessStats compute() {
+			if(to - from <= chunkSize) {
+				return stats(tree, leafPredictions, from, to);
+			}
+			
+			int mid = (from + to) >>> 1;
+			StatsTask left = new StatsTask(tree, leafPredictions, from, mid);
+			left.fork();
+			FitnessStats stats = new StatsTask(tree, leafPredictions, mid, to).compute();
+			
+			FitnessStats merged = left.join();
+			merged.merge(stats);
+			return merged;
+		}
+	}
 }
@@ -0,0 +1,139 @@
+package g3pkemlc;
+
+import java.io.Serializable;
+
+import g3pkemlc.utils.DatasetCache;
+import mulan.evaluation.measure.InformationRetrievalMeasures;
+
+/**
+ * Class implementing the statistics needed to calculate the fitness over a set of instances.
+ * It stores the TP, FP and FN of each label (for the MaF) and the sum of the ExF of each instance,
+ * 	so the statistics of disjoint sets of instances can be merged to obtain those of their union.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class FitnessStats implements Serializable {
+	
+	/**
+	 * serialVersionUID
+	 */
+	private static final long serialVersionUID = 6712348815209364357L;
+	
+	/**
+	 * True positives of each label
+	 */
+	int[] tp;
+	
+	/**
+	 * False positives of each label
+	 */
+	int[] fp;
+	
+	/**
+	 * False negatives of each label
+	 */
+	int[] fn;
+	
+	/**
+	 * Sum of the ExF of each instance
+	 */
+	double exFSum;
+	
+	/**
+	 * Number of instances
+	 */
+	int nInstances;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param nLabels Number of labels
+	 */
+	public FitnessStats(int nLabels) {
+		tp = new int[nLabels];
+		fp = new int[nLabels];
+		fn = new int[nLabels];
+		exFSum = 0;
+		nInstances = 0;
+	}
+	
+	/**
+	 * Add the prediction of an instance
+	 * 
+	 * @param pred Prediction of the instance for each label
+	 * @param labelBitmask Bitmask of relevant labels of the instance
+	 * @param threshold Threshold to obtain the bipartition
+	 */
+	public void add(float[] pred, long[] labelBitmask, float threshold) {
+		int instTp=0, instFp=0, instFn=0;
+		
+		for(int j=0; j<tp.length; j++) {
+			boolean bip = pred[j] >= threshold;
+			if(DatasetCache.isRelevant(labelBitmask, j)) {
+				if(bip) {
+					tp[j]++;
+					instTp++;
+				}
+				else {
+					fn[j]++;
+					instFn++;
+				}
+			}
+			else if(bip) {
+				fp[j]++;
+				instFp++;
+			}
+		}
+		
+		exFSum += InformationRetrievalMeasures.fMeasure(instTp, instFp, instFn, 1.0);
+		nInstances++;
+	}
+	
+	/**
+	 * Merge the statistics of other (disjoint) set of instances into the current ones
+	 * 
+	 * @param other Statistics to merge
+	 */
+	public void merge(FitnessStats other) {
+		for(int j=0; j<tp.length; j++) {
+			tp[j] += other.tp[j];
+			fp[j] += other.fp[j];
+			fn[j] += other.fn[j];
+		}
+		exFSum += other.exFSum;
+		nInstances += other.nInstances;
+	}
+	
+	/**
+	 * Calculate the Macro-averaged FMeasure (MaF)
+	 * 
+	 * @return Macro-averaged FMeasure
+	 */
+	public double getMaF() {
+		double maF = 0.0;
+		for(int j=0; j<tp.length; j++) {
+			maF += InformationRetrievalMeasures.fMeasure(tp[j], fp[j], fn[j], 1);
+		}
+		
+		return maF / tp.length;
+	}
+	
+	/**
+	 * Calculate the Example-FMeasure (ExF)
+	 * 
+	 * @return Example-based FMeasure
+	 */
+	public double getExF() {
+		return exFSum / nInstances;
+	}
+	
+	/**
+	 * Getter for the number of instances
+	 * 
+	 * @return Number of instances
+	 */
+	public int getNumInstances() {
+		return nInstances;
+	}
+}
@@ -0,0 +1,207 @@
+package g3pkemlc;
+
+import java.util.List;
+
+import org.apache.commons.configuration.Configuration;
+
+import g3pkemlc.mutator.Mutator;
+import g3pkemlc.recombinator.Crossover;
+import g3pkemlc.utils.Utils;
+import net.sf.jclec.IIndividual;
+import net.sf.jclec.algorithm.classic.SGE;
+import net.sf.jclec.selector.BettersSelector;
+import net.sf.jclec.selector.WorsesSelector;
+import net.sf.jclec.util.random.AbstractRandGenFactory;
+import net.sf.jclec.util.random.IRandGen;
+
+/**
+ * Class implementing an island of the island model.
+ * Each island evolves its own subpopulation with the same configuration than the run,
+ * 	but with its own provider, selector and genetic operators, seeded from the seed of the run and its index.
+ * The evaluator is shared by all the islands, so all of them use the same table of predictions and pool of threads.
+ * The islands are driven by Alg, which decides when they stop and migrates the best individuals between them.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class Island extends SGE {
+	
+	/**
+	 * serialVersionUID
+	 */
+	private static final long serialVersionUID = 5184007931296648213L;
+	
+	/**
+	 * Topology of the migration between islands
+	 */
+	public enum Topology {
+		ring,
+		complete,
+		random
+	}
+	
+	/**
+	 * Index of the island
+	 */
+	int index;
+	
+	/**
+	 * Seed of the random numbers generators of the island
+	 */
+	int seed;
+	
+	/**
+	 * Random numbers generator of the island, used by the genetic operators to choose the subtrees
+	 */
+	IRandGen randgen;
+	
+	/**
+	 * Utils with the random numbers generator of the island
+	 */
+	Utils utils;
+	
+	/**
+	 * Betters selector, used to choose the emigrants
+	 */
+	BettersSelector bselector = new BettersSelector(this);
+	
+	/**
+	 * Worses selector, used to choose the individuals replaced by the immigrants
+	 */
+	WorsesSelector wselector = new WorsesSelector(this);
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param index Index of the island
+	 * @param seed Seed of the random numbers generators of the island
+	 */
+	public Island(int index, int seed) {
+		super();
+		this.index = index;
+		this.seed = seed;
+	}
+	
+	@Override
+	public void configure(Configuration configuration) {
+		super.configure(configuration);
+		
+		//Reports are written by the run
+		listeners.clear();
+		
+		randgen = randGenFactory.createRandGen();
+		utils = new Utils(randgen);
+	}
+	
+	@Override
+	public void setRandGenSettings(Configuration configuration) {
+		super.setRandGenSettings(configuration);
+		
+		//Components are contextualized after this, so all of them use the seed of the island
+		((AbstractRandGenFactory)randGenFactory).setSeed(seed);
+	}
+	
+	@Override
+	protected void setEvaluatorSettings(Configuration configuration) {
+		//The evaluator of the run is shared, so it is set by Alg
+	}
+	
+	/**
+	 * Getter for the index
+	 * 
+	 * @return Index of the island
+	 */
+	public int getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Create and evaluate the initial subpopulation
+	 */
+	public void init() {
+		doInit();
+	}
+	
+	/**
+	 * Evolve the subpopulation one generation
+	 */
+	public void iterate() {
+		doIterate();
+	}
+	
+	@Override
+	protected void doControl() {
+		//The stop condition is checked by the run over all the islands
+	}
+	
+	/**
+	 * Get the best individuals of the subpopulation, to be sent to other islands
+	 * 
+	 * @param n Number of emigrants
+	 * @return The n best individuals
+	 */
+	public List<IIndividual> emigrants(int n) {
+		return bselector.select(bset, n);
+	}
+	
+	/**
+	 * Replace the worst individuals of the subpopulation by the immigrants
+	 * 
+	 * @param immigrants Individuals coming from other islands, already evaluated
+	 */
+	public void immigrate(List<IIndividual> immigrants) {
+		List<IIndividual> worst = wselector.select(bset, immigrants.size());
+		
+		//Individuals are replaced by identity, since different individuals may be equal
+		for(int w=0; w<worst.size(); w++) {
+			for(int i=0; i<bset.size(); i++) {
+				if(bset.get(i) == worst.get(w)) {
+					bset.set(i, immigrants.get(w));
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Get the random numbers generators of the island and its components, to store them in a checkpoint
+	 * 
+	 * @return Generator of the island, followed by the ones of the provider, parents selector and genetic operators
+	 */
+	public IRandGen[] getRandgens() {
+		Object[] components = randomComponents();
+		IRandGen[] randgens = new IRandGen[components.length + 1];
+		randgens[0] = randgen;
+		for(int i=0; i<components.length; i++) {
+			randgens[i+1] = Checkpoint.getRandgen(components[i]);
+		}
+		
+		return randgens;
+	}
+	
+	/**
+	 * Restore the random numbers generators of the island and its components from a checkpoint
+	 * 
+	 * @param randgens Generator of the island, followed by the ones of the provider, parents selector and genetic operators
+	 */
+	public void setRandgens(IRandGen[] randgens) {
+		randgen = randgens[0];
+		utils = new Utils(randgen);
+		((Mutator)mutator.getDecorated()).setUtils(utils);
+		((Crossover)recombinator.getDecorated()).setUtils(utils);
+		
+		Object[] components = randomComponents();
+		for(int i=0; i<components.length; i++) {
+			Checkpoint.setRandgen(components[i], randgens[i+1]);
+		}
+	}
+	
+	/**
+	 * Get the components of the island that have their own random numbers generator
+	 * 
+	 * @return Array with the provider, parents selector and genetic operators
+	 */
+	private Object[] randomComponents() {
+		return new Object[] {provider, parentsSelector, mutator, mutator.getDecorated(), recombinator, recombinator.getDecorated()};
+	}
+}
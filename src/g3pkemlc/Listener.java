@@ -1,6 +1,7 @@
 package g3pkemlc;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 
 import java.util.List;
@@ -93,6 +94,16 @@ public class Listener implements IAlgorithmListener, IConfigure
 	 */
 	String pmFilename = "reports/mutProbability.csv";
 	
+	/**
+	 * File with the wall time (in ms) of the evaluation in each generation
+	 */
+	String evalTimeFilename = "reports/evaluationTime.csv";
+	
+	/**
+	 * File with the utilization of the evaluation threads in each generation
+	 */
+	String evalUtilizationFilename = "reports/evaluationUtilization.csv";
+	
 	/**
 	 * File with the best tree at the end of the execution
 	 */
@@ -138,6 +149,30 @@ public class Listener implements IAlgorithmListener, IConfigure
 	{
 		this.reportFrequency = reportFrequency;
 	}
+	
+	/**
+	 * Place the reports of the run in the given workspace
+	 * 
+	 * @param workspace Directory of the run; empty for the working directory
+	 */
+	public void setWorkspace(String workspace)
+	{
+		new File(workspace + "reports/").mkdirs();
+		
+		bestLeavesFilename = workspace + bestLeavesFilename;
+		bestFilename = workspace + bestFilename;
+		medianFilename = workspace + medianFilename;
+		avgFilename = workspace + avgFilename;
+		worstFilename = workspace + worstFilename;
+		pcFilename = workspace + pcFilename;
+		pmFilename = workspace + pmFilename;
+		evalTimeFilename = workspace + evalTimeFilename;
+		evalUtilizationFilename = workspace + evalUtilizationFilename;
+		bestTreeFilename = workspace + bestTreeFilename;
+		kSizesPoolFilename = workspace + kSizesPoolFilename;
+		classificationReportFilename = workspace + classificationReportFilename;
+	}
+	
 	// IConfigure interface
 	
 	@Override
@@ -154,6 +189,9 @@ public class Listener implements IAlgorithmListener, IConfigure
 	@Override
 	public void algorithmStarted(AlgorithmEvent event) 
 	{		
+		// Write reports in the workspace of the run
+		setWorkspace(((Alg) event.getAlgorithm()).getWorkspace());
+		
 		// Do an iteration report
 		doIterationReport((PopulationAlgorithm) event.getAlgorithm(), true);
 	}
@@ -180,6 +218,8 @@ public class Listener implements IAlgorithmListener, IConfigure
 		BufferedWriter worstWriter = null;
 		BufferedWriter pcWriter = null;
 		BufferedWriter pmWriter = null;
+		BufferedWriter evalTimeWriter = null;
+		BufferedWriter evalUtilizationWriter = null;
 		BufferedWriter ksizesPoolWriter = null;
 		BufferedWriter ksizesEnsembleWriter = null;
 		BufferedWriter classificationReportWriter = null;
@@ -224,6 +264,14 @@ public class Listener implements IAlgorithmListener, IConfigure
 			pmWriter.write("\n");
 			pmWriter.close();
 			
+			evalTimeWriter = new BufferedWriter(new FileWriter(evalTimeFilename, true));
+			evalTimeWriter.write("\n");
+			evalTimeWriter.close();
+			
+			evalUtilizationWriter = new BufferedWriter(new FileWriter(evalUtilizationFilename, true));
+			evalUtilizationWriter.write("\n");
+			evalUtilizationWriter.close();
+			
 			ksizesPoolWriter = new BufferedWriter(new FileWriter(kSizesPoolFilename, true));
 			ksizesPoolWriter.write(Arrays.toString(((Alg) event.getAlgorithm()).klabelsetGen.kSizes));
 			ksizesPoolWriter.write("\n");
@@ -244,6 +292,12 @@ public class Listener implements IAlgorithmListener, IConfigure
 			ensemble.resetSeed(((Alg)event.getAlgorithm()).getSeed());
 			results = eval.evaluate(ensemble, testData, measures);
 			
+			if(!((Alg)event.getAlgorithm()).useConfidences) {
+				long made = ensemble.getLeafCallsMade();
+				long avoided = ensemble.getLeafCallsAvoided();
+				System.out.println("Leaf calls in test: " + made + " made, " + avoided + " avoided (" + String.format("%.2f", (100.0*avoided)/Math.max(1, made+avoided)) + "%)");
+			}
+			
 			//If the file didnt exist, print the header
 			boolean printHeader = false;
 			if(!utils.fileExist(classificationReportFilename)) {
@@ -326,6 +380,8 @@ public class Listener implements IAlgorithmListener, IConfigure
 		BufferedWriter worstWriter = null;
 		BufferedWriter pcWriter = null;
 		BufferedWriter pmWriter = null;
+		BufferedWriter evalTimeWriter = null;
+		BufferedWriter evalUtilizationWriter = null;
 		
 		try {
 			bestLeavesWriter = new BufferedWriter(new FileWriter(bestLeavesFilename, true));
@@ -355,6 +411,15 @@ public class Listener implements IAlgorithmListener, IConfigure
 			pmWriter = new BufferedWriter(new FileWriter(pmFilename, true));
 			pmWriter.write(((Alg)algorithm).getMutationProb() + "; ");
 			pmWriter.close();
+			
+			Evaluator evaluator = (Evaluator) algorithm.getEvaluator();
+			evalTimeWriter = new BufferedWriter(new FileWriter(evalTimeFilename, true));
+			evalTimeWriter.write(String.format("%.2f", evaluator.getLastWallTime()) + "; ");
+			evalTimeWriter.close();
+			
+			evalUtilizationWriter = new BufferedWriter(new FileWriter(evalUtilizationFilename, true));
+			evalUtilizationWriter.write(String.format("%.4f", evaluator.getLastUtilization()) + "; ");
+			evalUtilizationWriter.close();
 		} catch(Exception e) {
 			e.printStackTrace();
 			System.exit(-1);
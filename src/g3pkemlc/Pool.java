@@ -0,0 +1,259 @@
+package g3pkemlc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Hashtable;
+
+import g3pkemlc.utils.KLabelset;
+import g3pkemlc.utils.KLabelsetGenerator;
+import g3pkemlc.utils.Utils;
+
+/**
+ * Class implementing a pool of classifiers shared by several runs in the same JVM.
+ * Runs with the same pool parameters (dataset, seed, k-labelsets and sampling settings)
+ * 	use the same k-labelsets, classifiers stored in the hard disk and table of predictions.
+ * The first run requiring the pool builds it, while the rest wait until it is built.
+ * If the building fails, the runs waiting for it fail too, instead of using an empty pool.
+ * The pool is read-only once built, and it is removed when the last run using it finishes.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class Pool {
+	
+	/**
+	 * Directory for the classifiers of the shared pools, relative to the workspace of the run creating the pool
+	 */
+	static final String POOLS_DIR = "pools/";
+	
+	/**
+	 * Pools currently in use, by key
+	 */
+	static HashMap<String, Pool> sharedPools = new HashMap<String, Pool>();
+	
+	/**
+	 * Key identifying the pool parameters
+	 */
+	String key;
+	
+	/**
+	 * Directory where the classifiers of the pool are stored
+	 */
+	String directory;
+	
+	/**
+	 * Generator used to build the k-labelsets of the pool
+	 */
+	KLabelsetGenerator klabelsetGen;
+	
+	/**
+	 * Array of k-labelsets of the pool
+	 */
+	ArrayList<KLabelset> klabelsets;
+	
+	/**
+	 * Table with predictions of each classifier
+	 */
+	Hashtable<String, Prediction> tablePredictions;
+	
+	/**
+	 * Average time (in microseconds) each classifier takes to predict an instance
+	 */
+	double[] classifierCosts;
+	
+	/**
+	 * Number of runs using the pool
+	 */
+	int nRuns = 0;
+	
+	/**
+	 * Indicates if some run has started building the pool
+	 */
+	boolean building = false;
+	
+	/**
+	 * Indicates if the pool is already built
+	 */
+	boolean built = false;
+	
+	/**
+	 * Error that stopped the building of the pool; null if it was not stopped
+	 */
+	Exception error = null;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param key Key identifying the pool parameters
+	 * @param workspace Workspace of the run creating the pool
+	 */
+	Pool(String key, String workspace) {
+		this.key = key;
+		this.directory = workspace + POOLS_DIR + directoryName(key) + "/";
+	}
+	
+	/**
+	 * Get the name of the directory of a pool, given by the SHA-256 of its key,
+	 * 	so pools with different keys never use the same directory
+	 * 
+	 * @param key Key identifying the pool parameters
+	 * @return Name of the directory
+	 */
+	static String directoryName(String key) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			//Every Java platform implements SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Get the pool for the given parameters, registering the calling run as one of its users.
+	 * 
+	 * @param key Key identifying the pool parameters
+	 * @param workspace Workspace of the calling run, where the classifiers are stored if the pool is created
+	 * @return Shared pool
+	 */
+	public static synchronized Pool acquire(String key, String workspace) {
+		Pool pool = sharedPools.get(key);
+		if(pool == null) {
+			pool = new Pool(key, workspace);
+			sharedPools.put(key, pool);
+		}
+		
+		pool.nRuns++;
+		return pool;
+	}
+	
+	/**
+	 * Unregister a run from the users of the pool.
+	 * When no run is using it, the pool is removed, as well as its classifiers in the hard disk.
+	 * 
+	 * @param pool Shared pool
+	 */
+	public static synchronized void release(Pool pool) {
+		pool.nRuns--;
+		
+		if(pool.nRuns <= 0) {
+			sharedPools.remove(pool.key);
+			
+			File dir = new File(pool.directory);
+			if(dir.exists()) {
+				new Utils().purgeDirectory(dir);
+				dir.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Getter for the directory of the classifiers
+	 * 
+	 * @return Directory where the classifiers of the pool are stored
+	 */
+	public String getDirectory() {
+		return directory;
+	}
+	
+	/**
+	 * Indicate that the calling run is going to build the pool.
+	 * Only the first run calling this method has to build it.
+	 * 
+	 * @return True if the calling run has to build the pool; false if other run is building it
+	 */
+	public synchronized boolean startBuilding() {
+		if(building) {
+			return false;
+		}
+		
+		building = true;
+		return true;
+	}
+	
+	/**
+	 * Store the built pool and notify the runs waiting for it
+	 * 
+	 * @param klabelsetGen Generator used to build the k-labelsets
+	 * @param klabelsets Array of k-labelsets
+	 * @param tablePredictions Table with predictions of each classifier
+	 * @param classifierCosts Average time (in microseconds) each classifier takes to predict an instance
+	 */
+	public synchronized void setBuilt(KLabelsetGenerator klabelsetGen, ArrayList<KLabelset> klabelsets, Hashtable<String, Prediction> tablePredictions, double[] classifierCosts) {
+		this.klabelsetGen = klabelsetGen;
+		this.klabelsets = klabelsets;
+		this.tablePredictions = tablePredictions;
+		this.classifierCosts = classifierCosts;
+		
+		built = true;
+		notifyAll();
+	}
+	
+	/**
+	 * Record that the pool could not be built and notify the runs waiting for it
+	 * 
+	 * @param error Error that stopped the building
+	 */
+	public synchronized void setFailed(Exception error) {
+		this.error = error;
+		
+		notifyAll();
+	}
+	
+	/**
+	 * Wait until the pool is built by other run
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws IOException if the other run could not build the pool
+	 */
+	public synchronized void awaitBuilt() throws InterruptedException, IOException {
+		while(!built && error == null) {
+			wait();
+		}
+		
+		if(error != null) {
+			throw new IOException("The shared pool could not be built by other run", error);
+		}
+	}
+	
+	/**
+	 * Getter for the k-labelset generator
+	 * 
+	 * @return Generator used to build the k-labelsets
+	 */
+	public KLabelsetGenerator getKlabelsetGen() {
+		return klabelsetGen;
+	}
+	
+	/**
+	 * Getter for the k-labelsets
+	 * 
+	 * @return Array of k-labelsets
+	 */
+	public ArrayList<KLabelset> getKlabelsets() {
+		return klabelsets;
+	}
+	
+	/**
+	 * Getter for the table of predictions
+	 * 
+	 * @return Table with predictions of each classifier
+	 */
+	public Hashtable<String, Prediction> getTablePredictions() {
+		return tablePredictions;
+	}
+	
+	/**
+	 * Getter for the costs of the classifiers
+	 * 
+	 * @return Average time (in microseconds) each classifier takes to predict an instance
+	 */
+	public double[] getClassifierCosts() {
+		return classifierCosts;
+	}
+}
@@ -1,5 +1,6 @@
 package g3pkemlc;
 
+import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -9,7 +10,12 @@ import java.util.Collections;
  * @author Jose M. Moyano
  *
  */
-public class Prediction {
+public class Prediction implements Serializable {
+	
+	/**
+	 * serialVersionUID
+	 */
+	private static final long serialVersionUID = 4671983410525719214L;
 	
 	/**
 	 * Number of instances in the prediction
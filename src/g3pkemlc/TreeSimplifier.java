@@ -0,0 +1,533 @@
+package g3pkemlc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import g3pkemlc.utils.TreeUtils;
+import mulan.data.MultiLabelInstances;
+import weka.core.Instance;
+
+/**
+ * Class implementing the simplification of the final tree after the evolution.
+ * Using the predictions of the pool over the training data, leaves are greedily removed and nodes are
+ * 	flattened into their parents while the training bipartitions of the tree do not change,
+ * 	or while its fitness does not decrease more than a given tolerance.
+ * Removing leaves that appear only once in the tree is tried first, since each of them avoids a call to a classifier.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class TreeSimplifier {
+	
+	/**
+	 * Number of passes over the instances predicted with each ensemble before measuring its latency
+	 */
+	static final int LATENCY_WARMUP_PASSES = 2;
+	
+	/**
+	 * Number of times the latency of each ensemble is measured
+	 */
+	static final int LATENCY_REPETITIONS = 5;
+	
+	/**
+	 * Evaluator, with the table of predictions and training data
+	 */
+	Evaluator evaluator;
+	
+	/**
+	 * Maximum decrease in fitness allowed; if 0, the training bipartitions can not change
+	 */
+	double tolerance;
+	
+	/**
+	 * Number of leaves removed in the last simplification
+	 */
+	int leavesRemoved;
+	
+	/**
+	 * Number of distinct leaves removed in the last simplification
+	 */
+	int distinctLeavesRemoved;
+	
+	/**
+	 * Number of nodes flattened in the last simplification
+	 */
+	int nodesFlattened;
+	
+	/**
+	 * Fitness of the tree before and after the last simplification
+	 */
+	double fitnessBefore, fitnessAfter;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param evaluator Evaluator, with the table of predictions and training data
+	 * @param tolerance Maximum decrease in fitness allowed; if 0, the training bipartitions can not change
+	 */
+	public TreeSimplifier(Evaluator evaluator, double tolerance) {
+		this.evaluator = evaluator;
+		this.tolerance = tolerance;
+	}
+	
+	/**
+	 * Simplify a tree
+	 * 
+	 * @param genotype Genotype of the tree
+	 * @return Genotype of the simplified tree
+	 */
+	public String simplify(String genotype) {
+		leavesRemoved = 0;
+		distinctLeavesRemoved = 0;
+		nodesFlattened = 0;
+		
+		Prediction original = reduce(genotype);
+		boolean[][] originalBip = original.getBipartition((float)0.5);
+		fitnessBefore = evaluator.fitness(genotype, original);
+		fitnessAfter = fitnessBefore;
+		
+		Node root = Node.parse(genotype);
+		int distinctBefore = root.distinctLeaves().size();
+		
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			
+			for(Candidate c : candidates(root)) {
+				Node simplified = c.apply(root);
+				if(simplified == null) {
+					continue;
+				}
+				
+				String simplifiedGenotype = simplified.toGenotype();
+				Prediction pred = reduce(simplifiedGenotype);
+				
+				//All labels must be still covered
+				if(pred.labelIndices.size() != evaluator.fullTrainData.getNumLabels()) {
+					continue;
+				}
+				
+				double fitness = evaluator.fitness(simplifiedGenotype, pred);
+				boolean accepted;
+				if(tolerance > 0) {
+					accepted = fitness >= fitnessBefore - tolerance;
+				}
+				else {
+					accepted = Arrays.deepEquals(originalBip, pred.getBipartition((float)0.5));
+				}
+				
+				if(accepted) {
+					root = simplified;
+					fitnessAfter = fitness;
+					if(c.flatten) {
+						nodesFlattened++;
+					}
+					else {
+						leavesRemoved++;
+					}
+					changed = true;
+					break;
+				}
+			}
+		}
+		
+		distinctLeavesRemoved = distinctBefore - root.distinctLeaves().size();
+		return root.toGenotype();
+	}
+	
+	/**
+	 * Reduce a tree with the predictions of the pool
+	 * 
+	 * @param genotype Genotype of the tree
+	 * @return Predictions of the tree over the training data
+	 */
+	private Prediction reduce(String genotype) {
+		return TreeUtils.reduce(genotype, evaluator.tablePredictions, evaluator.fullTrainData.getNumInstances(), evaluator.useConfidences);
+	}
+	
+	/**
+	 * Get the possible simplifications of a tree, sorted by priority:
+	 * 	first removing leaves appearing once, then removing repeated leaves, and then flattening nodes
+	 * 
+	 * @param root Root of the tree
+	 * @return Candidate simplifications
+	 */
+	private ArrayList<Candidate> candidates(Node root) {
+		ArrayList<Node> nodes = root.internalNodes();
+		HashMap<Integer, Integer> occurrences = root.distinctLeaves();
+		
+		ArrayList<Candidate> unique = new ArrayList<Candidate>();
+		ArrayList<Candidate> repeated = new ArrayList<Candidate>();
+		ArrayList<Candidate> flatten = new ArrayList<Candidate>();
+		
+		for(int n=0; n<nodes.size(); n++) {
+			ArrayList<Node> children = nodes.get(n).children;
+			for(int c=0; c<children.size(); c++) {
+				Node child = children.get(c);
+				if(child.isLeaf()) {
+					if(occurrences.get(child.leaf) == 1) {
+						unique.add(new Candidate(n, c, false));
+					}
+					else {
+						repeated.add(new Candidate(n, c, false));
+					}
+				}
+				else {
+					flatten.add(new Candidate(n, c, true));
+				}
+			}
+		}
+		
+		ArrayList<Candidate> candidates = new ArrayList<Candidate>(unique);
+		candidates.addAll(repeated);
+		candidates.addAll(flatten);
+		return candidates;
+	}
+	
+	/**
+	 * Get the report of the last simplification
+	 * 
+	 * @return Report as string
+	 */
+	public String report() {
+		String s = "";
+		s += "Leaves removed: " + leavesRemoved + " (" + distinctLeavesRemoved + " distinct); nodes flattened: " + nodesFlattened + "\n";
+		s += "Training fitness before: " + fitnessBefore + "; after: " + fitnessAfter;
+		return s;
+	}
+	
+	/**
+	 * Getter for the number of leaves removed in the last simplification
+	 * 
+	 * @return Number of leaves removed
+	 */
+	public int getLeavesRemoved() {
+		return leavesRemoved;
+	}
+	
+	/**
+	 * Getter for the number of distinct leaves removed in the last simplification
+	 * 
+	 * @return Number of distinct leaves removed
+	 */
+	public int getDistinctLeavesRemoved() {
+		return distinctLeavesRemoved;
+	}
+	
+	/**
+	 * Getter for the number of nodes flattened in the last simplification
+	 * 
+	 * @return Number of nodes flattened
+	 */
+	public int getNodesFlattened() {
+		return nodesFlattened;
+	}
+	
+	/**
+	 * Measure the average time to predict an instance with several ensembles, so they can be compared.
+	 * Each ensemble first predicts the instances LATENCY_WARMUP_PASSES times without measuring, so the
+	 * 	classifiers are loaded and the code is compiled. Then, the latencies are measured LATENCY_REPETITIONS
+	 * 	times, alternating the order of the ensembles in each repetition, and the median is returned.
+	 * 
+	 * @param ensembles Built ensembles
+	 * @param data Data to predict
+	 * @param maxInstances Maximum number of instances predicted
+	 * @return Average time per instance (in microseconds) of each ensemble
+	 * @throws Exception if some instance can not be predicted
+	 */
+	public static double[] measureLatencies(EMLC[] ensembles, MultiLabelInstances data, int maxInstances) throws Exception {
+		int n = Math.min(maxInstances, data.getNumInstances());
+		double[] latencies = new double[ensembles.length];
+		if(n == 0) {
+			return latencies;
+		}
+		
+		for(EMLC ensemble : ensembles) {
+			for(int p=0; p<LATENCY_WARMUP_PASSES; p++) {
+				predict(ensemble, data, n);
+			}
+		}
+		
+		double[][] times = new double[ensembles.length][LATENCY_REPETITIONS];
+		for(int r=0; r<LATENCY_REPETITIONS; r++) {
+			for(int j=0; j<ensembles.length; j++) {
+				//The ensemble measured first changes in each repetition
+				int e = (r % 2 == 0) ? j : ensembles.length - 1 - j;
+				
+				long start = System.nanoTime();
+				predict(ensembles[e], data, n);
+				times[e][r] = (System.nanoTime() - start) / 1000.0 / n;
+			}
+		}
+		
+		for(int e=0; e<ensembles.length; e++) {
+			Arrays.sort(times[e]);
+			latencies[e] = times[e][LATENCY_REPETITIONS / 2];
+		}
+		
+		return latencies;
+	}
+	
+	/**
+	 * Predict the first instances of the data with an ensemble
+	 * 
+	 * @param ensemble Built ensemble
+	 * @param data Data to predict
+	 * @param n Number of instances predicted
+	 * @throws Exception if some instance can not be predicted
+	 */
+	static void predict(EMLC ensemble, MultiLabelInstances data, int n) throws Exception {
+		for(int i=0; i<n; i++) {
+			Instance instance = data.getDataSet().instance(i);
+			ensemble.makePrediction(instance);
+		}
+	}
+	
+	/**
+	 * Candidate simplification: removing a leaf or flattening a node
+	 */
+	static class Candidate {
+		
+		/**
+		 * Index of the parent node, in preorder of the internal nodes
+		 */
+		int node;
+		
+		/**
+		 * Index of the child in the parent
+		 */
+		int child;
+		
+		/**
+		 * True if the child node is flattened into the parent; false if the leaf is removed
+		 */
+		boolean flatten;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param node Index of the parent node, in preorder of the internal nodes
+		 * @param child Index of the child in the parent
+		 * @param flatten True if the child node is flattened into the parent; false if the leaf is removed
+		 */
+		Candidate(int node, int child, boolean flatten) {
+			this.node = node;
+			this.child = child;
+			this.flatten = flatten;
+		}
+		
+		/**
+		 * Apply the simplification over a copy of the tree
+		 * 
+		 * @param root Root of the tree
+		 * @return Root of the simplified tree; null if the simplification leads to a non-valid tree
+		 */
+		Node apply(Node root) {
+			root = root.copy(null);
+			Node n = root.internalNodes().get(node);
+			Node c = n.children.remove(child);
+			
+			if(flatten) {
+				for(Node grandchild : c.children) {
+					grandchild.parent = n;
+				}
+				n.children.addAll(child, c.children);
+				return root;
+			}
+			
+			//A node with a single child is replaced by the child
+			if(n.children.size() == 1) {
+				Node only = n.children.get(0);
+				if(n.parent == null) {
+					//The root must be a node
+					if(only.isLeaf()) {
+						return null;
+					}
+					only.parent = null;
+					return only;
+				}
+				
+				ArrayList<Node> siblings = n.parent.children;
+				siblings.set(siblings.indexOf(n), only);
+				only.parent = n.parent;
+			}
+			
+			return root;
+		}
+	}
+	
+	/**
+	 * Node of the tree: a leaf or a node combining its children
+	 */
+	static class Node {
+		
+		/**
+		 * Index of the classifier if it is a leaf; -1 otherwise
+		 */
+		int leaf = -1;
+		
+		/**
+		 * Children of the node
+		 */
+		ArrayList<Node> children = new ArrayList<Node>();
+		
+		/**
+		 * Parent of the node; null for the root
+		 */
+		Node parent;
+		
+		/**
+		 * Indicates if the node is a leaf
+		 * 
+		 * @return True if it is a leaf; false otherwise
+		 */
+		boolean isLeaf() {
+			return leaf >= 0;
+		}
+		
+		/**
+		 * Parse a genotype
+		 * 
+		 * @param genotype Genotype
+		 * @return Root of the tree
+		 */
+		static Node parse(String genotype) {
+			Node current = null;
+			Node root = null;
+			
+			int i = 0;
+			while(i < genotype.length()) {
+				char c = genotype.charAt(i);
+				if(c == '(') {
+					Node node = new Node();
+					node.parent = current;
+					if(current != null) {
+						current.children.add(node);
+					}
+					else {
+						root = node;
+					}
+					current = node;
+					i++;
+				}
+				else if(c == ')') {
+					current = current.parent;
+					i++;
+				}
+				else if(Character.isDigit(c)) {
+					int end = i;
+					while(end < genotype.length() && Character.isDigit(genotype.charAt(end))) {
+						end++;
+					}
+					Node node = new Node();
+					node.leaf = Integer.parseInt(genotype.substring(i, end));
+					node.parent = current;
+					current.children.add(node);
+					i = end;
+				}
+				else {
+					i++;
+				}
+			}
+			
+			return root;
+		}
+		
+		/**
+		 * Deep copy of the subtree
+		 * 
+		 * @param parent Parent of the copy
+		 * @return Copy
+		 */
+		Node copy(Node parent) {
+			Node node = new Node();
+			node.leaf = leaf;
+			node.parent = parent;
+			for(Node child : children) {
+				node.children.add(child.copy(node));
+			}
+			
+			return node;
+		}
+		
+		/**
+		 * Get the internal nodes of the subtree in preorder
+		 * 
+		 * @return Internal nodes
+		 */
+		ArrayList<Node> internalNodes() {
+			ArrayList<Node> nodes = new ArrayList<Node>();
+			addInternalNodes(nodes);
+			return nodes;
+		}
+		
+		/**
+		 * Add the internal nodes of the subtree in preorder
+		 * 
+		 * @param nodes List where the nodes are added
+		 */
+		private void addInternalNodes(ArrayList<Node> nodes) {
+			if(!isLeaf()) {
+				nodes.add(this);
+				for(Node child : children) {
+					child.addInternalNodes(nodes);
+				}
+			}
+		}
+		
+		/**
+		 * Get the occurrences of each distinct leaf in the subtree
+		 * 
+		 * @return Number of occurrences of each leaf
+		 */
+		HashMap<Integer, Integer> distinctLeaves() {
+			HashMap<Integer, Integer> occurrences = new HashMap<Integer, Integer>();
+			addLeaves(occurrences);
+			return occurrences;
+		}
+		
+		/**
+		 * Count the occurrences of the leaves of the subtree
+		 * 
+		 * @param occurrences Number of occurrences of each leaf
+		 */
+		private void addLeaves(HashMap<Integer, Integer> occurrences) {
+			if(isLeaf()) {
+				occurrences.merge(leaf, 1, Integer::sum);
+			}
+			else {
+				for(Node child : children) {
+					child.addLeaves(occurrences);
+				}
+			}
+		}
+		
+		/**
+		 * Get the genotype of the tree
+		 * 
+		 * @return Genotype, ending with ";"
+		 */
+		String toGenotype() {
+			return toString() + ";";
+		}
+		
+		@Override
+		public String toString() {
+			if(isLeaf()) {
+				return String.valueOf(leaf);
+			}
+			
+			StringBuilder sb = new StringBuilder("(");
+			for(int i=0; i<children.size(); i++) {
+				if(i > 0) {
+					sb.append(' ');
+				}
+				sb.append(children.get(i));
+			}
+			sb.append(')');
+			
+			return sb.toString();
+		}
+	}
+}
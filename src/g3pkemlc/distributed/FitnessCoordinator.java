@@ -0,0 +1,200 @@
+package g3pkemlc.distributed;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import g3pkemlc.FitnessStats;
+import g3pkemlc.utils.CompiledTree;
+import g3pkemlc.utils.KLabelset;
+import mulan.data.MultiLabelInstances;
+import weka.core.Instances;
+
+/**
+ * Class implementing the coordinator of the worker processes calculating the fitness of the trees.
+ * The training instances are split in contiguous shards, one per worker, and each worker receives
+ * 	only the instances of its shard and keeps only its shard of the table of predictions (see FitnessWorker).
+ * The workers are launched as local processes with the same classpath, and communicate with the
+ * 	coordinator through sockets in the loopback address (see WorkerConnection).
+ * Each batch of trees is sent to all the workers, and the statistics of each tree over the shards are
+ * 	merged in the order of the shards, so the result does not depend on which worker answers first.
+ * If a worker fails or does not answer a batch in time, a new worker is launched in its place with the same shard
+ * 	and the batch is evaluated again in it; if the new worker fails too, the evaluation fails.
+ * The timeout is not applied while a worker predicts its shard with the pool, since it may take long for large pools.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class FitnessCoordinator {
+	
+	/**
+	 * Number of workers
+	 */
+	int nWorkers;
+	
+	/**
+	 * Maximum time (in ms) to wait for the answer of a worker to a batch; 0 to wait forever
+	 */
+	int timeout;
+	
+	/**
+	 * Connection to each worker
+	 */
+	WorkerConnection[] workers;
+	
+	/**
+	 * Setup of each worker, with its shard, to be sent again if the worker is replaced
+	 */
+	FitnessWorker.Setup[] setups;
+	
+	/**
+	 * Labels predicted by each classifier of the pool
+	 */
+	int[][] poolLabels;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param nWorkers Number of workers
+	 * @param timeout Maximum time (in ms) to wait for the answer of a worker to a batch; 0 to wait forever
+	 */
+	public FitnessCoordinator(int nWorkers, int timeout) {
+		this.nWorkers = nWorkers;
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * Launch the workers, and wait until each one has predicted its shard with all the classifiers of the pool
+	 * 
+	 * @param trainData Training data
+	 * @param labelBitmasks Bitmask of relevant labels for each instance of the training data
+	 * @param poolDirectory Directory where the classifiers of the pool are stored
+	 * @param klabelsets K-labelsets of the pool
+	 * @param useConfidences Indicates if confidences are used instead of bipartitions to combine predictions
+	 * @return Average time (in microseconds) each classifier takes to predict an instance
+	 * @throws IOException if some worker can not be launched or fails
+	 */
+	public double[] start(MultiLabelInstances trainData, long[][] labelBitmasks, String poolDirectory, ArrayList<KLabelset> klabelsets, boolean useConfidences) throws IOException {
+		int nInstances = trainData.getNumInstances();
+		
+		poolLabels = new int[klabelsets.size()][];
+		for(int c=0; c<poolLabels.length; c++) {
+			poolLabels[c] = klabelsets.get(c).getKlabelset().stream().mapToInt(Integer::intValue).toArray();
+		}
+		
+		//Predicting the shard may take long, so the timeout is set once the workers are loaded
+		workers = WorkerConnection.start(FitnessWorker.class, nWorkers, 0);
+		
+		//All the workers run in this machine, so they share its processors
+		int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / nWorkers);
+		
+		setups = new FitnessWorker.Setup[nWorkers];
+		for(int w=0; w<nWorkers; w++) {
+			int from = (int) ((long) nInstances * w / nWorkers);
+			int to = (int) ((long) nInstances * (w+1) / nWorkers);
+			Instances shard = new Instances(trainData.getDataSet(), from, to - from);
+			setups[w] = new FitnessWorker.Setup(shard, trainData.getLabelsMetaData(), Arrays.copyOfRange(labelBitmasks, from, to), poolDirectory, klabelsets, useConfidences, nThreads);
+			workers[w].send(setups[w]);
+		}
+		
+		//The cost of each classifier is its time predicting all the shards
+		double[] costs = new double[klabelsets.size()];
+		for(int w=0; w<nWorkers; w++) {
+			long[] times = (long[]) workers[w].read();
+			for(int c=0; c<costs.length; c++) {
+				costs[c] += times[c];
+			}
+			workers[w].setReadTimeout(timeout);
+		}
+		for(int c=0; c<costs.length; c++) {
+			costs[c] = costs[c] / 1000.0 / nInstances;
+		}
+		
+		return costs;
+	}
+	
+	/**
+	 * Getter for the labels of the classifiers of the pool
+	 * 
+	 * @return Labels predicted by each classifier of the pool, in the order of its outputs
+	 */
+	public int[][] getPoolLabels() {
+		return poolLabels;
+	}
+	
+	/**
+	 * Calculate the statistics of a batch of trees over all the training instances.
+	 * The batch is sent to all the workers before waiting for any of them, so they evaluate it concurrently.
+	 * 
+	 * @param trees Compiled trees, covering all the labels
+	 * @return Statistics of each tree
+	 * @throws IOException if some worker fails twice
+	 */
+	public synchronized FitnessStats[] evaluate(CompiledTree[] trees) throws IOException {
+		//A worker that finished between batches fails when sending, so its shard is reassigned after sending to the rest
+		IOException[] sendErrors = new IOException[nWorkers];
+		for(int w=0; w<nWorkers; w++) {
+			try {
+				workers[w].send(trees);
+			} catch (IOException e) {
+				sendErrors[w] = e;
+			}
+		}
+		
+		FitnessStats[] stats = null;
+		for(int w=0; w<nWorkers; w++) {
+			FitnessStats[] shardStats;
+			try {
+				if(sendErrors[w] != null) {
+					throw sendErrors[w];
+				}
+				shardStats = (FitnessStats[]) workers[w].read();
+			} catch (IOException e) {
+				System.out.println("Fitness worker " + w + " failed (" + e.getMessage() + "); its shard is given to a new worker");
+				shardStats = reassign(w, trees);
+			}
+			if(stats == null) {
+				stats = shardStats;
+			}
+			else {
+				for(int t=0; t<trees.length; t++) {
+					stats[t].merge(shardStats[t]);
+				}
+			}
+		}
+		
+		return stats;
+	}
+	
+	/**
+	 * Launch a new worker in place of a failed one, give it the same shard, and evaluate the batch in it
+	 * 
+	 * @param w Index of the failed worker
+	 * @param trees Compiled trees of the batch
+	 * @return Statistics of each tree over the shard
+	 * @throws IOException if the new worker fails too
+	 */
+	FitnessStats[] reassign(int w, CompiledTree[] trees) throws IOException {
+		workers[w].restart();
+		workers[w].setReadTimeout(0);
+		workers[w].send(setups[w]);
+		
+		//The new worker predicts its shard before evaluating; its times are not used, since the costs are already fixed
+		workers[w].read();
+		workers[w].setReadTimeout(timeout);
+		workers[w].send(trees);
+		
+		return (FitnessStats[]) workers[w].read();
+	}
+	
+	/**
+	 * Stop the workers and wait until their processes finish
+	 */
+	public synchronized void close() {
+		if(workers != null) {
+			for(WorkerConnection worker : workers) {
+				worker.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package g3pkemlc.distributed;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import g3pkemlc.FitnessStats;
+import g3pkemlc.Prediction;
+import g3pkemlc.utils.CompiledTree;
+import g3pkemlc.utils.DatasetTransformation;
+import g3pkemlc.utils.KLabelset;
+import g3pkemlc.utils.Utils;
+import mulan.classifier.MultiLabelLearner;
+import mulan.data.LabelsMetaData;
+import mulan.data.MultiLabelInstances;
+import weka.core.Instances;
+
+/**
+ * Class implementing a worker process calculating the fitness of the trees over a shard of the training data.
+ * The worker connects to the coordinator in the loopback address, and receives the instances of its shard and their labels,
+ * 	so it never loads nor parses the full training data.
+ * It predicts the instances of its shard with each classifier stored in the directory of the pool,
+ * 	so it only keeps its shard of the table of predictions.
+ * Then, it receives batches of compiled trees and returns their statistics over its shard (see FitnessStats),
+ * 	until it receives null.
+ * 
+ * Usage: java g3pkemlc.distributed.FitnessWorker port
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class FitnessWorker {
+	
+	/**
+	 * Setup of the worker
+	 */
+	Setup setup;
+	
+	/**
+	 * Shard of the table with predictions of each classifier
+	 */
+	Hashtable<String, Prediction> tablePredictions;
+	
+	/**
+	 * Bitmask of relevant labels for each instance of the shard
+	 */
+	long[][] labelBitmasks;
+	
+	/**
+	 * Time (in ns) each classifier took to predict the instances of the shard
+	 */
+	long[] predictionTimes;
+	
+	/**
+	 * Threads predicting and evaluating
+	 */
+	ExecutorService executor;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param setup Setup of the worker
+	 */
+	public FitnessWorker(Setup setup) {
+		this.setup = setup;
+		this.executor = Executors.newFixedThreadPool(setup.nThreads);
+	}
+	
+	/**
+	 * Predict the shard of the data with each classifier of the pool
+	 * 
+	 * @throws Exception if some classifier can not be loaded
+	 */
+	public void load() throws Exception {
+		MultiLabelInstances shard = new MultiLabelInstances(setup.shard, setup.labelsMetaData);
+		labelBitmasks = setup.labelBitmasks;
+		
+		tablePredictions = new Hashtable<String, Prediction>();
+		predictionTimes = new long[setup.klabelsets.size()];
+		
+		Utils.runParallel(executor, setup.klabelsets.size(), c -> {
+			try {
+				predict(c, shard);
+			} catch (Exception e) {
+				throw new IllegalStateException("Classifier " + c + " could not predict the shard", e);
+			}
+		});
+	}
+	
+	/**
+	 * Predict the shard with the c-th classifier, as it is done in Alg for the full data
+	 * 
+	 * @param c Index of the classifier
+	 * @param shard Shard of the data
+	 * @throws Exception if the classifier can not be loaded or fails predicting
+	 */
+	void predict(int c, MultiLabelInstances shard) throws Exception {
+		Utils utils = new Utils();
+		MultiLabelLearner learner = (MultiLabelLearner) utils.loadObject(setup.poolDirectory + "classifier" + c + ".mlc");
+		if(learner == null) {
+			throw new IllegalStateException("Classifier " + c + " not found in " + setup.poolDirectory);
+		}
+		
+		DatasetTransformation dt = new DatasetTransformation();
+		MultiLabelInstances data = dt.transformDataset(shard, setup.klabelsets.get(c).getKlabelset());
+		
+		float[][] predictions = new float[data.getNumInstances()][setup.klabelsets.get(c).k];
+		long start = System.nanoTime();
+		for(int i=0; i<data.getNumInstances(); i++) {
+			if(setup.useConfidences) {
+				System.arraycopy(learner.makePrediction(data.getDataSet().get(i)).getConfidences(), 0, predictions[i], 0, data.getNumLabels());
+			}
+			else {
+				System.arraycopy(utils.bipartitionToConfidence(learner.makePrediction(data.getDataSet().get(i)).getBipartition()), 0, predictions[i], 0, data.getNumLabels());
+			}
+		}
+		predictionTimes[c] = System.nanoTime() - start;
+		
+		tablePredictions.put(String.valueOf(c), new Prediction(dt.getOriginalLabelIndices(), predictions));
+	}
+	
+	/**
+	 * Calculate the statistics of a batch of trees over the shard
+	 * 
+	 * @param trees Compiled trees, covering all the labels
+	 * @return Statistics of each tree
+	 */
+	public FitnessStats[] evaluate(CompiledTree[] trees) {
+		FitnessStats[] stats = new FitnessStats[trees.length];
+		
+		Utils.runParallel(executor, trees.length, t -> {
+			CompiledTree tree = trees[t];
+			Prediction[] leafPredictions = new Prediction[tree.getLeaves().length];
+			for(int s=0; s<leafPredictions.length; s++) {
+				leafPredictions[s] = tablePredictions.get(String.valueOf(tree.getLeaves()[s]));
+			}
+			
+			float[][] pred = tree.reduceBatch(leafPredictions, 0, labelBitmasks.length, setup.useConfidences, (float)0.5);
+			stats[t] = new FitnessStats(tree.getNumLabels());
+			for(int i=0; i<pred.length; i++) {
+				stats[t].add(pred[i], labelBitmasks[i], (float)0.5);
+			}
+		});
+		
+		return stats;
+	}
+	
+	/**
+	 * Stop the threads of the worker
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+	
+	/**
+	 * Run a worker, launched by FitnessCoordinator
+	 * 
+	 * @param args Port of the coordinator in the loopback address
+	 */
+	public static void main(String[] args) {
+		int port = Integer.parseInt(args[0]);
+		
+		try {
+			WorkerConnection connection = WorkerConnection.connect(port);
+			
+			FitnessWorker worker = new FitnessWorker((Setup) connection.read());
+			worker.load();
+			connection.send(worker.predictionTimes);
+			
+			Object message;
+			while((message = connection.read()) != null) {
+				connection.send(worker.evaluate((CompiledTree[]) message));
+			}
+			
+			worker.shutdown();
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+	
+	/**
+	 * Setup sent by the coordinator to each worker
+	 */
+	public static class Setup implements Serializable {
+		
+		/**
+		 * serialVersionUID
+		 */
+		private static final long serialVersionUID = 4150263375884420191L;
+		
+		/**
+		 * Instances of the shard
+		 */
+		Instances shard;
+		
+		/**
+		 * Labels of the training data
+		 */
+		LabelsMetaData labelsMetaData;
+		
+		/**
+		 * Bitmask of relevant labels for each instance of the shard
+		 */
+		long[][] labelBitmasks;
+		
+		/**
+		 * Directory where the classifiers of the pool are stored
+		 */
+		String poolDirectory;
+		
+		/**
+		 * K-labelsets of the pool
+		 */
+		ArrayList<KLabelset> klabelsets;
+		
+		/**
+		 * Indicates if confidences are used instead of bipartitions to combine predictions
+		 */
+		boolean useConfidences;
+		
+		/**
+		 * Number of threads of the worker
+		 */
+		int nThreads;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param shard Instances of the shard
+		 * @param labelsMetaData Labels of the training data
+		 * @param labelBitmasks Bitmask of relevant labels for each instance of the shard
+		 * @param poolDirectory Directory where the classifiers of the pool are stored
+		 * @param klabelsets K-labelsets of the pool
+		 * @param useConfidences Indicates if confidences are used instead of bipartitions to combine predictions
+		 * @param nThreads Number of threads of the worker
+		 */
+		public Setup(Instances shard, LabelsMetaData labelsMetaData, long[][] labelBitmasks, String poolDirectory, ArrayList<KLabelset> klabelsets, boolean useConfidences, int nThreads) {
+			this.shard = shard;
+			this.labelsMetaData = labelsMetaData;
+			this.labelBitmasks = labelBitmasks;
+			this.poolDirectory = poolDirectory;
+			this.klabelsets = klabelsets;
+			this.useConfidences = useConfidences;
+			this.nThreads = nThreads;
+		}
+	}
+}
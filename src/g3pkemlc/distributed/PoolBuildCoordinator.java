@@ -0,0 +1,237 @@
+package g3pkemlc.distributed;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Hashtable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import g3pkemlc.Prediction;
+
+/**
+ * Class implementing the coordinator of the worker processes building the classifiers of the pool.
+ * Each worker loads the training data and builds one classifier at a time; the classifiers are
+ * 	given to the workers as they finish the previous ones, so faster workers build more classifiers.
+ * The coordinator stores each returned classifier in the directory of the pool, and its predictions
+ * 	and cost in the given table and array, so the pool is the same than building it in the run.
+ * If the process of a worker finishes or does not answer in time, a new worker is launched in its place and
+ * 	the classifier is built again, up to a maximum number of retries. An error reported by the worker while
+ * 	building a classifier is not retried, since the building is deterministic and it would fail again.
+ * The progress is reported every 10% of the classifiers.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class PoolBuildCoordinator {
+	
+	/**
+	 * Number of workers
+	 */
+	int nWorkers;
+	
+	/**
+	 * Maximum time (in ms) to wait for each answer of a worker; 0 to wait forever
+	 */
+	int timeout;
+	
+	/**
+	 * Maximum number of times a classifier is built again after its worker failed
+	 */
+	int maxRetries;
+	
+	/**
+	 * Indices of the classifiers pending to be built
+	 */
+	LinkedBlockingQueue<Integer> pending;
+	
+	/**
+	 * Number of failed attempts of each classifier
+	 */
+	int[] failures;
+	
+	/**
+	 * Number of classifiers not built yet
+	 */
+	AtomicInteger remaining;
+	
+	/**
+	 * Total number of retries
+	 */
+	AtomicInteger retries;
+	
+	/**
+	 * First error that stopped the building; null if there is no error
+	 */
+	volatile IOException error;
+	
+	/**
+	 * Last reported progress (in tens of percentage)
+	 */
+	int reported;
+	
+	/**
+	 * Start time of the building (in ns)
+	 */
+	long start;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param nWorkers Number of workers
+	 * @param timeout Maximum time (in ms) to wait for each answer of a worker; 0 to wait forever
+	 * @param maxRetries Maximum number of times a classifier is built again after its worker failed
+	 */
+	public PoolBuildCoordinator(int nWorkers, int timeout, int maxRetries) {
+		this.nWorkers = nWorkers;
+		this.timeout = timeout;
+		this.maxRetries = maxRetries;
+	}
+	
+	/**
+	 * Build all the classifiers of the pool in the worker processes
+	 * 
+	 * @param setup Setup of the workers
+	 * @param poolDirectory Directory where the classifiers are stored
+	 * @param tablePredictions Table where the predictions of each classifier are stored
+	 * @param classifierCosts Array where the cost of each classifier is stored
+	 * @throws IOException if the workers can not be launched, some classifier could not be built,
+	 * 	or the worker of some classifier failed more than maxRetries times
+	 */
+	public void build(PoolBuildWorker.Setup setup, String poolDirectory, Hashtable<String, Prediction> tablePredictions, double[] classifierCosts) throws IOException {
+		int n = setup.klabelsets.size();
+		
+		pending = new LinkedBlockingQueue<Integer>();
+		for(int c=0; c<n; c++) {
+			pending.add(c);
+		}
+		failures = new int[n];
+		remaining = new AtomicInteger(n);
+		retries = new AtomicInteger(0);
+		error = null;
+		reported = 0;
+		start = System.nanoTime();
+		
+		WorkerConnection[] workers = WorkerConnection.start(PoolBuildWorker.class, nWorkers, timeout);
+		
+		Thread[] threads = new Thread[nWorkers];
+		for(int w=0; w<nWorkers; w++) {
+			WorkerConnection worker = workers[w];
+			threads[w] = new Thread(() -> drive(worker, setup, poolDirectory, tablePredictions, classifierCosts), "pool-worker-" + w);
+			threads[w].start();
+		}
+		
+		try {
+			for(Thread t : threads) {
+				t.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			error = new IOException("Interrupted while building the pool", e);
+		}
+		
+		for(WorkerConnection worker : workers) {
+			if(error != null) {
+				worker.kill();
+			}
+			else {
+				worker.close();
+			}
+		}
+		
+		if(error != null) {
+			throw error;
+		}
+	}
+	
+	/**
+	 * Give classifiers to a worker until all of them are built or the building fails
+	 * 
+	 * @param worker Connection to the worker
+	 * @param setup Setup of the workers
+	 * @param poolDirectory Directory where the classifiers are stored
+	 * @param tablePredictions Table where the predictions of each classifier are stored
+	 * @param classifierCosts Array where the cost of each classifier is stored
+	 */
+	void drive(WorkerConnection worker, PoolBuildWorker.Setup setup, String poolDirectory, Hashtable<String, Prediction> tablePredictions, double[] classifierCosts) {
+		try {
+			worker.send(setup);
+			
+			while(error == null && remaining.get() > 0) {
+				//Failed classifiers may be added again by other workers, so it waits for them
+				Integer c = pending.poll(100, TimeUnit.MILLISECONDS);
+				if(c == null) {
+					continue;
+				}
+				
+				PoolBuildWorker.Result result;
+				try {
+					worker.send(c);
+					result = (PoolBuildWorker.Result) worker.read();
+				} catch (IOException e) {
+					//The process of the worker finished or hung, so it is replaced by a new one
+					retry(c, "the worker failed (" + e.getMessage() + ")");
+					worker.restart();
+					worker.send(setup);
+					continue;
+				}
+				
+				//The same classifier would fail again, so it is not retried
+				if(result.error != null) {
+					throw new IOException("Classifier " + c + " could not be built: " + result.error.trim());
+				}
+				
+				Files.write(Paths.get(poolDirectory + "classifier" + c + ".mlc"), result.classifier);
+				if(result.prediction != null) {
+					tablePredictions.put(String.valueOf(c), result.prediction);
+				}
+				classifierCosts[c] = result.cost;
+				
+				progress(classifierCosts.length - remaining.decrementAndGet(), classifierCosts.length);
+			}
+		} catch (IOException e) {
+			error = e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			error = new IOException("Interrupted while building the pool", e);
+		}
+	}
+	
+	/**
+	 * Add a classifier whose worker failed to be built again, if it did not exceed the maximum number of retries
+	 * 
+	 * @param c Index of the classifier
+	 * @param cause Description of the failure of the worker
+	 * @throws IOException if the classifier exceeded the maximum number of retries
+	 */
+	void retry(int c, String cause) throws IOException {
+		int attempts;
+		synchronized (failures) {
+			attempts = ++failures[c];
+		}
+		
+		if(attempts > maxRetries) {
+			throw new IOException("Classifier " + c + " failed " + attempts + " times; last failure: " + cause);
+		}
+		
+		System.out.println("Classifier " + c + " failed (" + cause.trim() + "); retry " + attempts + " of " + maxRetries);
+		retries.incrementAndGet();
+		pending.add(c);
+	}
+	
+	/**
+	 * Report the progress every 10% of the classifiers
+	 * 
+	 * @param built Number of classifiers built
+	 * @param n Total number of classifiers
+	 */
+	synchronized void progress(int built, int n) {
+		int tens = (built * 10) / n;
+		if(tens > reported) {
+			reported = tens;
+			double elapsed = (System.nanoTime() - start) / 1e9;
+			System.out.println("Pool: " + built + "/" + n + " classifiers built (" + (tens*10) + "%) in " + String.format("%.1f", elapsed) + " s; " + retries.get() + " retries");
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package g3pkemlc.distributed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+import g3pkemlc.Prediction;
+import g3pkemlc.RanecuFactory2;
+import g3pkemlc.utils.DatasetTransformation;
+import g3pkemlc.utils.KLabelset;
+import g3pkemlc.utils.MulanUtils;
+import g3pkemlc.utils.Utils;
+import mulan.classifier.MultiLabelLearnerBase;
+import mulan.classifier.transformation.LabelPowerset2;
+import mulan.data.MultiLabelInstances;
+import net.sf.jclec.util.random.IRandGen;
+import weka.classifiers.trees.J48;
+
+/**
+ * Class implementing a worker process building classifiers of the pool.
+ * The worker connects to the coordinator in the loopback address, receives the setup of the pool and loads
+ * 	the training data. Then, it receives indices of classifiers and builds each one as it is done in Alg,
+ * 	returning the serialized classifier, its predictions over the full training data and its cost,
+ * 	until it receives null. If a classifier can not be built, the error is returned and the worker continues.
+ * 
+ * Usage: java g3pkemlc.distributed.PoolBuildWorker port
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class PoolBuildWorker {
+	
+	/**
+	 * Setup of the worker
+	 */
+	Setup setup;
+	
+	/**
+	 * Full training data
+	 */
+	MultiLabelInstances fullTrainData;
+	
+	/**
+	 * Utils
+	 */
+	Utils utils = new Utils();
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param setup Setup of the worker
+	 * @throws Exception if the training data can not be loaded
+	 */
+	public PoolBuildWorker(Setup setup) throws Exception {
+		this.setup = setup;
+		this.fullTrainData = new MultiLabelInstances(setup.trainFilename, setup.xmlFilename);
+	}
+	
+	/**
+	 * Build the c-th classifier, with the same seed and data than in Alg
+	 * 
+	 * @param c Index of classifier to build
+	 * @return Result with the classifier or the error
+	 */
+	public Result build(int c) {
+		int seed = c;
+		
+		try {
+			IRandGen randgen = new RanecuFactory2().createRandGen(seed, seed*2);
+			
+			//Sample c-th data
+			MultiLabelInstances currentTrainData = MulanUtils.sampleData(fullTrainData, setup.sampleRatio, randgen);
+			
+			//Build classifier with c-th data
+			MultiLabelLearnerBase learner = new LabelPowerset2(new J48());
+			((LabelPowerset2)learner).setSeed(seed);
+			((LabelPowerset2)learner).setInstanceTieBreaking(setup.reproducible);
+			DatasetTransformation dt = new DatasetTransformation();
+			currentTrainData = dt.transformDataset(currentTrainData, setup.klabelsets.get(c).getKlabelset());
+			learner.build(currentTrainData);
+			
+			//Serialize the classifier as it is stored in the pool
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+			objectOut.writeObject(learner);
+			objectOut.close();
+			
+			if(!setup.predict) {
+				return new Result(c, bytes.toByteArray(), null, 0, null);
+			}
+			
+			//If data was sampled to build, transform fullTrain too; otherwise just use same data to gather predictions
+			MultiLabelInstances currentFullData;
+			if(setup.sampleRatio >= 0.999) {
+				currentFullData = currentTrainData;
+			}
+			else {
+				currentFullData = dt.transformDataset(fullTrainData, setup.klabelsets.get(c).getKlabelset());
+			}
+			
+			//Get predictions of c-th classifier over all data
+			//	The time to predict each instance is the cost of the classifier
+			float[][] currentPredictions = new float[currentFullData.getNumInstances()][setup.klabelsets.get(c).k];
+			long start = System.nanoTime();
+			for(int i=0; i<currentFullData.getNumInstances(); i++) {
+				if(setup.useConfidences) {
+					System.arraycopy(learner.makePrediction(currentFullData.getDataSet().get(i)).getConfidences(), 0, currentPredictions[i], 0, currentFullData.getNumLabels());
+				}
+				else {
+					System.arraycopy(utils.bipartitionToConfidence(learner.makePrediction(currentFullData.getDataSet().get(i)).getBipartition()), 0, currentPredictions[i], 0, currentFullData.getNumLabels());
+				}
+			}
+			double cost = (System.nanoTime() - start) / 1000.0 / currentFullData.getNumInstances();
+			
+			return new Result(c, bytes.toByteArray(), new Prediction(dt.getOriginalLabelIndices(), currentPredictions), cost, null);
+		} catch(Exception e) {
+			StringWriter trace = new StringWriter();
+			e.printStackTrace(new PrintWriter(trace));
+			return new Result(c, null, null, 0, trace.toString());
+		}
+	}
+	
+	/**
+	 * Run a worker, launched by PoolBuildCoordinator
+	 * 
+	 * @param args Port of the coordinator in the loopback address
+	 */
+	public static void main(String[] args) {
+		int port = Integer.parseInt(args[0]);
+		
+		try {
+			WorkerConnection connection = WorkerConnection.connect(port);
+			PoolBuildWorker worker = new PoolBuildWorker((Setup) connection.read());
+			
+			Object message;
+			while((message = connection.read()) != null) {
+				connection.send(worker.build((Integer) message));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+	
+	/**
+	 * Setup sent by the coordinator to each worker
+	 */
+	public static class Setup implements Serializable {
+		
+		/**
+		 * serialVersionUID
+		 */
+		private static final long serialVersionUID = -7466301926402367018L;
+		
+		/**
+		 * Path of the arff file of the training data
+		 */
+		String trainFilename;
+		
+		/**
+		 * Path of the xml file of the training data
+		 */
+		String xmlFilename;
+		
+		/**
+		 * K-labelsets of the pool
+		 */
+		ArrayList<KLabelset> klabelsets;
+		
+		/**
+		 * Ratio of instances sampled to build each classifier
+		 */
+		double sampleRatio;
+		
+		/**
+		 * Indicates if confidences are used instead of bipartitions to combine predictions
+		 */
+		boolean useConfidences;
+		
+		/**
+		 * Indicates if ties in the predictions are solved depending only on the instance
+		 */
+		boolean reproducible;
+		
+		/**
+		 * Indicates if the classifiers predict the full training data; otherwise, only the classifiers are returned
+		 */
+		boolean predict;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param trainFilename Path of the arff file of the training data
+		 * @param xmlFilename Path of the xml file of the training data
+		 * @param klabelsets K-labelsets of the pool
+		 * @param sampleRatio Ratio of instances sampled to build each classifier
+		 * @param useConfidences Indicates if confidences are used instead of bipartitions to combine predictions
+		 * @param reproducible Indicates if ties in the predictions are solved depending only on the instance
+		 * @param predict Indicates if the classifiers predict the full training data
+		 */
+		public Setup(String trainFilename, String xmlFilename, ArrayList<KLabelset> klabelsets, double sampleRatio, boolean useConfidences, boolean reproducible, boolean predict) {
+			this.trainFilename = trainFilename;
+			this.xmlFilename = xmlFilename;
+			this.klabelsets = klabelsets;
+			this.sampleRatio = sampleRatio;
+			this.useConfidences = useConfidences;
+			this.reproducible = reproducible;
+			this.predict = predict;
+		}
+	}
+	
+	/**
+	 * Result of building a classifier
+	 */
+	public static class Result implements Serializable {
+		
+		/**
+		 * serialVersionUID
+		 */
+		private static final long serialVersionUID = 2931650217774813359L;
+		
+		/**
+		 * Index of the classifier
+		 */
+		int index;
+		
+		/**
+		 * Serialized classifier; null if it could not be built
+		 */
+		byte[] classifier;
+		
+		/**
+		 * Predictions of the classifier over the full training data; null if they are not obtained
+		 */
+		Prediction prediction;
+		
+		/**
+		 * Average time (in microseconds) the classifier takes to predict an instance
+		 */
+		double cost;
+		
+		/**
+		 * Error building the classifier; null if it was built
+		 */
+		String error;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param index Index of the classifier
+		 * @param classifier Serialized classifier; null if it could not be built
+		 * @param prediction Predictions of the classifier over the full training data; null if they are not obtained
+		 * @param cost Average time (in microseconds) the classifier takes to predict an instance
+		 * @param error Error building the classifier; null if it was built
+		 */
+		Result(int index, byte[] classifier, Prediction prediction, double cost, String error) {
+			this.index = index;
+			this.classifier = classifier;
+			this.prediction = prediction;
+			this.cost = cost;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package g3pkemlc.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Paths;
+
+/**
+ * Class implementing the connection between the run and a worker process.
+ * Workers are launched as local processes with the same java and classpath than the run, receiving
+ * 	the port in the loopback address where the run waits for them. Objects are sent in both directions
+ * 	with object streams, and null indicates the worker to finish. A read fails if the worker does not answer
+ * 	in the given timeout, so a worker that hangs or dies without closing its socket does not block the run.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class WorkerConnection {
+	
+	/**
+	 * Maximum time (in ms) to wait for a worker to connect
+	 */
+	static final int CONNECT_TIMEOUT = 120000;
+	
+	/**
+	 * Main class of the worker
+	 */
+	Class<?> mainClass;
+	
+	/**
+	 * Maximum time (in ms) to wait for each answer of the worker; 0 to wait forever
+	 */
+	int readTimeout = 0;
+	
+	/**
+	 * Process of the worker; null in the side of the worker
+	 */
+	Process process;
+	
+	/**
+	 * Socket connected to the other side
+	 */
+	Socket socket;
+	
+	/**
+	 * Output stream to the other side
+	 */
+	ObjectOutputStream out;
+	
+	/**
+	 * Input stream from the other side
+	 */
+	ObjectInputStream in;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param mainClass Main class of the worker
+	 * @param process Process of the worker; null in the side of the worker
+	 * @param socket Socket connected to the other side
+	 * @throws IOException if the streams can not be opened
+	 */
+	WorkerConnection(Class<?> mainClass, Process process, Socket socket) throws IOException {
+		this.mainClass = mainClass;
+		this.process = process;
+		this.socket = socket;
+		
+		//Both sides open the output stream first, so the headers do not block each other
+		out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		out.flush();
+		in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+	}
+	
+	/**
+	 * Launch several workers and wait until all of them are connected.
+	 * All the processes are launched before waiting for any of them, so they start concurrently.
+	 * 
+	 * @param mainClass Main class of the workers; it receives the port as first argument
+	 * @param nWorkers Number of workers
+	 * @param readTimeout Maximum time (in ms) to wait for each answer of a worker; 0 to wait forever
+	 * @return Connection to each worker
+	 * @throws IOException if some worker can not be launched or does not connect
+	 */
+	public static WorkerConnection[] start(Class<?> mainClass, int nWorkers, int readTimeout) throws IOException {
+		ServerSocket[] servers = new ServerSocket[nWorkers];
+		Process[] processes = new Process[nWorkers];
+		WorkerConnection[] connections = new WorkerConnection[nWorkers];
+		
+		try {
+			for(int w=0; w<nWorkers; w++) {
+				servers[w] = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+				processes[w] = launch(mainClass, servers[w].getLocalPort());
+			}
+			for(int w=0; w<nWorkers; w++) {
+				connections[w] = new WorkerConnection(mainClass, processes[w], accept(servers[w]));
+				connections[w].setReadTimeout(readTimeout);
+			}
+		} catch (IOException e) {
+			for(Process process : processes) {
+				if(process != null) {
+					process.destroy();
+				}
+			}
+			throw e;
+		} finally {
+			for(ServerSocket server : servers) {
+				if(server != null) {
+					server.close();
+				}
+			}
+		}
+		
+		return connections;
+	}
+	
+	/**
+	 * Connect a worker to the run
+	 * 
+	 * @param port Port of the run in the loopback address
+	 * @return Connection to the run
+	 * @throws IOException if the run is not listening
+	 */
+	public static WorkerConnection connect(int port) throws IOException {
+		return new WorkerConnection(null, null, new Socket(InetAddress.getLoopbackAddress(), port));
+	}
+	
+	/**
+	 * Launch the process of a worker
+	 * 
+	 * @param mainClass Main class of the worker
+	 * @param port Port of the run in the loopback address
+	 * @return Process of the worker
+	 * @throws IOException if the process can not be launched
+	 */
+	static Process launch(Class<?> mainClass, int port) throws IOException {
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), mainClass.getName(), String.valueOf(port));
+		builder.inheritIO();
+		
+		return builder.start();
+	}
+	
+	/**
+	 * Wait for a worker to connect
+	 * 
+	 * @param server Server socket where the worker connects
+	 * @return Socket connected to the worker
+	 * @throws IOException if the worker does not connect in CONNECT_TIMEOUT ms
+	 */
+	static Socket accept(ServerSocket server) throws IOException {
+		server.setSoTimeout(CONNECT_TIMEOUT);
+		try {
+			return server.accept();
+		} catch (SocketTimeoutException e) {
+			throw new IOException("The worker did not connect in " + CONNECT_TIMEOUT + " ms", e);
+		}
+	}
+	
+	/**
+	 * Set the maximum time to wait for each answer of the worker
+	 * 
+	 * @param readTimeout Maximum time (in ms); 0 to wait forever
+	 * @throws IOException if the socket is closed
+	 */
+	public void setReadTimeout(int readTimeout) throws IOException {
+		this.readTimeout = readTimeout;
+		socket.setSoTimeout(readTimeout);
+	}
+	
+	/**
+	 * Kill the worker, if still alive, and launch a new one in its place
+	 * 
+	 * @throws IOException if the new worker can not be launched or does not connect
+	 */
+	public void restart() throws IOException {
+		kill();
+		
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			process = launch(mainClass, server.getLocalPort());
+			WorkerConnection connection = new WorkerConnection(mainClass, process, accept(server));
+			socket = connection.socket;
+			out = connection.out;
+			in = connection.in;
+			socket.setSoTimeout(readTimeout);
+		}
+	}
+	
+	/**
+	 * Send an object to the other side
+	 * 
+	 * @param message Object to send
+	 * @throws IOException if the other side finished
+	 */
+	public void send(Object message) throws IOException {
+		out.writeObject(message);
+		out.flush();
+		
+		//Objects already sent are not kept by the stream
+		out.reset();
+	}
+	
+	/**
+	 * Read an object from the other side
+	 * 
+	 * @return Object read
+	 * @throws IOException if the other side finished or did not answer in time
+	 */
+	public Object read() throws IOException {
+		try {
+			return in.readObject();
+		} catch (SocketTimeoutException e) {
+			throw new IOException("The worker did not answer in " + readTimeout + " ms", e);
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	/**
+	 * Indicate the worker to finish and wait until its process finishes
+	 */
+	public void close() {
+		try {
+			send(null);
+			socket.close();
+		} catch (IOException e) {
+			//The worker already finished
+		}
+		
+		if(process != null) {
+			try {
+				process.waitFor();
+			} catch (InterruptedException e) {
+				process.destroy();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Kill the process of the worker
+	 */
+	public void kill() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			//Already closed
+		}
+		if(process != null) {
+			process.destroy();
+		}
+	}
+}
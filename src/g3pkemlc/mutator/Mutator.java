@@ -1,11 +1,19 @@
 package g3pkemlc.mutator;
 
-import g3pkemlc.IndividualCreator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import g3pkemlc.utils.ArrayTree;
+import g3pkemlc.utils.RandomStreams;
+import g3pkemlc.utils.TreeValidator;
 import g3pkemlc.utils.Utils;
+import net.sf.jclec.IIndividual;
 import net.sf.jclec.ISpecies;
 import net.sf.jclec.stringtree.StringTreeIndividual;
 import net.sf.jclec.stringtree.StringTreeMutator;
 import net.sf.jclec.stringtree.StringTreeSpecies;
+import net.sf.jclec.util.random.IRandGen;
 
 /**
  * Class implementing the mutator
@@ -44,6 +52,21 @@ public class Mutator extends StringTreeMutator {
 	 */
 	int maxDepth;
 	
+	/**
+	 * Validator of the mutated individuals; null if they are not validated
+	 */
+	TreeValidator validator = null;
+	
+	/**
+	 * Executor mutating the individuals in parallel; null if they are mutated sequentially
+	 */
+	transient ExecutorService executor = null;
+	
+	/**
+	 * Random streams of the mutation of each individual, used when mutating in parallel
+	 */
+	RandomStreams streams = null;
+	
 	
 	/**
 	 * Constructor
@@ -88,6 +111,61 @@ public class Mutator extends StringTreeMutator {
 	public void setnChildren(int maxChildren) {
 		this.maxChildren = maxChildren;
 	}
+	
+	/**
+	 * Setter for utils
+	 * @param utils Utils object with the random numbers generator used to choose the subtrees
+	 */
+	public void setUtils(Utils utils) {
+		this.utils = utils;
+	}
+	
+	/**
+	 * Setter for the validator
+	 * @param validator Validator of the mutated individuals; null if they are not validated
+	 */
+	public void setValidator(TreeValidator validator) {
+		this.validator = validator;
+	}
+	
+	/**
+	 * Set the individuals to be mutated in parallel.
+	 * Each individual is mutated with its own random numbers generator, given by the generation and its position.
+	 * 
+	 * @param executor Executor mutating the individuals; null to mutate them sequentially
+	 * @param streams Random streams of the run
+	 */
+	public void setParallel(ExecutorService executor, RandomStreams streams) {
+		this.executor = executor;
+		this.streams = streams;
+	}
+	
+	@Override
+	public List<IIndividual> mutate(List<IIndividual> parents) {
+		if(executor == null) {
+			return super.mutate(parents);
+		}
+		
+		parentsBuffer = parents;
+		prepareMutation();
+		
+		int generation = context.getGeneration();
+		String[] genotypes = new String[parents.size()];
+		Utils.runParallel(executor, parents.size(), i -> {
+			IRandGen unitRandgen = streams.create(RandomStreams.Purpose.mutation, generation, i);
+			genotypes[i] = mutate(((StringTreeIndividual) parents.get(i)).getGenotype(), unitRandgen, new Utils(unitRandgen));
+			if(validator != null) {
+				validator.check(genotypes[i]);
+			}
+		});
+		
+		sonsBuffer = new ArrayList<IIndividual>(parents.size());
+		for(String genotype : genotypes) {
+			sonsBuffer.add(new StringTreeIndividual(genotype));
+		}
+		
+		return sonsBuffer;
+	}
 
 	/**
 	 * Mutate next individual
@@ -99,7 +177,11 @@ public class Mutator extends StringTreeMutator {
 		StringTreeIndividual mutant = (StringTreeIndividual) parentsBuffer.get(parentsCounter);
 		
 		//Mutate individual and add to buffer
-		sonsBuffer.add(new StringTreeIndividual(mutate(mutant.getGenotype())));
+		String genotype = mutate(mutant.getGenotype());
+		if(validator != null) {
+			validator.check(genotype);
+		}
+		sonsBuffer.add(new StringTreeIndividual(genotype));
 	}
 	
 	/**
@@ -109,37 +191,46 @@ public class Mutator extends StringTreeMutator {
 	 * @return Mutated individual
 	 */
 	public String mutate(String ind) {
+		return mutate(ind, randgen, utils);
+	}
+	
+	/**
+	 * Mutate individual with given random numbers generators
+	 * 
+	 * @param ind Individual to mutate
+	 * @param randgen Random numbers generator of the mutation
+	 * @param utils Utils object with the random numbers generator used to choose the subtrees
+	 * @return Mutated individual
+	 */
+	String mutate(String ind, IRandGen randgen, Utils utils) {
+		ArrayTree tree = ArrayTree.parse(ind);
 		boolean chooseLeaf = randgen.coin();
-		int[] subTree;
+		int subTree;
 		
 		//Choose a leaf if the coin said that, or if the depth of the tree is 1 (just leaves)
-		if(chooseLeaf || utils.calculateTreeMaxDepth(ind) <= 1) {
-			subTree = utils.chooseRandomLeaf(ind);
+		if(chooseLeaf || tree.getMaxDepth() <= 1) {
+			subTree = utils.chooseRandomLeaf(tree);
 		}
 		else {
-			subTree = utils.chooseRandomSubTree(ind, false);
+			subTree = utils.chooseRandomSubTree(tree, false);
 		}
 		
 		//Calculate the allowed depth for the subtree to include in the current position
-		int allowedDepth = maxDepth - utils.calculateNodeDepth(ind, subTree[0]);
-		String newSubtree;
+		int allowedDepth = maxDepth - tree.getDepth(subTree);
+		ArrayTree newSubtree;
 		
 		boolean replaceByLeaf = randgen.coin();
 		//If allowedDepth is 0, or if it was determined that the replacement is a leaf, select just a random leaf
 		if(allowedDepth == 0 || replaceByLeaf) {
-			newSubtree = String.valueOf(randgen.choose(0, nMax));
+			newSubtree = ArrayTree.leaf(randgen.choose(0, nMax));
 		}
 		else {
 			//Create a new subtree of maximum allowedDepth to substitute the node
-			IndividualCreator creator = new IndividualCreator(randgen);
-			newSubtree = creator.create(nMax, allowedDepth, maxChildren);
-			
-			//Remove here the ";" indicating the end of the individual
-			newSubtree = newSubtree.substring(0, newSubtree.length()-1);
+			newSubtree = ArrayTree.create(randgen, nMax, allowedDepth, maxChildren);
 		}
 		
 		//Create new individual by combining old and new subtree
-		return ind.substring(0, subTree[0]) + newSubtree + ind.substring(subTree[1], ind.length());
+		return tree.replace(subTree, newSubtree, 0).toGenotype();
 	}
 	
 	@Override
@@ -1,8 +1,17 @@
 package g3pkemlc.recombinator;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import g3pkemlc.utils.ArrayTree;
+import g3pkemlc.utils.RandomStreams;
+import g3pkemlc.utils.TreeValidator;
 import g3pkemlc.utils.Utils;
+import net.sf.jclec.IIndividual;
 import net.sf.jclec.stringtree.StringTreeIndividual;
 import net.sf.jclec.stringtree.StringTreeRecombinator;
+import net.sf.jclec.util.random.IRandGen;
 
 /**
  * Class implementing the crossover operator
@@ -25,6 +34,21 @@ public class Crossover extends StringTreeRecombinator {
 	 */
 	Utils utils = new Utils();
 	
+	/**
+	 * Validator of the generated individuals; null if they are not validated
+	 */
+	TreeValidator validator = null;
+	
+	/**
+	 * Executor crossing the pairs of parents in parallel; null if they are crossed sequentially
+	 */
+	transient ExecutorService executor = null;
+	
+	/**
+	 * Random streams of the crossover of each pair of parents, used when crossing in parallel
+	 */
+	RandomStreams streams = null;
+	
 	
 	/**
 	 * Constructor
@@ -42,6 +66,68 @@ public class Crossover extends StringTreeRecombinator {
 		this.maxDepth = maxDepth;
 	}
 	
+	/**
+	 * Setter for utils
+	 * @param utils Utils object with the random numbers generator used to choose the subtrees
+	 */
+	public void setUtils(Utils utils) {
+		this.utils = utils;
+	}
+	
+	/**
+	 * Setter for the validator
+	 * @param validator Validator of the generated individuals; null if they are not validated
+	 */
+	public void setValidator(TreeValidator validator) {
+		this.validator = validator;
+	}
+	
+	/**
+	 * Set the pairs of parents to be crossed in parallel.
+	 * Each pair is crossed with its own random numbers generator, given by the generation and its position.
+	 * 
+	 * @param executor Executor crossing the parents; null to cross them sequentially
+	 * @param streams Random streams of the run
+	 */
+	public void setParallel(ExecutorService executor, RandomStreams streams) {
+		this.executor = executor;
+		this.streams = streams;
+	}
+	
+	@Override
+	public List<IIndividual> recombine(List<IIndividual> parents) {
+		if(executor == null) {
+			return super.recombine(parents);
+		}
+		
+		parentsBuffer = parents;
+		prepareRecombination();
+		
+		int generation = context.getGeneration();
+		int nPairs = parents.size() / 2;
+		String[] genotypes = new String[2*nPairs];
+		Utils.runParallel(executor, nPairs, i -> {
+			IRandGen unitRandgen = streams.create(RandomStreams.Purpose.crossover, generation, i);
+			Utils unitUtils = new Utils(unitRandgen);
+			String ind1 = ((StringTreeIndividual) parents.get(2*i)).getGenotype();
+			String ind2 = ((StringTreeIndividual) parents.get(2*i+1)).getGenotype();
+			
+			genotypes[2*i] = crossInd(ind1, ind2, unitRandgen, unitUtils);
+			genotypes[2*i+1] = crossInd(ind2, ind1, unitRandgen, unitUtils);
+			if(validator != null) {
+				validator.check(genotypes[2*i]);
+				validator.check(genotypes[2*i+1]);
+			}
+		});
+		
+		sonsBuffer = new ArrayList<IIndividual>(genotypes.length);
+		for(String genotype : genotypes) {
+			sonsBuffer.add(new StringTreeIndividual(genotype));
+		}
+		
+		return sonsBuffer;
+	}
+	
 	@Override
 	public boolean equals(Object other)
 	{
@@ -65,8 +151,14 @@ public class Crossover extends StringTreeRecombinator {
 		//Add individuals to buffer
 		//	Each time the crossover is applied, only one individual is returned
 		//	So it is called twice, with individuals swapped
-		sonsBuffer.add(new StringTreeIndividual(crossInd(p1.getGenotype(), p2.getGenotype())));
-		sonsBuffer.add(new StringTreeIndividual(crossInd(p2.getGenotype(), p1.getGenotype())));
+		String s1 = crossInd(p1.getGenotype(), p2.getGenotype());
+		String s2 = crossInd(p2.getGenotype(), p1.getGenotype());
+		if(validator != null) {
+			validator.check(s1);
+			validator.check(s2);
+		}
+		sonsBuffer.add(new StringTreeIndividual(s1));
+		sonsBuffer.add(new StringTreeIndividual(s2));
 	}
 	
 	/**
@@ -79,50 +171,54 @@ public class Crossover extends StringTreeRecombinator {
 	 * @return Child individual
 	 */
 	private String crossInd(String ind1, String ind2) {
+		return crossInd(ind1, ind2, randgen, utils);
+	}
+	
+	/**
+	 * Cross two individuals to obtain only one, with given random numbers generators
+	 * 
+	 * @param ind1 First parent
+	 * @param ind2 Second parent
+	 * @param randgen Random numbers generator of the crossover
+	 * @param utils Utils object with the random numbers generator used to choose the subtrees
+	 * @return Child individual
+	 */
+	private String crossInd(String ind1, String ind2, IRandGen randgen, Utils utils) {
+		ArrayTree tree1 = ArrayTree.parse(ind1);
+		ArrayTree tree2 = ArrayTree.parse(ind2);
 		boolean chooseLeaf = randgen.coin();
-		int[] subTree = new int[2];
-		int[] otherSubtree = new int[2];
-		int allowedDepth, currentDepth;
-		String introduceSubtree;
+		int subTree, otherSubtree;
+		int allowedDepth;
 
 		//Choose leaf or subtree of parent1
-		if(chooseLeaf || utils.calculateTreeMaxDepth(ind1) <= 1) { //If the parent has depth=1, we can just choose leaf
-			subTree = utils.chooseRandomLeaf(ind1);
+		if(chooseLeaf || tree1.getMaxDepth() <= 1) { //If the parent has depth=1, we can just choose leaf
+			subTree = utils.chooseRandomLeaf(tree1);
 		}
 		else {
-			subTree = utils.chooseRandomSubTree(ind1, false);
+			subTree = utils.chooseRandomSubTree(tree1, false);
 		}
 		
 		//Calculate max depth allowed for subtree to select from the other ind
-		allowedDepth = maxDepth - utils.calculateNodeDepth(ind1, subTree[0]);
+		allowedDepth = maxDepth - tree1.getDepth(subTree);
 		if(allowedDepth < 0 ) {
 			System.out.println("The allowed depth is lower than 0.");
 			System.exit(-1);
 		}
 		if(allowedDepth == 0) { //We can just select a leaf
-			otherSubtree = utils.chooseRandomLeaf(ind2);
-			introduceSubtree = ind2.substring(otherSubtree[0], otherSubtree[1]);
+			otherSubtree = utils.chooseRandomLeaf(tree2);
 		}
 		else {
 			chooseLeaf = randgen.coin();
 			if(chooseLeaf) { //Choose leaf
-				otherSubtree = utils.chooseRandomLeaf(ind2);
-				introduceSubtree = ind2.substring(otherSubtree[0], otherSubtree[1]);
+				otherSubtree = utils.chooseRandomLeaf(tree2);
 			}
-			else { //Choose subtree until allowed size
-				String cpInd2 = new String(ind2);
-				otherSubtree[0] = 0;
-				otherSubtree[1] = cpInd2.length();
-				do {
-					cpInd2 = cpInd2.substring(otherSubtree[0], otherSubtree[1]);
-					otherSubtree = utils.chooseRandomSubTree(cpInd2, true);
-					currentDepth = utils.calculateTreeMaxDepth(cpInd2.substring(otherSubtree[0], otherSubtree[1]));
-				}while(currentDepth > allowedDepth);
-				introduceSubtree = cpInd2.substring(otherSubtree[0], otherSubtree[1]);
+			else { //Choose a subtree among the ones that fit in the allowed depth
+				//There is always one, since the deepest combination nodes have height 1
+				otherSubtree = utils.chooseRandomSubTree(tree2, allowedDepth);
 			}
 		}
 		
 		//Return crossed individual with replaced subtree of ind2 and the rest of ind1
-		return ind1.substring(0, subTree[0]) + introduceSubtree + ind1.substring(subTree[1], ind1.length());
+		return tree1.replace(subTree, tree2, otherSubtree).toGenotype();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+package g3pkemlc.serving;
+
+import g3pkemlc.BatchPrediction;
+import weka.core.Instance;
+
+/**
+ * Interface for the predictors used by the scoring tools
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public interface BatchPredictor {
+	
+	/**
+	 * Predict a range of instances
+	 * 
+	 * @param instances Instances to predict
+	 * @param from Index of the first instance to predict (inclusive)
+	 * @param to Index of the last instance to predict (exclusive)
+	 * @return Predictions of the instances in the range
+	 * @throws Exception if the instances can not be predicted
+	 */
+	BatchPrediction predictBatch(Instance[] instances, int from, int to) throws Exception;
+}
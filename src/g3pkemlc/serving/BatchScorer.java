@@ -0,0 +1,310 @@
+package g3pkemlc.serving;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import g3pkemlc.BatchPrediction;
+import g3pkemlc.EnsembleArtifact;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+
+/**
+ * Class implementing an offline scorer of large ARFF or CSV files with an exported ensemble.
+ * Instances are read incrementally in chunks of fixed size, each chunk is predicted by one of the workers,
+ * 	and the predictions are written in the same order as the input. The number of chunks in memory is bounded,
+ * 	so memory does not depend on the size of the file.
+ * Each line of the output includes the bipartition and the confidences of one instance, separated by ';'.
+ * 
+ * Usage: java g3pkemlc.serving.BatchScorer ensembleFile inputFile outputFile [chunkSize] [threads]
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class BatchScorer {
+	
+	/**
+	 * Exported ensemble
+	 */
+	EnsembleArtifact artifact;
+	
+	/**
+	 * Number of instances in each chunk
+	 */
+	int chunkSize;
+	
+	/**
+	 * Number of threads predicting the chunks
+	 */
+	int nThreads;
+	
+	/**
+	 * Number of instances predicted
+	 */
+	long nRows = 0;
+	
+	/**
+	 * Time spent scoring (in ms)
+	 */
+	long time = 0;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param artifact Exported ensemble
+	 * @param chunkSize Number of instances in each chunk
+	 * @param nThreads Number of threads predicting the chunks
+	 */
+	public BatchScorer(EnsembleArtifact artifact, int chunkSize, int nThreads) {
+		this.artifact = artifact;
+		this.chunkSize = chunkSize;
+		this.nThreads = nThreads;
+	}
+	
+	/**
+	 * Score a file and write the predictions
+	 * 
+	 * @param inputFile ARFF or CSV file with the instances
+	 * @param outputFile File where the predictions are written
+	 * @throws Exception if the file can not be read or the instances can not be predicted
+	 */
+	public void score(String inputFile, String outputFile) throws Exception {
+		long start = System.currentTimeMillis();
+		nRows = 0;
+		
+		ExecutorService workers = Executors.newFixedThreadPool(nThreads);
+		//At most two chunks per worker are in memory: the ones being predicted and the ones waiting to be written
+		int maxPending = 2 * nThreads;
+		ArrayDeque<Future<BatchPrediction>> pending = new ArrayDeque<Future<BatchPrediction>>();
+		
+		try (ChunkReader reader = inputFile.endsWith(".arff") ? new ArffChunkReader(inputFile) : new CsvChunkReader(inputFile);
+				BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+			Instance[] chunk;
+			while((chunk = reader.next(chunkSize)) != null) {
+				final Instance[] instances = chunk;
+				pending.add(workers.submit(() -> artifact.predictBatch(instances, 0, instances.length)));
+				
+				if(pending.size() >= maxPending) {
+					write(pending.poll(), writer);
+				}
+			}
+			
+			while(!pending.isEmpty()) {
+				write(pending.poll(), writer);
+			}
+		} finally {
+			for(Future<BatchPrediction> f : pending) {
+				f.cancel(true);
+			}
+			workers.shutdownNow();
+		}
+		
+		time = System.currentTimeMillis() - start;
+	}
+	
+	/**
+	 * Wait for the predictions of a chunk and write them
+	 * 
+	 * @param future Future with the predictions of the chunk
+	 * @param writer Writer of the output
+	 * @throws Exception if the chunk could not be predicted or written
+	 */
+	private void write(Future<BatchPrediction> future, BufferedWriter writer) throws Exception {
+		BatchPrediction prediction;
+		try {
+			prediction = future.get();
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+		}
+		
+		writer.write(ScoringServer.format(prediction));
+		nRows += prediction.getNumInstances();
+	}
+	
+	/**
+	 * Getter for the number of instances predicted
+	 * 
+	 * @return Number of instances
+	 */
+	public long getNumRows() {
+		return nRows;
+	}
+	
+	/**
+	 * Getter for the time spent scoring
+	 * 
+	 * @return Time in ms
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * Get the throughput of the last scored file
+	 * 
+	 * @return Instances per second
+	 */
+	public double getRowsPerSecond() {
+		return (time > 0) ? nRows * 1000.0 / time : 0.0;
+	}
+	
+	/**
+	 * Reader of the instances of a file in chunks
+	 */
+	interface ChunkReader extends AutoCloseable {
+		
+		/**
+		 * Read the next chunk of instances
+		 * 
+		 * @param size Maximum number of instances in the chunk
+		 * @return Instances; null if there are no more instances
+		 * @throws IOException if the file can not be read
+		 */
+		Instance[] next(int size) throws IOException;
+		
+		@Override
+		void close() throws IOException;
+	}
+	
+	/**
+	 * Reader of an ARFF file in chunks, using the incremental loader of Weka
+	 */
+	class ArffChunkReader implements ChunkReader {
+		
+		/**
+		 * Incremental loader
+		 */
+		ArffLoader loader = new ArffLoader();
+		
+		/**
+		 * Structure of the file
+		 */
+		Instances structure;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param filename Name of the ARFF file
+		 * @throws IOException if the file can not be read or does not match the header of the ensemble
+		 */
+		ArffChunkReader(String filename) throws IOException {
+			loader.setSource(new File(filename));
+			structure = loader.getStructure();
+			
+			if(structure.numAttributes() != artifact.getHeader().numAttributes()) {
+				throw new IOException("The file has " + structure.numAttributes() + " attributes but the ensemble expects " + artifact.getHeader().numAttributes());
+			}
+		}
+		
+		@Override
+		public Instance[] next(int size) throws IOException {
+			ArrayList<Instance> chunk = new ArrayList<Instance>(size);
+			Instance instance;
+			while(chunk.size() < size && (instance = loader.getNextInstance(structure)) != null) {
+				instance.setDataset(artifact.getHeader());
+				chunk.add(instance);
+			}
+			
+			return chunk.isEmpty() ? null : chunk.toArray(new Instance[0]);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			loader.reset();
+		}
+	}
+	
+	/**
+	 * Reader of a CSV file in chunks; a first line with the names of the attributes is skipped
+	 */
+	class CsvChunkReader implements ChunkReader {
+		
+		/**
+		 * Reader of the file
+		 */
+		BufferedReader reader;
+		
+		/**
+		 * Parser of the rows
+		 */
+		RowParser parser = new RowParser(artifact.getHeader(), artifact.getLabelIndices());
+		
+		/**
+		 * Number of the current line
+		 */
+		long nLine = 0;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param filename Name of the CSV file
+		 * @throws IOException if the file can not be read
+		 */
+		CsvChunkReader(String filename) throws IOException {
+			reader = new BufferedReader(new FileReader(filename));
+		}
+		
+		@Override
+		public Instance[] next(int size) throws IOException {
+			ArrayList<Instance> chunk = new ArrayList<Instance>(size);
+			String line;
+			while(chunk.size() < size && (line = reader.readLine()) != null) {
+				nLine++;
+				line = line.trim();
+				if(line.isEmpty()) {
+					continue;
+				}
+				
+				try {
+					chunk.add(parser.parse(line));
+				} catch (IllegalArgumentException e) {
+					//The first line may include the names of the attributes
+					if(nLine > 1) {
+						throw new IOException("Line " + nLine + ": " + e.getMessage());
+					}
+				}
+			}
+			
+			return chunk.isEmpty() ? null : chunk.toArray(new Instance[0]);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Main method to score a file
+	 * 
+	 * @param args Exported ensemble file, input file, output file and, optionally, chunk size and number of threads
+	 */
+	public static void main(String[] args) {
+		if(args.length < 3) {
+			System.out.println("Usage: java g3pkemlc.serving.BatchScorer ensembleFile inputFile outputFile [chunkSize] [threads]");
+			System.exit(-1);
+		}
+		
+		int chunkSize = (args.length > 3) ? Integer.parseInt(args[3]) : 1024;
+		int nThreads = (args.length > 4) ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		
+		try {
+			BatchScorer scorer = new BatchScorer(EnsembleArtifact.load(args[0]), chunkSize, nThreads);
+			scorer.score(args[1], args[2]);
+			System.out.println("Scored " + scorer.getNumRows() + " instances in " + (scorer.getTime() / 1000.0) + " s (" + String.format("%.2f", scorer.getRowsPerSecond()) + " rows/s)");
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+}
@@ -0,0 +1,343 @@
+package g3pkemlc.serving;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import g3pkemlc.BatchPrediction;
+import g3pkemlc.EnsembleArtifact;
+import g3pkemlc.utils.CompiledTree;
+import mulan.classifier.InvalidDataException;
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.MultiLabelOutput;
+import mulan.classifier.transformation.LabelPowerset2;
+import mulan.data.MultiLabelInstances;
+import weka.classifiers.trees.J48;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Class implementing the prediction of an exported ensemble with two levels of cache.
+ * The first level stores the prediction of the ensemble for the values of all the features of the instance.
+ * The second level stores the prediction of each leaf for the values of the features used by its tree,
+ * 	so instances that only differ in features not used by a leaf share its prediction.
+ * Leaves that are not LabelPowerset2 classifiers with J48 are considered to use all the features, as well as
+ * 	the ones solving ties with the values of all the features of the instance (see LabelPowerset2.tieSeed).
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class CachedPredictor {
+	
+	/**
+	 * Pattern of the use of a feature in the source of J48
+	 */
+	static final Pattern FEATURE_USE = Pattern.compile("i\\[(\\d+)\\]");
+	
+	/**
+	 * Exported ensemble
+	 */
+	EnsembleArtifact artifact;
+	
+	/**
+	 * Compiled tree of the ensemble
+	 */
+	CompiledTree tree;
+	
+	/**
+	 * Indices of the features in the header
+	 */
+	int[] featureIndices;
+	
+	/**
+	 * Cache of the predictions of the ensemble
+	 */
+	InferenceCache<float[]> cache;
+	
+	/**
+	 * Leaves of the ensemble, with their own cache
+	 */
+	CachedLearner[] learners;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param artifact Exported ensemble
+	 * @param maxSize Maximum number of instances in the cache of the ensemble
+	 * @param ttl Time to live of the entries (in ms); 0 if they do not expire
+	 * @param lru True to evict the least recently used entry; false to evict the oldest one
+	 * @param leafMaxSize Maximum number of entries in the cache of each leaf; 0 to not cache the leaves
+	 * @throws Exception if some leaf can not be loaded
+	 */
+	public CachedPredictor(EnsembleArtifact artifact, int maxSize, long ttl, boolean lru, int leafMaxSize) throws Exception {
+		this.artifact = artifact;
+		this.tree = artifact.getTree();
+		this.featureIndices = artifact.getFeatureIndices();
+		this.cache = new InferenceCache<float[]>(maxSize, ttl, lru);
+		
+		learners = new CachedLearner[artifact.getNumLeaves()];
+		for(int s=0; s<learners.length; s++) {
+			MultiLabelLearner leaf = artifact.getLeaf(s);
+			InferenceCache<MultiLabelOutput> leafCache = (leafMaxSize > 0) ? new InferenceCache<MultiLabelOutput>(leafMaxSize, ttl, lru) : null;
+			learners[s] = new CachedLearner(leaf, usedFeatures(leaf), leafCache);
+		}
+	}
+	
+	/**
+	 * Get the features used by a leaf
+	 * 
+	 * @param leaf Classifier of the leaf
+	 * @return Indices of the used features in the header
+	 * @throws Exception if the source of the tree can not be obtained
+	 */
+	int[] usedFeatures(MultiLabelLearner leaf) throws Exception {
+		if(!(leaf instanceof LabelPowerset2) || !(((LabelPowerset2)leaf).getBaseClassifier() instanceof J48)) {
+			return featureIndices;
+		}
+		
+		//A single labelset was found in training, so the tree was not built
+		LabelPowerset2 lp = (LabelPowerset2) leaf;
+		if(lp.getTransformation().getTransformedFormat().classAttribute().numValues() == 1) {
+			return new int[0];
+		}
+		
+		//Ties are solved with a seed derived from all the features, so the prediction may depend on all of them
+		if(lp.getInstanceTieBreaking()) {
+			return featureIndices;
+		}
+		
+		//The transformed data includes the features in the same order, followed by the class
+		TreeSet<Integer> used = new TreeSet<Integer>();
+		Matcher m = FEATURE_USE.matcher(((J48)lp.getBaseClassifier()).toSource("LeafTree"));
+		while(m.find()) {
+			int f = Integer.parseInt(m.group(1));
+			if(f < featureIndices.length) {
+				used.add(featureIndices[f]);
+			}
+		}
+		
+		return used.stream().mapToInt(Integer::intValue).toArray();
+	}
+	
+	/**
+	 * Get the key of an instance for the given features
+	 * 
+	 * @param instance Instance
+	 * @param indices Indices of the features
+	 * @return Key of the cache
+	 */
+	static InferenceCache.Key key(Instance instance, int[] indices) {
+		double[] values = new double[indices.length];
+		for(int i=0; i<indices.length; i++) {
+			values[i] = instance.value(indices[i]);
+		}
+		
+		return new InferenceCache.Key(values);
+	}
+	
+	/**
+	 * Predict an instance
+	 * 
+	 * @param instance Instance with the format of the header of the ensemble
+	 * @return Multi-label output
+	 * @throws Exception if some leaf fails predicting the instance
+	 */
+	public MultiLabelOutput predict(Instance instance) throws Exception {
+		InferenceCache.Key key = key(instance, featureIndices);
+		float[] confs = cache.get(key);
+		
+		if(confs == null) {
+			if(artifact.isUsingConfidences()) {
+				confs = tree.predict(instance, learners, true, artifact.getThreshold());
+			}
+			else {
+				confs = tree.predictLazy(instance, learners, artifact.getThreshold());
+			}
+			cache.put(key, confs);
+		}
+		
+		boolean[] bip = new boolean[confs.length];
+		double[] conf = new double[confs.length];
+		for(int i=0; i<confs.length; i++) {
+			bip[i] = confs[i] >= artifact.getThreshold();
+			conf[i] = confs[i];
+		}
+		
+		return new MultiLabelOutput(bip, conf);
+	}
+	
+	/**
+	 * Predict a range of instances.
+	 * Only the instances not found in the cache are predicted, all together.
+	 * 
+	 * @param instances Instances with the format of the header of the ensemble
+	 * @param from Index of the first instance to predict (inclusive)
+	 * @param to Index of the last instance to predict (exclusive)
+	 * @return Predictions of the instances in the range
+	 * @throws Exception if some leaf fails predicting the instances
+	 */
+	public BatchPrediction predictBatch(Instance[] instances, int from, int to) throws Exception {
+		float[][] confidences = new float[to - from][];
+		InferenceCache.Key[] keys = new InferenceCache.Key[to - from];
+		ArrayList<Integer> missed = new ArrayList<Integer>();
+		
+		for(int i=from; i<to; i++) {
+			keys[i-from] = key(instances[i], featureIndices);
+			confidences[i-from] = cache.get(keys[i-from]);
+			if(confidences[i-from] == null) {
+				missed.add(i-from);
+			}
+		}
+		
+		if(!missed.isEmpty()) {
+			Instance[] toPredict = new Instance[missed.size()];
+			for(int i=0; i<toPredict.length; i++) {
+				toPredict[i] = instances[from + missed.get(i)];
+			}
+			
+			float[][] predicted = new float[toPredict.length][];
+			tree.predictBatch(toPredict, 0, toPredict.length, learners, artifact.isUsingConfidences(), artifact.getThreshold(), predicted);
+			
+			for(int i=0; i<toPredict.length; i++) {
+				int pos = missed.get(i);
+				confidences[pos] = predicted[i];
+				cache.put(keys[pos], predicted[i]);
+			}
+		}
+		
+		return new BatchPrediction(confidences, artifact.getThreshold());
+	}
+	
+	/**
+	 * Compare the predictions with the caches and the predictions of the ensemble in a dataset.
+	 * The caches are cleared before, so the leaves share cached predictions only among the instances of the dataset.
+	 * 
+	 * @param data Instances with the format of the header of the ensemble
+	 * @return Number of instances whose bipartition differs
+	 * @throws Exception if some instance can not be predicted
+	 */
+	public int verify(Instances data) throws Exception {
+		clear();
+		
+		int mismatches = 0;
+		for(int i=0; i<data.numInstances(); i++) {
+			Instance instance = data.get(i);
+			if(!Arrays.equals(artifact.predict(instance).getBipartition(), predict(instance).getBipartition())) {
+				mismatches++;
+			}
+		}
+		
+		System.out.println("Instances: " + data.numInstances() + "; mismatches with the cache: " + mismatches);
+		clear();
+		
+		return mismatches;
+	}
+	
+	/**
+	 * Remove all the entries of the caches
+	 */
+	public void clear() {
+		cache.clear();
+		for(CachedLearner learner : learners) {
+			if(learner.cache != null) {
+				learner.cache.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Get the report of the caches; the leaves are aggregated
+	 * 
+	 * @return Report as string
+	 */
+	public String report() {
+		String s = cache.report("cache");
+		
+		long hits = 0, misses = 0;
+		for(CachedLearner learner : learners) {
+			if(learner.cache != null) {
+				synchronized (learner.cache) {
+					hits += learner.cache.hits;
+					misses += learner.cache.misses;
+				}
+			}
+		}
+		s += "leaf_cache_hits: " + hits + "\n";
+		s += "leaf_cache_misses: " + misses + "\n";
+		s += "leaf_cache_hit_ratio: " + String.format("%.4f", (hits + misses > 0) ? (double)hits / (hits + misses) : 0.0) + "\n";
+		
+		return s;
+	}
+	
+	/**
+	 * Leaf classifier whose predictions are cached by the values of the features it uses
+	 */
+	static class CachedLearner implements MultiLabelLearner {
+		
+		/**
+		 * Classifier of the leaf
+		 */
+		MultiLabelLearner learner;
+		
+		/**
+		 * Indices of the features used by the classifier
+		 */
+		int[] usedFeatures;
+		
+		/**
+		 * Cache of the predictions; null if they are not cached
+		 */
+		InferenceCache<MultiLabelOutput> cache;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param learner Classifier of the leaf
+		 * @param usedFeatures Indices of the features used by the classifier
+		 * @param cache Cache of the predictions; null if they are not cached
+		 */
+		CachedLearner(MultiLabelLearner learner, int[] usedFeatures, InferenceCache<MultiLabelOutput> cache) {
+			this.learner = learner;
+			this.usedFeatures = usedFeatures;
+			this.cache = cache;
+		}
+		
+		@Override
+		public MultiLabelOutput makePrediction(Instance instance) throws Exception, InvalidDataException {
+			if(cache == null) {
+				return learner.makePrediction(instance);
+			}
+			
+			InferenceCache.Key key = key(instance, usedFeatures);
+			MultiLabelOutput output = cache.get(key);
+			if(output == null) {
+				output = learner.makePrediction(instance);
+				cache.put(key, output);
+			}
+			
+			return output;
+		}
+		
+		@Override
+		public boolean isUpdatable() {
+			return false;
+		}
+		
+		@Override
+		public void build(MultiLabelInstances instances) throws Exception {
+			throw new UnsupportedOperationException("Leaves of a deployed ensemble can not be built.");
+		}
+		
+		@Override
+		public MultiLabelLearner makeCopy() throws Exception {
+			return learner.makeCopy();
+		}
+		
+		@Override
+		public void setDebug(boolean debug) {
+			//Do nothing
+		}
+	}
+}
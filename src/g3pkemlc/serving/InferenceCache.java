@@ -0,0 +1,226 @@
+package g3pkemlc.serving;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class implementing a bounded cache of predictions, keyed by the values of some features of the instances.
+ * Entries expire after a given time to live, and when the cache is full the least recently used entry
+ * 	(or the oldest one, if FIFO eviction is selected) is evicted.
+ * 
+ * @author Jose M. Moyano
+ * 
+ * @param <V> Type of the cached predictions
+ */
+public class InferenceCache<V> {
+	
+	/**
+	 * Maximum number of entries
+	 */
+	int maxSize;
+	
+	/**
+	 * Time to live of the entries (in ms); 0 if they do not expire
+	 */
+	long ttl;
+	
+	/**
+	 * Entries of the cache
+	 */
+	LinkedHashMap<Key, Entry<V>> entries;
+	
+	/**
+	 * Number of hits
+	 */
+	long hits = 0;
+	
+	/**
+	 * Number of misses
+	 */
+	long misses = 0;
+	
+	/**
+	 * Number of entries evicted because the cache was full
+	 */
+	long evictions = 0;
+	
+	/**
+	 * Number of entries expired
+	 */
+	long expirations = 0;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param maxSize Maximum number of entries
+	 * @param ttl Time to live of the entries (in ms); 0 if they do not expire
+	 * @param lru True to evict the least recently used entry; false to evict the oldest one
+	 */
+	public InferenceCache(int maxSize, long ttl, boolean lru) {
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+		
+		entries = new LinkedHashMap<Key, Entry<V>>(16, 0.75f, lru) {
+			private static final long serialVersionUID = 6530893742718634213L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry<V>> eldest) {
+				if(size() > InferenceCache.this.maxSize) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * Get a cached prediction
+	 * 
+	 * @param key Values of the features
+	 * @return Cached prediction; null if it is not cached or it expired
+	 */
+	public synchronized V get(Key key) {
+		Entry<V> entry = entries.get(key);
+		if(entry != null && ttl > 0 && System.currentTimeMillis() - entry.time > ttl) {
+			entries.remove(key);
+			expirations++;
+			entry = null;
+		}
+		
+		if(entry == null) {
+			misses++;
+			return null;
+		}
+		
+		hits++;
+		return entry.value;
+	}
+	
+	/**
+	 * Store a prediction
+	 * 
+	 * @param key Values of the features
+	 * @param value Prediction
+	 */
+	public synchronized void put(Key key, V value) {
+		entries.put(key, new Entry<V>(value, System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Remove all the entries
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+	
+	/**
+	 * Get the number of entries
+	 * 
+	 * @return Number of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Get the ratio of hits
+	 * 
+	 * @return Hits divided by the number of queries
+	 */
+	public synchronized double hitRatio() {
+		return (hits + misses > 0) ? (double)hits / (hits + misses) : 0.0;
+	}
+	
+	/**
+	 * Get the report of the cache
+	 * 
+	 * @param name Name of the cache in the report
+	 * @return Report as string
+	 */
+	public synchronized String report(String name) {
+		String s = "";
+		s += name + "_size: " + entries.size() + "\n";
+		s += name + "_hits: " + hits + "\n";
+		s += name + "_misses: " + misses + "\n";
+		s += name + "_hit_ratio: " + String.format("%.4f", hitRatio()) + "\n";
+		s += name + "_evictions: " + evictions + "\n";
+		s += name + "_expirations: " + expirations + "\n";
+		return s;
+	}
+	
+	/**
+	 * Key of the cache, given by the values of some features.
+	 * Missing values are equal among them.
+	 */
+	public static class Key {
+		
+		/**
+		 * Values of the features
+		 */
+		double[] values;
+		
+		/**
+		 * Hash of the values
+		 */
+		int hash;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param values Values of the features
+		 */
+		public Key(double[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) {
+				return true;
+			}
+			if(!(o instanceof Key)) {
+				return false;
+			}
+			
+			Key other = (Key) o;
+			return hash == other.hash && Arrays.equals(values, other.values);
+		}
+	}
+	
+	/**
+	 * Entry of the cache
+	 * 
+	 * @param <V> Type of the cached prediction
+	 */
+	static class Entry<V> {
+		
+		/**
+		 * Cached prediction
+		 */
+		V value;
+		
+		/**
+		 * Time in which it was stored (in ms)
+		 */
+		long time;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param value Cached prediction
+		 * @param time Time in which it was stored (in ms)
+		 */
+		Entry(V value, long time) {
+			this.value = value;
+			this.time = time;
+		}
+	}
+}
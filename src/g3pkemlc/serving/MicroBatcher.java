@@ -0,0 +1,217 @@
+package g3pkemlc.serving;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import g3pkemlc.BatchPrediction;
+import weka.core.Instance;
+
+/**
+ * Class implementing the coalescing of concurrent requests into micro-batches.
+ * Requests are queued, and a dispatcher thread joins them until the batch reaches the maximum size
+ * 	or the oldest request has waited the maximum delay. Then, the batch is predicted by one of the workers
+ * 	and the predictions are split back into the requests.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class MicroBatcher {
+	
+	/**
+	 * Predictor of the batches
+	 */
+	BatchPredictor predictor;
+	
+	/**
+	 * Maximum number of instances in a batch
+	 */
+	int maxBatchSize;
+	
+	/**
+	 * Maximum time (in ms) a request waits for other requests to join its batch
+	 */
+	long maxDelay;
+	
+	/**
+	 * Queue of pending requests
+	 */
+	LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+	
+	/**
+	 * Threads predicting the batches
+	 */
+	ExecutorService workers;
+	
+	/**
+	 * Thread coalescing the requests
+	 */
+	Thread dispatcher;
+	
+	/**
+	 * Statistics of the server
+	 */
+	ScoringStats stats;
+	
+	/**
+	 * Indicates if the batcher is running; it is changed and checked before queuing under the lock of the batcher,
+	 * 	so no request is queued after the dispatcher may have finished
+	 */
+	volatile boolean running = true;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param predictor Predictor of the batches
+	 * @param maxBatchSize Maximum number of instances in a batch
+	 * @param maxDelay Maximum time (in ms) a request waits for other requests
+	 * @param nThreads Number of threads predicting batches
+	 * @param stats Statistics of the server
+	 */
+	public MicroBatcher(BatchPredictor predictor, int maxBatchSize, long maxDelay, int nThreads, ScoringStats stats) {
+		this.predictor = predictor;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelay = maxDelay;
+		this.stats = stats;
+		
+		workers = Executors.newFixedThreadPool(nThreads);
+		dispatcher = new Thread(this::dispatch, "micro-batcher");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+	
+	/**
+	 * Submit a set of instances to be predicted
+	 * 
+	 * @param instances Instances
+	 * @return Future with the predictions of the instances
+	 */
+	public CompletableFuture<BatchPrediction> submit(Instance[] instances) {
+		Request request = new Request(instances);
+		synchronized (this) {
+			if(!running) {
+				request.future.completeExceptionally(new IllegalStateException("The server is stopping"));
+			}
+			else {
+				queue.add(request);
+			}
+		}
+		return request.future;
+	}
+	
+	/**
+	 * Coalesce the queued requests into batches until the batcher is stopped
+	 */
+	private void dispatch() {
+		while(running || !queue.isEmpty()) {
+			try {
+				Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null) {
+					continue;
+				}
+				
+				ArrayList<Request> batch = new ArrayList<Request>();
+				batch.add(first);
+				int size = first.instances.length;
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelay);
+				
+				while(size < maxBatchSize) {
+					long wait = deadline - System.nanoTime();
+					Request r = (wait > 0) ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+					if(r == null) {
+						break;
+					}
+					batch.add(r);
+					size += r.instances.length;
+				}
+				
+				final int batchSize = size;
+				workers.execute(() -> predict(batch, batchSize));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Predict a batch of requests and complete each of them with its predictions
+	 * 
+	 * @param batch Requests in the batch
+	 * @param size Total number of instances in the batch
+	 */
+	private void predict(ArrayList<Request> batch, int size) {
+		Instance[] instances = new Instance[size];
+		int pos = 0;
+		for(Request r : batch) {
+			System.arraycopy(r.instances, 0, instances, pos, r.instances.length);
+			pos += r.instances.length;
+		}
+		
+		try {
+			BatchPrediction prediction = predictor.predictBatch(instances, 0, size);
+			stats.addBatch();
+			
+			pos = 0;
+			for(Request r : batch) {
+				r.future.complete(prediction.subset(pos, pos + r.instances.length));
+				pos += r.instances.length;
+			}
+		} catch (Exception e) {
+			for(Request r : batch) {
+				r.future.completeExceptionally(e);
+			}
+		}
+	}
+	
+	/**
+	 * Stop the batcher once the pending requests are predicted
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			running = false;
+		}
+		try {
+			dispatcher.join();
+			
+			//Requests left if the dispatcher was interrupted are failed, so no client waits forever
+			Request r;
+			while((r = queue.poll()) != null) {
+				r.future.completeExceptionally(new IllegalStateException("The server is stopping"));
+			}
+			
+			workers.shutdown();
+			workers.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Class implementing a pending request
+	 */
+	static class Request {
+		
+		/**
+		 * Instances to predict
+		 */
+		Instance[] instances;
+		
+		/**
+		 * Future completed with the predictions
+		 */
+		CompletableFuture<BatchPrediction> future = new CompletableFuture<BatchPrediction>();
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param instances Instances to predict
+		 */
+		Request(Instance[] instances) {
+			this.instances = instances;
+		}
+	}
+}
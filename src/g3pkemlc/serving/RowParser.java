@@ -0,0 +1,135 @@
+package g3pkemlc.serving;
+
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Class implementing the parser of instances given as comma-separated rows.
+ * A row includes either the values of all attributes, in the order of the header,
+ * 	or only the values of the features, in which case the labels are set as missing.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class RowParser {
+	
+	/**
+	 * Header of the data
+	 */
+	Instances header;
+	
+	/**
+	 * Indices of the features in the header
+	 */
+	int[] featureIndices;
+	
+	/**
+	 * Indices of the labels in the header
+	 */
+	int[] labelIndices;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param header Header of the data
+	 * @param labelIndices Indices of the labels in the header
+	 */
+	public RowParser(Instances header, int[] labelIndices) {
+		this.header = header;
+		this.labelIndices = labelIndices;
+		
+		boolean[] isLabel = new boolean[header.numAttributes()];
+		for(int l : labelIndices) {
+			isLabel[l] = true;
+		}
+		
+		featureIndices = new int[header.numAttributes() - labelIndices.length];
+		int f = 0;
+		for(int a=0; a<header.numAttributes(); a++) {
+			if(!isLabel[a]) {
+				featureIndices[f] = a;
+				f++;
+			}
+		}
+	}
+	
+	/**
+	 * Parse a row into an instance
+	 * 
+	 * @param row Comma-separated values
+	 * @return Instance with the header as dataset
+	 * @throws IllegalArgumentException if the row does not match the header
+	 */
+	public Instance parse(String row) {
+		String[] values = row.split(",", -1);
+		
+		int[] indices;
+		if(values.length == header.numAttributes()) {
+			indices = null;
+		}
+		else if(values.length == featureIndices.length) {
+			indices = featureIndices;
+		}
+		else {
+			throw new IllegalArgumentException("Expected " + header.numAttributes() + " or " + featureIndices.length + " values but found " + values.length);
+		}
+		
+		double[] attValues = new double[header.numAttributes()];
+		Arrays.fill(attValues, Utils.missingValue());
+		
+		for(int i=0; i<values.length; i++) {
+			int a = (indices == null) ? i : indices[i];
+			attValues[a] = parseValue(header.attribute(a), values[i].trim());
+		}
+		
+		Instance instance = new DenseInstance(1.0, attValues);
+		instance.setDataset(header);
+		return instance;
+	}
+	
+	/**
+	 * Parse the value of an attribute
+	 * 
+	 * @param att Attribute
+	 * @param value Value as string
+	 * @return Internal value of the attribute
+	 * @throws IllegalArgumentException if the value is not valid for the attribute
+	 */
+	private double parseValue(Attribute att, String value) {
+		if(value.equals("?") || value.isEmpty()) {
+			return Utils.missingValue();
+		}
+		
+		if(att.isNumeric()) {
+			try {
+				return Double.parseDouble(value);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid numeric value for " + att.name() + ": " + value);
+			}
+		}
+		
+		if(value.length() > 1 && value.startsWith("'") && value.endsWith("'")) {
+			value = value.substring(1, value.length()-1);
+		}
+		int index = att.indexOfValue(value);
+		if(index < 0) {
+			throw new IllegalArgumentException("Invalid nominal value for " + att.name() + ": " + value);
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * Getter for the header
+	 * 
+	 * @return Header of the data
+	 */
+	public Instances getHeader() {
+		return header;
+	}
+}
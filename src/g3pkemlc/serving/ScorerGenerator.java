@@ -0,0 +1,411 @@
+package g3pkemlc.serving;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import g3pkemlc.EnsembleArtifact;
+import g3pkemlc.utils.CompiledTree;
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.transformation.LabelPowerset2;
+import mulan.data.LabelSet;
+import weka.classifiers.trees.J48;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Class implementing the generation of Java source code for an exported ensemble.
+ * The decision tree of each leaf is generated with the source of J48, the class of the tree is mapped to
+ * 	the labelset of the leaf, and all the combination nodes are unrolled, so predicting an instance is
+ * 	straight-line code without tables, maps or calls to the classifiers.
+ * Only ensembles combining bipartitions of LabelPowerset2 classifiers with J48 as base classifier are supported.
+ * Missing values are sent to the most populated branch in the generated trees (as in the source of J48),
+ * 	so a verification mode comparing the generated code with the ensemble is provided.
+ * 
+ * Usage: java g3pkemlc.serving.ScorerGenerator ensembleFile className outputDir [testFile]
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class ScorerGenerator {
+	
+	/**
+	 * Exported ensemble
+	 */
+	EnsembleArtifact artifact;
+	
+	/**
+	 * Name of the generated class
+	 */
+	String className;
+	
+	/**
+	 * Indices of the features in the header, in the order expected by the generated code
+	 */
+	int[] featureIndices;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param artifact Exported ensemble
+	 * @param className Name of the generated class
+	 */
+	public ScorerGenerator(EnsembleArtifact artifact, String className) {
+		if(artifact.isUsingConfidences()) {
+			throw new IllegalArgumentException("Only ensembles combining bipartitions can be generated.");
+		}
+		
+		this.artifact = artifact;
+		this.className = className;
+		this.featureIndices = artifact.getFeatureIndices();
+	}
+	
+	/**
+	 * Generate the source code of the scorer
+	 * 
+	 * @return Source code of a compilation unit including the scorer and the trees of the leaves
+	 * @throws Exception if the source of some leaf can not be generated
+	 */
+	public String generate() throws Exception {
+		CompiledTree tree = artifact.getTree();
+		int[][] leafLabels = tree.getLeafLabels();
+		int[][] nodeLabels = tree.getNodeLabels();
+		int[][] nodeChildren = tree.getNodeChildren();
+		float threshold = artifact.getThreshold();
+		
+		StringBuilder sb = new StringBuilder();
+		StringBuilder trees = new StringBuilder();
+		
+		sb.append("/**\n");
+		sb.append(" * Scorer generated for the ensemble " + artifact.getGenotype() + "\n");
+		sb.append(" * Features are given as Double (numeric), String (nominal) or null (missing), in the order of FEATURES.\n");
+		sb.append(" */\n");
+		sb.append("public final class " + className + " {\n\n");
+		
+		sb.append("\tpublic static final int NUM_LABELS = " + tree.getNumLabels() + ";\n\n");
+		sb.append("\tpublic static final String[] FEATURES = {");
+		for(int f=0; f<featureIndices.length; f++) {
+			sb.append((f > 0 ? ", " : "") + quote(artifact.getHeader().attribute(featureIndices[f]).name()));
+		}
+		sb.append("};\n\n");
+		sb.append("\tpublic static final String[] LABELS = {");
+		for(int l=0; l<artifact.getLabelNames().length; l++) {
+			sb.append((l > 0 ? ", " : "") + quote(artifact.getLabelNames()[l]));
+		}
+		sb.append("};\n\n");
+		
+		//Prediction: leaves, unrolled nodes and root
+		sb.append("\tpublic static boolean[] predict(Object[] x) throws Exception {\n");
+		for(int s=0; s<leafLabels.length; s++) {
+			sb.append("\t\tlong m" + s + " = leaf" + s + "(x);\n");
+		}
+		for(int n=0; n<nodeChildren.length; n++) {
+			sb.append("\n\t\t//Node " + n + "\n");
+			for(int l : nodeLabels[n]) {
+				StringBuilder sum = new StringBuilder();
+				int count = 0;
+				for(int child : nodeChildren[n]) {
+					String term = null;
+					if(child >= 0) {
+						int j = indexOf(leafLabels[child], l);
+						if(j >= 0) {
+							term = "(int)((m" + child + " >>> " + j + ") & 1L)";
+						}
+					}
+					else if(Arrays.binarySearch(nodeLabels[-child-1], l) >= 0) {
+						term = "(n" + (-child-1) + "_" + l + " ? 1 : 0)";
+					}
+					
+					if(term != null) {
+						sum.append((count > 0 ? " + " : "") + term);
+						count++;
+					}
+				}
+				sb.append("\t\tboolean n" + n + "_" + l + " = " + sum + " >= " + minVotes(count, threshold) + ";\n");
+			}
+		}
+		int root = nodeChildren.length - 1;
+		sb.append("\n\t\tboolean[] y = new boolean[NUM_LABELS];\n");
+		for(int l : nodeLabels[root]) {
+			sb.append("\t\ty[" + l + "] = n" + root + "_" + l + ";\n");
+		}
+		sb.append("\t\treturn y;\n");
+		sb.append("\t}\n");
+		
+		//Each leaf maps the class of its tree to the labelset, as bits in the order of its k-labelset
+		for(int s=0; s<leafLabels.length; s++) {
+			MultiLabelLearner learner = artifact.getLeaf(s);
+			if(!(learner instanceof LabelPowerset2) || !(((LabelPowerset2)learner).getBaseClassifier() instanceof J48)) {
+				throw new IllegalArgumentException("Leaf " + s + " is not a LabelPowerset2 classifier with J48.");
+			}
+			LabelPowerset2 lp = (LabelPowerset2) learner;
+			Attribute classAtt = lp.getTransformation().getTransformedFormat().classAttribute();
+			
+			sb.append("\n\tstatic long leaf" + s + "(Object[] x) throws Exception {\n");
+			if(classAtt.numValues() == 1) {
+				//The tree was not built; the labelset is always the same
+				sb.append("\t\treturn " + mask(classAtt.value(0), leafLabels[s].length) + "L;\n");
+			}
+			else {
+				String treeClass = className + "Leaf" + s;
+				trees.append("\n").append(((J48)lp.getBaseClassifier()).toSource(treeClass));
+				
+				sb.append("\t\tswitch((int) " + treeClass + ".classify(x)) {\n");
+				for(int c=0; c<classAtt.numValues(); c++) {
+					sb.append("\t\t\tcase " + c + ": return " + mask(classAtt.value(c), leafLabels[s].length) + "L;\n");
+				}
+				sb.append("\t\t\tdefault: return 0L;\n");
+				sb.append("\t\t}\n");
+			}
+			sb.append("\t}\n");
+		}
+		
+		sb.append("}\n");
+		sb.append(trees);
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Generate the source code and write it in the given directory
+	 * 
+	 * @param dir Output directory
+	 * @return Generated file
+	 * @throws Exception if the source can not be generated or written
+	 */
+	public File write(String dir) throws Exception {
+		File file = new File(dir, className + ".java");
+		file.getParentFile().mkdirs();
+		try (Writer writer = new FileWriter(file)) {
+			writer.write(generate());
+		}
+		
+		return file;
+	}
+	
+	/**
+	 * Generate the source code, and compile and load it at runtime
+	 * 
+	 * @param dir Directory where the source and the classes are stored
+	 * @return Generated scorer
+	 * @throws Exception if the source can not be generated or compiled
+	 */
+	public GeneratedScorer compile(String dir) throws Exception {
+		File source = write(dir);
+		
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if(compiler == null) {
+			throw new IllegalStateException("A JDK is needed to compile the generated scorer.");
+		}
+		if(compiler.run(null, null, null, "-d", dir, source.getPath()) != 0) {
+			throw new IllegalStateException("The generated scorer " + source.getPath() + " could not be compiled.");
+		}
+		
+		URLClassLoader loader = new URLClassLoader(new URL[] {new File(dir).toURI().toURL()}, ScorerGenerator.class.getClassLoader());
+		Method predict = loader.loadClass(className).getMethod("predict", Object[].class);
+		return new GeneratedScorer(predict, artifact.getHeader(), featureIndices);
+	}
+	
+	/**
+	 * Compare the predictions of the generated scorer and the ensemble in a dataset
+	 * 
+	 * @param scorer Generated scorer
+	 * @param data Instances with the format of the header of the ensemble
+	 * @return Number of instances whose bipartition differs
+	 * @throws Exception if some instance can not be predicted
+	 */
+	public int verify(GeneratedScorer scorer, Instances data) throws Exception {
+		int mismatches = 0;
+		long timeEnsemble = 0, timeGenerated = 0;
+		
+		for(int i=0; i<data.numInstances(); i++) {
+			Instance instance = data.get(i);
+			
+			long start = System.nanoTime();
+			boolean[] expected = artifact.predict(instance).getBipartition();
+			timeEnsemble += System.nanoTime() - start;
+			
+			start = System.nanoTime();
+			boolean[] predicted = scorer.predict(instance);
+			timeGenerated += System.nanoTime() - start;
+			
+			if(!Arrays.equals(expected, predicted)) {
+				mismatches++;
+			}
+		}
+		
+		int n = Math.max(1, data.numInstances());
+		System.out.println("Instances: " + data.numInstances() + "; mismatches: " + mismatches);
+		System.out.println("Ensemble: " + (timeEnsemble / 1000 / n) + " us/instance; generated: " + (timeGenerated / 1000 / n) + " us/instance");
+		
+		return mismatches;
+	}
+	
+	/**
+	 * Get the minimum number of positive votes so the average is not lower than the threshold
+	 * 
+	 * @param count Number of votes
+	 * @param threshold Threshold
+	 * @return Minimum number of positive votes; count+1 if it is never reached
+	 */
+	static int minVotes(int count, float threshold) {
+		for(int v=0; v<=count; v++) {
+			if((float)v / count >= threshold) {
+				return v;
+			}
+		}
+		
+		return count + 1;
+	}
+	
+	/**
+	 * Get a labelset as bit mask, where the j-th bit is the j-th label of the k-labelset
+	 * 
+	 * @param bitString Labelset as string of bits
+	 * @param k Number of labels
+	 * @return Bit mask
+	 * @throws Exception if the labelset is not valid
+	 */
+	static long mask(String bitString, int k) throws Exception {
+		if(k > 63) {
+			throw new IllegalArgumentException("k-labelsets with more than 63 labels are not supported.");
+		}
+		
+		boolean[] bits = LabelSet.fromBitString(bitString).toBooleanArray();
+		long mask = 0;
+		for(int j=0; j<k; j++) {
+			if(bits[j]) {
+				mask |= 1L << j;
+			}
+		}
+		
+		return mask;
+	}
+	
+	/**
+	 * Get the position of a value in an array
+	 * 
+	 * @param array Array
+	 * @param value Value
+	 * @return Position; -1 if not found
+	 */
+	static int indexOf(int[] array, int value) {
+		for(int i=0; i<array.length; i++) {
+			if(array[i] == value) {
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Quote a string as a Java literal
+	 * 
+	 * @param s String
+	 * @return Java literal
+	 */
+	static String quote(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+	
+	/**
+	 * Class implementing a generated scorer loaded at runtime
+	 */
+	public static class GeneratedScorer {
+		
+		/**
+		 * Prediction method of the generated class
+		 */
+		Method predict;
+		
+		/**
+		 * Header of the data
+		 */
+		Instances header;
+		
+		/**
+		 * Indices of the features in the header
+		 */
+		int[] featureIndices;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param predict Prediction method of the generated class
+		 * @param header Header of the data
+		 * @param featureIndices Indices of the features in the header
+		 */
+		GeneratedScorer(Method predict, Instances header, int[] featureIndices) {
+			this.predict = predict;
+			this.header = header;
+			this.featureIndices = featureIndices;
+		}
+		
+		/**
+		 * Predict an instance
+		 * 
+		 * @param instance Instance with the format of the header
+		 * @return Bipartition
+		 * @throws Exception if the generated code fails
+		 */
+		public boolean[] predict(Instance instance) throws Exception {
+			Object[] x = new Object[featureIndices.length];
+			for(int f=0; f<featureIndices.length; f++) {
+				int a = featureIndices[f];
+				if(!instance.isMissing(a)) {
+					Attribute att = header.attribute(a);
+					x[f] = att.isNominal() ? att.value((int) instance.value(a)) : (Object) instance.value(a);
+				}
+			}
+			
+			try {
+				return (boolean[]) predict.invoke(null, (Object) x);
+			} catch (InvocationTargetException e) {
+				throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+			}
+		}
+	}
+	
+	/**
+	 * Main method to generate the scorer and, optionally, verify it
+	 * 
+	 * @param args Exported ensemble file, name of the class, output directory and, optionally, test dataset (ARFF)
+	 */
+	public static void main(String[] args) {
+		if(args.length < 3) {
+			System.out.println("Usage: java g3pkemlc.serving.ScorerGenerator ensembleFile className outputDir [testFile]");
+			System.exit(-1);
+		}
+		
+		try {
+			ScorerGenerator generator = new ScorerGenerator(EnsembleArtifact.load(args[0]), args[1]);
+			
+			if(args.length > 3) {
+				GeneratedScorer scorer = generator.compile(args[2]);
+				Instances data;
+				try (FileReader reader = new FileReader(args[3])) {
+					data = new Instances(reader);
+				}
+				int mismatches = generator.verify(scorer, data);
+				System.exit(mismatches == 0 ? 0 : 1);
+			}
+			else {
+				System.out.println("Scorer written to " + generator.write(args[2]).getPath());
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+}
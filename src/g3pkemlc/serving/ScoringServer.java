@@ -0,0 +1,313 @@
+package g3pkemlc.serving;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import g3pkemlc.BatchPrediction;
+import g3pkemlc.EnsembleArtifact;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Class implementing a local scoring server for an exported ensemble.
+ * It listens in the loopback address, and concurrent requests are joined in micro-batches to be predicted.
+ * 	- POST /predict: the body includes one instance per line, as comma-separated values (all attributes or only the features).
+ * 		The response includes one line per instance, with the bipartition and the confidences separated by ';'.
+ * 	- GET /stats: latency percentiles and throughput of the server.
+ * 
+ * Optionally, predictions are cached for repeated instances (see CachedPredictor).
+ * 
+ * Usage: java g3pkemlc.serving.ScoringServer ensembleFile [port] [maxBatchSize] [maxDelayMs] [threads] [cacheSize] [cacheTtlMs] [leafCacheSize]
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class ScoringServer {
+	
+	/**
+	 * Number of requests whose latency is kept for the percentiles
+	 */
+	static final int LATENCY_WINDOW = 100000;
+	
+	/**
+	 * HTTP server
+	 */
+	HttpServer server;
+	
+	/**
+	 * Threads handling the connections
+	 */
+	ExecutorService handlers;
+	
+	/**
+	 * Batcher of the requests
+	 */
+	MicroBatcher batcher;
+	
+	/**
+	 * Parser of the instances
+	 */
+	RowParser parser;
+	
+	/**
+	 * Statistics of the server
+	 */
+	ScoringStats stats;
+	
+	/**
+	 * Predictor with cache; null if predictions are not cached
+	 */
+	CachedPredictor cachedPredictor;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param artifact Exported ensemble
+	 * @param port Port in the loopback address
+	 * @param maxBatchSize Maximum number of instances in a batch
+	 * @param maxDelay Maximum time (in ms) a request waits for other requests
+	 * @param nThreads Number of threads predicting batches
+	 * @throws IOException if the server can not be created
+	 */
+	public ScoringServer(EnsembleArtifact artifact, int port, int maxBatchSize, long maxDelay, int nThreads) throws IOException {
+		this(artifact, null, port, maxBatchSize, maxDelay, nThreads);
+	}
+	
+	/**
+	 * Constructor with cache of predictions
+	 * 
+	 * @param artifact Exported ensemble
+	 * @param cachedPredictor Predictor with cache of the ensemble; null to not cache predictions
+	 * @param port Port in the loopback address
+	 * @param maxBatchSize Maximum number of instances in a batch
+	 * @param maxDelay Maximum time (in ms) a request waits for other requests
+	 * @param nThreads Number of threads predicting batches
+	 * @throws IOException if the server can not be created
+	 */
+	public ScoringServer(EnsembleArtifact artifact, CachedPredictor cachedPredictor, int port, int maxBatchSize, long maxDelay, int nThreads) throws IOException {
+		this.cachedPredictor = cachedPredictor;
+		stats = new ScoringStats(LATENCY_WINDOW);
+		parser = new RowParser(artifact.getHeader(), artifact.getLabelIndices());
+		batcher = new MicroBatcher((cachedPredictor != null) ? cachedPredictor::predictBatch : artifact::predictBatch, maxBatchSize, maxDelay, nThreads, stats);
+		
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/predict", this::handlePredict);
+		server.createContext("/stats", this::handleStats);
+		
+		//Connections wait for the batcher most of the time, so more handlers than workers are used
+		handlers = Executors.newFixedThreadPool(Math.max(4 * nThreads, maxBatchSize));
+		server.setExecutor(handlers);
+	}
+	
+	/**
+	 * Start the server
+	 */
+	public void start() {
+		server.start();
+	}
+	
+	/**
+	 * Stop the server, once the pending requests are answered
+	 */
+	public void stop() {
+		server.stop(1);
+		batcher.shutdown();
+		handlers.shutdown();
+	}
+	
+	/**
+	 * Get the port in which the server is listening
+	 * 
+	 * @return Port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	/**
+	 * Getter for the statistics
+	 * 
+	 * @return Statistics of the server
+	 */
+	public ScoringStats getStats() {
+		return stats;
+	}
+	
+	/**
+	 * Handle a prediction request
+	 * 
+	 * @param exchange HTTP exchange
+	 * @throws IOException if the response can not be sent
+	 */
+	private void handlePredict(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		
+		if(!exchange.getRequestMethod().equals("POST")) {
+			send(exchange, 405, "Only POST is allowed\n");
+			return;
+		}
+		
+		Instance[] instances;
+		try {
+			ArrayList<Instance> list = new ArrayList<Instance>();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+			String line;
+			while((line = reader.readLine()) != null) {
+				line = line.trim();
+				if(!line.isEmpty()) {
+					list.add(parser.parse(line));
+				}
+			}
+			instances = list.toArray(new Instance[0]);
+		} catch (IllegalArgumentException e) {
+			stats.addError();
+			send(exchange, 400, e.getMessage() + "\n");
+			return;
+		}
+		
+		if(instances.length == 0) {
+			send(exchange, 200, "");
+			return;
+		}
+		
+		BatchPrediction prediction;
+		try {
+			prediction = batcher.submit(instances).get();
+		} catch (ExecutionException e) {
+			stats.addError();
+			send(exchange, 500, e.getCause() + "\n");
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			stats.addError();
+			send(exchange, 503, "Interrupted\n");
+			return;
+		}
+		
+		send(exchange, 200, format(prediction));
+		stats.addRequest(instances.length, System.nanoTime() - start);
+	}
+	
+	/**
+	 * Handle a statistics request
+	 * 
+	 * @param exchange HTTP exchange
+	 * @throws IOException if the response can not be sent
+	 */
+	private void handleStats(HttpExchange exchange) throws IOException {
+		send(exchange, 200, stats.report() + ((cachedPredictor != null) ? cachedPredictor.report() : ""));
+	}
+	
+	/**
+	 * Format the predictions, one line per instance
+	 * 
+	 * @param prediction Predictions
+	 * @return Predictions as string
+	 */
+	static String format(BatchPrediction prediction) {
+		StringBuilder sb = new StringBuilder();
+		boolean[][] bip = prediction.getBipartitions();
+		float[][] conf = prediction.getConfidences();
+		
+		for(int i=0; i<bip.length; i++) {
+			for(int j=0; j<bip[i].length; j++) {
+				if(j > 0) {
+					sb.append(',');
+				}
+				sb.append(bip[i][j] ? '1' : '0');
+			}
+			sb.append(';');
+			for(int j=0; j<conf[i].length; j++) {
+				if(j > 0) {
+					sb.append(',');
+				}
+				sb.append(conf[i][j]);
+			}
+			sb.append('\n');
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Send a response
+	 * 
+	 * @param exchange HTTP exchange
+	 * @param code HTTP status code
+	 * @param body Body of the response
+	 * @throws IOException if the response can not be sent
+	 */
+	private static void send(HttpExchange exchange, int code, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(code, bytes.length > 0 ? bytes.length : -1);
+		if(bytes.length > 0) {
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(bytes);
+			}
+		}
+		exchange.close();
+	}
+	
+	/**
+	 * Main method to start the scoring server
+	 * 
+	 * @param args Exported ensemble file and, optionally, port, maximum batch size, maximum delay (ms), number of threads,
+	 * 	size of the cache (0 to not cache), time to live of cached predictions (ms), size of the cache of each leaf
+	 * 	and dataset (ARFF) to check that the predictions with the cache are the same before starting
+	 */
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.out.println("Usage: java g3pkemlc.serving.ScoringServer ensembleFile [port] [maxBatchSize] [maxDelayMs] [threads] [cacheSize] [cacheTtlMs] [leafCacheSize] [verifyFile]");
+			System.exit(-1);
+		}
+		
+		int port = (args.length > 1) ? Integer.parseInt(args[1]) : 8080;
+		int maxBatchSize = (args.length > 2) ? Integer.parseInt(args[2]) : 256;
+		long maxDelay = (args.length > 3) ? Long.parseLong(args[3]) : 2;
+		int nThreads = (args.length > 4) ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		int cacheSize = (args.length > 5) ? Integer.parseInt(args[5]) : 0;
+		long cacheTtl = (args.length > 6) ? Long.parseLong(args[6]) : 0;
+		int leafCacheSize = (args.length > 7) ? Integer.parseInt(args[7]) : cacheSize;
+		
+		try {
+			EnsembleArtifact artifact = EnsembleArtifact.load(args[0]);
+			CachedPredictor cachedPredictor = (cacheSize > 0) ? new CachedPredictor(artifact, cacheSize, cacheTtl, true, leafCacheSize) : null;
+			
+			//The server is not started if the cache changes some prediction
+			if(cachedPredictor != null && args.length > 8) {
+				Instances data;
+				try (FileReader reader = new FileReader(args[8])) {
+					data = new Instances(reader);
+				}
+				if(cachedPredictor.verify(data) > 0) {
+					System.exit(1);
+				}
+			}
+			ScoringServer scoringServer = new ScoringServer(artifact, cachedPredictor, port, maxBatchSize, maxDelay, nThreads);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				scoringServer.stop();
+				System.out.print(scoringServer.getStats().report());
+			}));
+			
+			scoringServer.start();
+			System.out.println("Scoring server listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":" + scoringServer.getPort());
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+}
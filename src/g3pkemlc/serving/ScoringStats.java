@@ -0,0 +1,134 @@
+package g3pkemlc.serving;
+
+import java.util.Arrays;
+
+/**
+ * Class implementing the statistics of a scoring server.
+ * It keeps the latency of the last requests to calculate percentiles, and the totals to calculate throughput.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class ScoringStats {
+	
+	/**
+	 * Latencies (in microseconds) of the last requests
+	 */
+	long[] latencies;
+	
+	/**
+	 * Number of latencies stored
+	 */
+	int nLatencies = 0;
+	
+	/**
+	 * Position in which the next latency is stored
+	 */
+	int next = 0;
+	
+	/**
+	 * Total number of requests
+	 */
+	long nRequests = 0;
+	
+	/**
+	 * Total number of instances predicted
+	 */
+	long nRows = 0;
+	
+	/**
+	 * Total number of batches predicted
+	 */
+	long nBatches = 0;
+	
+	/**
+	 * Total number of requests failed
+	 */
+	long nErrors = 0;
+	
+	/**
+	 * Time in which statistics started (in ms)
+	 */
+	long startTime;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param window Number of requests whose latency is kept
+	 */
+	public ScoringStats(int window) {
+		latencies = new long[window];
+		startTime = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Register a request
+	 * 
+	 * @param rows Number of instances in the request
+	 * @param latencyNanos Latency of the request in nanoseconds
+	 */
+	public synchronized void addRequest(int rows, long latencyNanos) {
+		latencies[next] = latencyNanos / 1000;
+		next = (next + 1) % latencies.length;
+		if(nLatencies < latencies.length) {
+			nLatencies++;
+		}
+		
+		nRequests++;
+		nRows += rows;
+	}
+	
+	/**
+	 * Register a batch predicted
+	 */
+	public synchronized void addBatch() {
+		nBatches++;
+	}
+	
+	/**
+	 * Register a request failed
+	 */
+	public synchronized void addError() {
+		nErrors++;
+	}
+	
+	/**
+	 * Get the given percentile of the latency
+	 * 
+	 * @param p Percentile in [0, 100]
+	 * @return Latency in microseconds
+	 */
+	public synchronized long percentile(double p) {
+		if(nLatencies == 0) {
+			return 0;
+		}
+		
+		long[] sorted = Arrays.copyOf(latencies, nLatencies);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(p / 100.0 * nLatencies) - 1;
+		return sorted[Math.max(0, Math.min(index, nLatencies-1))];
+	}
+	
+	/**
+	 * Get the report of the statistics
+	 * 
+	 * @return Report as string
+	 */
+	public synchronized String report() {
+		double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+		
+		String s = "";
+		s += "uptime_s: " + String.format("%.1f", seconds) + "\n";
+		s += "requests: " + nRequests + "\n";
+		s += "rows: " + nRows + "\n";
+		s += "batches: " + nBatches + "\n";
+		s += "errors: " + nErrors + "\n";
+		s += "avg_rows_per_batch: " + String.format("%.2f", nBatches > 0 ? (double)nRows / nBatches : 0.0) + "\n";
+		s += "rows_per_s: " + String.format("%.2f", seconds > 0 ? nRows / seconds : 0.0) + "\n";
+		s += "requests_per_s: " + String.format("%.2f", seconds > 0 ? nRequests / seconds : 0.0) + "\n";
+		s += "latency_p50_us: " + percentile(50) + "\n";
+		s += "latency_p90_us: " + percentile(90) + "\n";
+		s += "latency_p99_us: " + percentile(99) + "\n";
+		return s;
+	}
+}
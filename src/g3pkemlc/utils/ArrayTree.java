@@ -0,0 +1,523 @@
+package g3pkemlc.utils;
+
+import java.util.Arrays;
+
+import net.sf.jclec.util.random.IRandGen;
+
+/**
+ * Class implementing a compact representation of G3P-kEMLC trees.
+ * The nodes are stored in prefix order in an array of integers, where a value >= 0 is a leaf (index of the classifier in the pool)
+ * 	and a negative value is a combination node with as many children as its absolute value.
+ * For each node, the size of its subtree, its depth (number of combination nodes above it) and its height
+ * 	(maximum number of nested combination nodes in its subtree) are also stored.
+ * So, the subtree of node i is the range [i, i+size[i]) of the array, and all the operations are linear in the size of the tree.
+ * The leaves and the combination nodes are also indexed (the latter grouped by height), so drawing a random leaf,
+ * 	a random subtree, or a random subtree of a maximum height is done in O(1).
+ * 
+ * The textual form of the tree is the same as the genotype of the StringTreeIndividual, as "((0 1) 2 (3 4 5));".
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class ArrayTree {
+	
+	/**
+	 * Nodes of the tree in prefix order
+	 */
+	int[] nodes;
+	
+	/**
+	 * Size of the subtree of each node (including itself)
+	 */
+	int[] size;
+	
+	/**
+	 * Depth of each node; the root has depth 0
+	 */
+	int[] depth;
+	
+	/**
+	 * Height of each node; 0 for the leaves
+	 */
+	int[] height;
+	
+	/**
+	 * Number of leaves
+	 */
+	int nLeaves;
+	
+	/**
+	 * Index of each leaf, in prefix order
+	 */
+	int[] leafPos;
+	
+	/**
+	 * Index of each combination node, in prefix order
+	 */
+	int[] internalPos;
+	
+	/**
+	 * Index of each combination node, sorted by height (and in prefix order for the same height)
+	 */
+	int[] internalByHeight;
+	
+	/**
+	 * Position in internalByHeight of the first combination node of each height
+	 * 	heightStart[h+1] is the number of combination nodes with height lower or equal than h
+	 */
+	int[] heightStart;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param nodes Nodes of the tree in prefix order
+	 */
+	public ArrayTree(int[] nodes) {
+		this.nodes = nodes;
+		index();
+	}
+	
+	/**
+	 * Create a tree with only a leaf
+	 * 
+	 * @param leaf Value of the leaf
+	 * @return Tree
+	 */
+	public static ArrayTree leaf(int leaf) {
+		return new ArrayTree(new int[] {leaf});
+	}
+	
+	/**
+	 * Parse the textual form of a tree. The ending ";" is optional.
+	 * 
+	 * @param ind Tree as String
+	 * @return Tree
+	 */
+	public static ArrayTree parse(String ind) {
+		//There are less nodes than characters
+		int[] nodes = new int[ind.length()];
+		int[] stack = new int[ind.length()];
+		int n = 0, top = -1;
+		
+		for(int pos=0; pos<ind.length(); pos++) {
+			char c = ind.charAt(pos);
+			if(c == '(') {
+				//The number of children is counted until the node is closed
+				if(top >= 0) {
+					nodes[stack[top]]--;
+				}
+				stack[++top] = n;
+				nodes[n++] = 0;
+			}
+			else if(c == ')') {
+				top--;
+			}
+			else if(c >= '0' && c <= '9') {
+				int leaf = 0;
+				while(pos < ind.length() && ind.charAt(pos) >= '0' && ind.charAt(pos) <= '9') {
+					leaf = leaf*10 + (ind.charAt(pos) - '0');
+					pos++;
+				}
+				pos--;
+				
+				if(top >= 0) {
+					nodes[stack[top]]--;
+				}
+				nodes[n++] = leaf;
+			}
+		}
+		
+		return new ArrayTree(Arrays.copyOf(nodes, n));
+	}
+	
+	/**
+	 * Create a random tree of given maximum depth and maximum number of children in each node.
+	 * Nodes are expanded in prefix order; each node below maxDepth is a combination node if a coin says so,
+	 * 	and a random leaf otherwise. The root is always a combination node.
+	 * 
+	 * @param randgen Random numbers generator
+	 * @param nMax Max value for the leaves
+	 * @param maxDepth Maximum depth of the tree
+	 * @param maxChild Maximum number of children at each combination node
+	 * @return Tree
+	 */
+	public static ArrayTree create(IRandGen randgen, int nMax, int maxDepth, int maxChild) {
+		Builder builder = new Builder();
+		
+		//The root is always a combination node
+		int nChildren = randgen.choose(2, maxChild+1);
+		builder.add(-nChildren);
+		for(int c=0; c<nChildren; c++) {
+			grow(randgen, nMax, maxDepth, maxChild, 1, builder);
+		}
+		
+		return new ArrayTree(builder.toArray());
+	}
+	
+	/**
+	 * Add a random node (and its subtree) at a given depth
+	 * 
+	 * @param randgen Random numbers generator
+	 * @param nMax Max value for the leaves
+	 * @param maxDepth Maximum depth of the tree
+	 * @param maxChild Maximum number of children at each combination node
+	 * @param currDepth Depth of the node
+	 * @param builder Nodes of the tree created until now
+	 */
+	private static void grow(IRandGen randgen, int nMax, int maxDepth, int maxChild, int currDepth, Builder builder) {
+		if(currDepth < maxDepth && randgen.coin()) {
+			int nChildren = randgen.choose(2, maxChild+1);
+			builder.add(-nChildren);
+			for(int c=0; c<nChildren; c++) {
+				grow(randgen, nMax, maxDepth, maxChild, currDepth+1, builder);
+			}
+		}
+		else {
+			builder.add(randgen.choose(0, nMax));
+		}
+	}
+	
+	/**
+	 * Calculate the size, depth and height of each node in a single pass,
+	 * 	and index the leaves and combination nodes so a random one is selected in O(1)
+	 */
+	private void index() {
+		size = new int[nodes.length];
+		depth = new int[nodes.length];
+		height = new int[nodes.length];
+		nLeaves = 0;
+		
+		//Open combination nodes and the number of children that they still need
+		int[] stack = new int[nodes.length];
+		int[] remaining = new int[nodes.length];
+		int top = -1;
+		
+		for(int i=0; i<nodes.length; i++) {
+			depth[i] = top + 1;
+			if(nodes[i] < 0) {
+				stack[++top] = i;
+				remaining[top] = -nodes[i];
+				continue;
+			}
+			
+			nLeaves++;
+			size[i] = 1;
+			
+			//Close all the nodes that are completed with this leaf
+			int child = i;
+			while(top >= 0) {
+				int parent = stack[top];
+				height[parent] = Math.max(height[parent], height[child] + 1);
+				remaining[top]--;
+				if(remaining[top] > 0) {
+					break;
+				}
+				size[parent] = i - parent + 1;
+				top--;
+				child = parent;
+			}
+		}
+		
+		leafPos = new int[nLeaves];
+		internalPos = new int[nodes.length - nLeaves];
+		int nL = 0, nI = 0;
+		for(int i=0; i<nodes.length; i++) {
+			if(nodes[i] >= 0) {
+				leafPos[nL++] = i;
+			}
+			else {
+				internalPos[nI++] = i;
+			}
+		}
+		
+		//Counting sort of the combination nodes by height
+		int maxHeight = (nodes[0] < 0) ? height[0] : 0;
+		heightStart = new int[maxHeight + 2];
+		for(int i : internalPos) {
+			heightStart[height[i] + 1]++;
+		}
+		for(int h=1; h<heightStart.length; h++) {
+			heightStart[h] += heightStart[h-1];
+		}
+		internalByHeight = new int[internalPos.length];
+		int[] next = Arrays.copyOf(heightStart, heightStart.length);
+		for(int i : internalPos) {
+			internalByHeight[next[height[i]]++] = i;
+		}
+	}
+	
+	/**
+	 * Get the number of nodes
+	 * 
+	 * @return Number of nodes
+	 */
+	public int getNumNodes() {
+		return nodes.length;
+	}
+	
+	/**
+	 * Get the number of leaves (with repetition)
+	 * 
+	 * @return Number of leaves
+	 */
+	public int getNumLeaves() {
+		return nLeaves;
+	}
+	
+	/**
+	 * Get the number of combination nodes
+	 * 
+	 * @return Number of combination nodes
+	 */
+	public int getNumInternal() {
+		return nodes.length - nLeaves;
+	}
+	
+	/**
+	 * Check if a node is a leaf
+	 * 
+	 * @param i Index of the node
+	 * @return True if it is a leaf; false otherwise
+	 */
+	public boolean isLeaf(int i) {
+		return nodes[i] >= 0;
+	}
+	
+	/**
+	 * Get the value of a leaf
+	 * 
+	 * @param i Index of the node
+	 * @return Index of the classifier in the pool
+	 */
+	public int getLeaf(int i) {
+		return nodes[i];
+	}
+	
+	/**
+	 * Get the number of children of a node
+	 * 
+	 * @param i Index of the node
+	 * @return Number of children; 0 for leaves
+	 */
+	public int getArity(int i) {
+		return (nodes[i] < 0) ? -nodes[i] : 0;
+	}
+	
+	/**
+	 * Get the size of the subtree of a node
+	 * 
+	 * @param i Index of the node
+	 * @return Number of nodes in the subtree
+	 */
+	public int getSize(int i) {
+		return size[i];
+	}
+	
+	/**
+	 * Get the depth of a node, as the number of combination nodes above it
+	 * 
+	 * @param i Index of the node
+	 * @return Depth of the node
+	 */
+	public int getDepth(int i) {
+		return depth[i];
+	}
+	
+	/**
+	 * Get the height of a node, as the maximum number of nested combination nodes in its subtree
+	 * 
+	 * @param i Index of the node
+	 * @return Height of the node
+	 */
+	public int getHeight(int i) {
+		return height[i];
+	}
+	
+	/**
+	 * Get the maximum depth of the tree, as in Utils.calculateTreeMaxDepth
+	 * 
+	 * @return Maximum depth; -1 if the tree is just a leaf
+	 */
+	public int getMaxDepth() {
+		return isLeaf(0) ? -1 : height[0];
+	}
+	
+	/**
+	 * Get the index of the r-th leaf in prefix order
+	 * 
+	 * @param r Position of the leaf among the leaves
+	 * @return Index of the node
+	 */
+	public int getLeafIndex(int r) {
+		return leafPos[r];
+	}
+	
+	/**
+	 * Get the index of the r-th combination node in prefix order
+	 * 
+	 * @param r Position of the node among the combination nodes
+	 * @return Index of the node
+	 */
+	public int getInternalIndex(int r) {
+		return internalPos[r];
+	}
+	
+	/**
+	 * Count the combination nodes whose height is lower or equal than a given one
+	 * 
+	 * @param maxHeight Maximum height
+	 * @return Number of combination nodes
+	 */
+	public int countInternal(int maxHeight) {
+		if(maxHeight < 1) {
+			return 0;
+		}
+		
+		return heightStart[Math.min(maxHeight, heightStart.length-2) + 1];
+	}
+	
+	/**
+	 * Get the index of the r-th combination node sorted by height
+	 * 	The first countInternal(h) nodes are the ones with height lower or equal than h
+	 * 
+	 * @param r Position of the node among the combination nodes sorted by height
+	 * @return Index of the node
+	 */
+	public int getInternalIndexByHeight(int r) {
+		return internalByHeight[r];
+	}
+	
+	/**
+	 * Get the leaves of the tree (without repetition)
+	 * 
+	 * @return Sorted array with the leaves
+	 */
+	public int[] getLeaves() {
+		int max = -1;
+		for(int node : nodes) {
+			max = Math.max(max, node);
+		}
+		
+		boolean[] present = new boolean[max+1];
+		int count = 0;
+		for(int node : nodes) {
+			if(node >= 0 && !present[node]) {
+				present[node] = true;
+				count++;
+			}
+		}
+		
+		int[] leaves = new int[count];
+		count = 0;
+		for(int leaf=0; leaf<present.length; leaf++) {
+			if(present[leaf]) {
+				leaves[count++] = leaf;
+			}
+		}
+		
+		return leaves;
+	}
+	
+	/**
+	 * Create a new tree replacing the subtree of a node by the subtree of a node in other tree
+	 * 
+	 * @param i Index of the node to replace
+	 * @param other Tree with the new subtree
+	 * @param j Index of the root of the new subtree in the other tree
+	 * @return New tree
+	 */
+	public ArrayTree replace(int i, ArrayTree other, int j) {
+		int[] newNodes = new int[nodes.length - size[i] + other.size[j]];
+		System.arraycopy(nodes, 0, newNodes, 0, i);
+		System.arraycopy(other.nodes, j, newNodes, i, other.size[j]);
+		System.arraycopy(nodes, i + size[i], newNodes, i + other.size[j], nodes.length - i - size[i]);
+		
+		return new ArrayTree(newNodes);
+	}
+	
+	/**
+	 * Get the textual form of the subtree of a node
+	 * 
+	 * @param root Index of the root of the subtree
+	 * @return Subtree as String
+	 */
+	public String toString(int root) {
+		StringBuilder sb = new StringBuilder(4 * size[root]);
+		
+		//Number of children still to write for each open node
+		int[] remaining = new int[size[root]];
+		int top = -1;
+		
+		for(int i=root; i<root+size[root]; i++) {
+			if(nodes[i] < 0) {
+				sb.append('(');
+				remaining[++top] = -nodes[i];
+				continue;
+			}
+			
+			sb.append(nodes[i]);
+			while(top >= 0) {
+				remaining[top]--;
+				if(remaining[top] > 0) {
+					sb.append(' ');
+					break;
+				}
+				sb.append(')');
+				top--;
+			}
+		}
+		
+		return sb.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return toString(0);
+	}
+	
+	/**
+	 * Get the genotype of the tree, ending with ";"
+	 * 
+	 * @return Genotype of the StringTreeIndividual
+	 */
+	public String toGenotype() {
+		return toString(0) + ";";
+	}
+	
+	/**
+	 * Growable array of nodes used while creating random trees
+	 */
+	private static class Builder {
+		
+		/**
+		 * Nodes added
+		 */
+		int[] data = new int[16];
+		
+		/**
+		 * Number of nodes added
+		 */
+		int n = 0;
+		
+		/**
+		 * Add a node
+		 * 
+		 * @param node Node
+		 */
+		void add(int node) {
+			if(n == data.length) {
+				data = Arrays.copyOf(data, 2 * n);
+			}
+			data[n++] = node;
+		}
+		
+		/**
+		 * Get the added nodes
+		 * 
+		 * @return Array with the nodes
+		 */
+		int[] toArray() {
+			return Arrays.copyOf(data, n);
+		}
+	}
+}
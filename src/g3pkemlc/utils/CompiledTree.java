@@ -0,0 +1,725 @@
+package g3pkemlc.utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import g3pkemlc.Prediction;
+import mulan.classifier.MultiLabelLearner;
+import mulan.classifier.MultiLabelOutput;
+import weka.core.Instance;
+
+/**
+ * Class implementing a tree individual compiled to evaluate it without parsing its genotype.
+ * The genotype is parsed once into arrays of nodes in postorder, so the children of each
+ * 	node are always evaluated before it. Each distinct leaf (classifier of the pool) is
+ * 	evaluated only once per instance, even if it appears several times in the tree.
+ * Evaluation only uses buffers local to the calling thread, so it may be called concurrently.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class CompiledTree implements Serializable {
+	
+	/**
+	 * serialVersionUID
+	 */
+	private static final long serialVersionUID = -6045812396730118245L;
+	
+	/**
+	 * Total number of labels
+	 */
+	int numLabels;
+	
+	/**
+	 * Index in the pool of the classifier of each distinct leaf
+	 */
+	int[] leaves;
+	
+	/**
+	 * Labels predicted by each distinct leaf, in the order of its outputs
+	 */
+	int[][] leafLabels;
+	
+	/**
+	 * Labels covered by each internal node, in postorder
+	 */
+	int[][] nodeLabels;
+	
+	/**
+	 * Children of each internal node.
+	 * Values greater or equal than 0 are indices of leaves; negative values v are the internal node -v-1
+	 */
+	int[][] nodeChildren;
+	
+	/**
+	 * Children of each internal node, sorted by their cost (number of distinct leaves in their subtree)
+	 */
+	int[][] nodeChildrenByCost;
+	
+	/**
+	 * Number of leaf classifiers called in lazy predictions
+	 */
+	final AtomicLong leafCallsMade = new AtomicLong();
+	
+	/**
+	 * Number of leaf classifiers not called in lazy predictions because their labels were already decided
+	 */
+	final AtomicLong leafCallsAvoided = new AtomicLong();
+	
+	/**
+	 * Buffers of each thread evaluating the tree
+	 */
+	transient volatile ThreadLocal<Buffers> buffers;
+	
+	/**
+	 * Constructor. It compiles the given genotype.
+	 * 
+	 * @param genotype Genotype of the tree
+	 * @param klabelsets Array with the k-labelsets of the pool
+	 * @param numLabels Total number of labels
+	 */
+	public CompiledTree(String genotype, ArrayList<KLabelset> klabelsets, int numLabels) {
+		this(genotype, labelsOf(klabelsets), numLabels);
+	}
+	
+	/**
+	 * Constructor. It compiles the given genotype.
+	 * 
+	 * @param genotype Genotype of the tree
+	 * @param poolLabels Labels predicted by each classifier of the pool, in the order of its outputs
+	 * @param numLabels Total number of labels
+	 */
+	public CompiledTree(String genotype, int[][] poolLabels, int numLabels) {
+		this.numLabels = numLabels;
+		
+		ArrayList<Integer> leafList = new ArrayList<Integer>();
+		ArrayList<int[]> labelsList = new ArrayList<int[]>();
+		ArrayList<int[]> childrenList = new ArrayList<int[]>();
+		
+		//Children of each open node
+		ArrayList<ArrayList<Integer>> stack = new ArrayList<ArrayList<Integer>>();
+		
+		int i = 0;
+		while(i < genotype.length()) {
+			char c = genotype.charAt(i);
+			
+			if(c == '(') {
+				stack.add(new ArrayList<Integer>());
+				i++;
+			}
+			else if(c == ')') {
+				//Close the node, which is stored after all its children
+				ArrayList<Integer> children = stack.remove(stack.size()-1);
+				
+				int[] nodeChildren = new int[children.size()];
+				TreeSet<Integer> labels = new TreeSet<Integer>();
+				for(int j=0; j<children.size(); j++) {
+					int child = children.get(j);
+					nodeChildren[j] = child;
+					
+					int[] childLabels = child >= 0 ? poolLabels[leafList.get(child)] : labelsList.get(-child-1);
+					for(int l : childLabels) {
+						labels.add(l);
+					}
+				}
+				
+				childrenList.add(nodeChildren);
+				labelsList.add(labels.stream().mapToInt(Integer::intValue).toArray());
+				
+				if(!stack.isEmpty()) {
+					stack.get(stack.size()-1).add(-childrenList.size());
+				}
+				i++;
+			}
+			else if(Character.isDigit(c)) {
+				int end = i;
+				while(end < genotype.length() && Character.isDigit(genotype.charAt(end))) {
+					end++;
+				}
+				
+				//Each distinct leaf has a single slot
+				int leaf = Integer.parseInt(genotype.substring(i, end));
+				int slot = leafList.indexOf(leaf);
+				if(slot < 0) {
+					slot = leafList.size();
+					leafList.add(leaf);
+				}
+				stack.get(stack.size()-1).add(slot);
+				
+				i = end;
+			}
+			else {
+				i++;
+			}
+		}
+		
+		leaves = leafList.stream().mapToInt(Integer::intValue).toArray();
+		leafLabels = new int[leaves.length][];
+		for(int s=0; s<leaves.length; s++) {
+			leafLabels[s] = poolLabels[leaves[s]];
+		}
+		
+		nodeChildren = childrenList.toArray(new int[0][]);
+		nodeLabels = labelsList.toArray(new int[0][]);
+		
+		//Distinct leaves in the subtree of each internal node
+		ArrayList<TreeSet<Integer>> subtreeLeaves = new ArrayList<TreeSet<Integer>>();
+		for(int n=0; n<nodeChildren.length; n++) {
+			TreeSet<Integer> set = new TreeSet<Integer>();
+			for(int child : nodeChildren[n]) {
+				if(child >= 0) {
+					set.add(child);
+				}
+				else {
+					set.addAll(subtreeLeaves.get(-child-1));
+				}
+			}
+			subtreeLeaves.add(set);
+		}
+		
+		//Cheaper children are evaluated first, so labels are decided calling as few leaves as possible
+		nodeChildrenByCost = new int[nodeChildren.length][];
+		for(int n=0; n<nodeChildren.length; n++) {
+			Integer[] children = Arrays.stream(nodeChildren[n]).boxed().toArray(Integer[]::new);
+			Arrays.sort(children, Comparator.comparingInt(child -> child >= 0 ? 1 : subtreeLeaves.get(-child-1).size()));
+			nodeChildrenByCost[n] = Arrays.stream(children).mapToInt(Integer::intValue).toArray();
+		}
+	}
+	
+	/**
+	 * Get the labels of each k-labelset
+	 * 
+	 * @param klabelsets Array with the k-labelsets of the pool
+	 * @return Labels of each k-labelset
+	 */
+	static int[][] labelsOf(ArrayList<KLabelset> klabelsets) {
+		int[][] labels = new int[klabelsets.size()][];
+		for(int c=0; c<labels.length; c++) {
+			labels[c] = klabelsets.get(c).getKlabelset().stream().mapToInt(Integer::intValue).toArray();
+		}
+		
+		return labels;
+	}
+	
+	/**
+	 * Getter for the leaves
+	 * 
+	 * @return Index in the pool of the classifier of each distinct leaf
+	 */
+	public int[] getLeaves() {
+		return leaves;
+	}
+	
+	/**
+	 * Getter for the labels of each leaf
+	 * 
+	 * @return Labels predicted by each distinct leaf, in the order of its outputs
+	 */
+	public int[][] getLeafLabels() {
+		return leafLabels;
+	}
+	
+	/**
+	 * Getter for the labels of each internal node
+	 * 
+	 * @return Labels covered by each internal node, in postorder
+	 */
+	public int[][] getNodeLabels() {
+		return nodeLabels;
+	}
+	
+	/**
+	 * Getter for the children of each internal node
+	 * 
+	 * @return Children of each internal node, in postorder
+	 */
+	public int[][] getNodeChildren() {
+		return nodeChildren;
+	}
+	
+	/**
+	 * Getter for the total number of labels
+	 * 
+	 * @return Number of labels
+	 */
+	public int getNumLabels() {
+		return numLabels;
+	}
+	
+	/**
+	 * Predict an instance with the tree
+	 * 
+	 * @param instance Instance to predict
+	 * @param learners Classifier of each distinct leaf, in the same order than getLeaves()
+	 * @param useConfidences True if confidences are combined; otherwise bipartitions are combined
+	 * @param threshold Threshold to combine bipartitions
+	 * @return Prediction of the root for each label; labels not covered by the tree are 0
+	 * @throws Exception if some classifier fails predicting the instance
+	 */
+	public float[] predict(Instance instance, MultiLabelLearner[] learners, boolean useConfidences, float threshold) throws Exception {
+		Buffers b = getBuffers();
+		
+		//Predict with each distinct leaf
+		for(int s=0; s<leaves.length; s++) {
+			MultiLabelOutput output = learners[s].makePrediction(instance);
+			float[] values = b.leafValues[s];
+			int[] labels = leafLabels[s];
+			
+			if(useConfidences) {
+				double[] confidences = output.getConfidences();
+				for(int j=0; j<labels.length; j++) {
+					values[labels[j]] = (float) confidences[j];
+				}
+			}
+			else {
+				boolean[] bipartition = output.getBipartition();
+				for(int j=0; j<labels.length; j++) {
+					values[labels[j]] = bipartition[j] ? 1 : 0;
+				}
+			}
+		}
+		
+		//Combine the internal nodes
+		for(int n=0; n<nodeChildren.length; n++) {
+			combine(n, b, useConfidences, threshold);
+		}
+		
+		//The root is the last node
+		float[] result = new float[numLabels];
+		int root = nodeChildren.length - 1;
+		for(int l : nodeLabels[root]) {
+			result[l] = b.nodeValues[root][l];
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Predict an instance with the tree combining bipartitions, evaluating only the needed nodes.
+	 * Each node is a majority vote, so a label is decided as soon as the votes of the evaluated
+	 * 	children reach the threshold, or when the remaining children can not reach it anymore.
+	 * Children are evaluated from cheaper to more expensive, and only for their undecided labels;
+	 * 	children whose labels are all decided are skipped, so their leaves are not called.
+	 * The prediction is the same as the one of predict() combining bipartitions.
+	 * 
+	 * @param instance Instance to predict
+	 * @param learners Classifier of each distinct leaf, in the same order than getLeaves()
+	 * @param threshold Threshold to combine bipartitions
+	 * @return Prediction of the root for each label; labels not covered by the tree are 0
+	 * @throws Exception if some classifier fails predicting the instance
+	 */
+	public float[] predictLazy(Instance instance, MultiLabelLearner[] learners, float threshold) throws Exception {
+		Buffers b = getBuffers();
+		Arrays.fill(b.leafDone, false);
+		
+		//All labels of the root are needed
+		int root = nodeChildren.length - 1;
+		for(int l : nodeLabels[root]) {
+			b.nodeNeeded[root][l] = true;
+		}
+		
+		int calls = evaluateLazy(root, instance, learners, threshold, b);
+		leafCallsMade.addAndGet(calls);
+		leafCallsAvoided.addAndGet(leaves.length - calls);
+		
+		float[] result = new float[numLabels];
+		for(int l : nodeLabels[root]) {
+			result[l] = b.nodeValues[root][l];
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Evaluate the needed labels of an internal node (those marked in nodeNeeded)
+	 * 
+	 * @param n Index of the internal node
+	 * @param instance Instance to predict
+	 * @param learners Classifier of each distinct leaf
+	 * @param threshold Threshold to combine bipartitions
+	 * @param b Buffers of the current thread
+	 * @return Number of leaf classifiers called
+	 * @throws Exception if some classifier fails predicting the instance
+	 */
+	private int evaluateLazy(int n, Instance instance, MultiLabelLearner[] learners, float threshold, Buffers b) throws Exception {
+		int calls = 0;
+		
+		boolean[] needed = b.nodeNeeded[n];
+		int[] votes = b.nodeVotes[n];
+		int[] remaining = b.nodeRemaining[n];
+		int[] cover = b.nodeCover[n];
+		float[] values = b.nodeValues[n];
+		
+		//Number of children covering each label
+		for(int l : nodeLabels[n]) {
+			votes[l] = 0;
+			cover[l] = 0;
+		}
+		for(int child : nodeChildren[n]) {
+			for(int l : child >= 0 ? leafLabels[child] : nodeLabels[-child-1]) {
+				cover[l]++;
+			}
+		}
+		
+		int undecided = 0;
+		for(int l : nodeLabels[n]) {
+			remaining[l] = cover[l];
+			if(needed[l]) {
+				undecided++;
+			}
+		}
+		
+		for(int child : nodeChildrenByCost[n]) {
+			if(undecided == 0) {
+				break;
+			}
+			
+			int[] labels = child >= 0 ? leafLabels[child] : nodeLabels[-child-1];
+			
+			//Skip the child if none of its labels is needed
+			boolean useful = false;
+			for(int l : labels) {
+				if(needed[l]) {
+					useful = true;
+					break;
+				}
+			}
+			if(!useful) {
+				continue;
+			}
+			
+			//Evaluate the child
+			float[] childValues;
+			if(child >= 0) {
+				if(!b.leafDone[child]) {
+					boolean[] bipartition = learners[child].makePrediction(instance).getBipartition();
+					for(int j=0; j<labels.length; j++) {
+						b.leafValues[child][labels[j]] = bipartition[j] ? 1 : 0;
+					}
+					b.leafDone[child] = true;
+					calls++;
+				}
+				childValues = b.leafValues[child];
+			}
+			else {
+				//Only the labels still undecided in this node are needed in the child
+				boolean[] childNeeded = b.nodeNeeded[-child-1];
+				for(int l : labels) {
+					childNeeded[l] = needed[l];
+				}
+				calls += evaluateLazy(-child-1, instance, learners, threshold, b);
+				childValues = b.nodeValues[-child-1];
+			}
+			
+			//Add the votes and check which labels are decided
+			for(int l : labels) {
+				if(needed[l]) {
+					votes[l] += (int) childValues[l];
+					remaining[l]--;
+					
+					if(((float) votes[l]) / cover[l] >= threshold) {
+						values[l] = 1;
+						needed[l] = false;
+						undecided--;
+					}
+					else if(((float) (votes[l] + remaining[l])) / cover[l] < threshold) {
+						values[l] = 0;
+						needed[l] = false;
+						undecided--;
+					}
+				}
+			}
+		}
+		
+		return calls;
+	}
+	
+	/**
+	 * Getter for the number of leaf calls made in lazy predictions
+	 * 
+	 * @return Number of leaf classifiers called
+	 */
+	public long getLeafCallsMade() {
+		return leafCallsMade.get();
+	}
+	
+	/**
+	 * Getter for the number of leaf calls avoided in lazy predictions
+	 * 
+	 * @return Number of leaf classifiers not called because their labels were already decided
+	 */
+	public long getLeafCallsAvoided() {
+		return leafCallsAvoided.get();
+	}
+	
+	/**
+	 * Reset the counters of leaf calls
+	 */
+	public void resetCounters() {
+		leafCallsMade.set(0);
+		leafCallsAvoided.set(0);
+	}
+	
+	/**
+	 * Predict a range of instances with the tree.
+	 * Each distinct leaf predicts all the instances of the range before combining the nodes,
+	 * 	and nodes are combined for all the instances at once, label by label.
+	 * 
+	 * @param instances Instances to predict
+	 * @param from Index of the first instance to predict (inclusive)
+	 * @param to Index of the last instance to predict (exclusive)
+	 * @param learners Classifier of each distinct leaf, in the same order than getLeaves()
+	 * @param useConfidences True if confidences are combined; otherwise bipartitions are combined
+	 * @param threshold Threshold to combine bipartitions
+	 * @param result Matrix where the prediction of the root for each instance and label is stored; labels not covered by the tree are 0
+	 * @throws Exception if some classifier fails predicting the instances
+	 */
+	public void predictBatch(Instance[] instances, int from, int to, MultiLabelLearner[] learners, boolean useConfidences, float threshold, float[][] result) throws Exception {
+		int n = to - from;
+		
+		//Predictions of each leaf and node, by label and instance
+		//	Only the labels covered by each of them are allocated
+		float[][][] leafValues = new float[leaves.length][numLabels][];
+		
+		//Predict all the instances with each distinct leaf
+		for(int s=0; s<leaves.length; s++) {
+			int[] labels = leafLabels[s];
+			for(int l : labels) {
+				leafValues[s][l] = new float[n];
+			}
+			
+			for(int i=0; i<n; i++) {
+				MultiLabelOutput output = learners[s].makePrediction(instances[from + i]);
+				
+				if(useConfidences) {
+					double[] confidences = output.getConfidences();
+					for(int j=0; j<labels.length; j++) {
+						leafValues[s][labels[j]][i] = (float) confidences[j];
+					}
+				}
+				else {
+					boolean[] bipartition = output.getBipartition();
+					for(int j=0; j<labels.length; j++) {
+						leafValues[s][labels[j]][i] = bipartition[j] ? 1 : 0;
+					}
+				}
+			}
+		}
+		
+		float[][] rootValues = combineBatch(leafValues, n, useConfidences, threshold);
+		
+		//The root is the last node
+		int root = nodeChildren.length - 1;
+		for(int i=0; i<n; i++) {
+			result[from + i] = new float[numLabels];
+		}
+		for(int l : nodeLabels[root]) {
+			float[] labelValues = rootValues[l];
+			for(int i=0; i<n; i++) {
+				result[from + i][l] = labelValues[i];
+			}
+		}
+	}
+	
+	/**
+	 * Reduce the tree over a range of instances given the predictions of the classifiers of the pool.
+	 * The predictions of the nodes are combined as in TreeUtils.reduce, so the result is the same
+	 * 	than the prediction of the reduced tree for the instances of the range.
+	 * 
+	 * @param leafPredictions Prediction of each distinct leaf, in the same order than getLeaves()
+	 * @param from Index of the first instance (inclusive)
+	 * @param to Index of the last instance (exclusive)
+	 * @param useConfidences True if confidences are combined; otherwise bipartitions are combined
+	 * @param threshold Threshold to combine bipartitions
+	 * @return Prediction of the root for each instance of the range and label; labels not covered by the tree are 0
+	 */
+	public float[][] reduceBatch(Prediction[] leafPredictions, int from, int to, boolean useConfidences, float threshold) {
+		int n = to - from;
+		
+		//Columns of each distinct leaf for the instances of the range
+		float[][][] leafValues = new float[leaves.length][numLabels][];
+		for(int s=0; s<leaves.length; s++) {
+			int[] labels = leafLabels[s];
+			float[][] pred = leafPredictions[s].pred;
+			for(int j=0; j<labels.length; j++) {
+				float[] column = new float[n];
+				for(int i=0; i<n; i++) {
+					column[i] = pred[from + i][j];
+				}
+				leafValues[s][labels[j]] = column;
+			}
+		}
+		
+		float[][] rootValues = combineBatch(leafValues, n, useConfidences, threshold);
+		
+		//The root is the last node
+		int root = nodeChildren.length - 1;
+		float[][] result = new float[n][numLabels];
+		for(int l : nodeLabels[root]) {
+			float[] labelValues = rootValues[l];
+			for(int i=0; i<n; i++) {
+				result[i][l] = labelValues[i];
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Combine the internal nodes for a batch of instances, label by label.
+	 * 
+	 * @param leafValues Predictions of each distinct leaf, by label and instance
+	 * @param n Number of instances
+	 * @param useConfidences True if confidences are combined; otherwise bipartitions are combined
+	 * @param threshold Threshold to combine bipartitions
+	 * @return Predictions of the root, by label and instance; only the labels covered by the tree are allocated
+	 */
+	private float[][] combineBatch(float[][][] leafValues, int n, boolean useConfidences, float threshold) {
+		float[][][] nodeValues = new float[nodeChildren.length][numLabels][];
+		
+		//Combine the internal nodes
+		int[] votes = new int[numLabels];
+		for(int node=0; node<nodeChildren.length; node++) {
+			float[][] values = nodeValues[node];
+			for(int l : nodeLabels[node]) {
+				values[l] = new float[n];
+				votes[l] = 0;
+			}
+			
+			//Sum the predictions of the children
+			for(int child : nodeChildren[node]) {
+				float[][] childValues = child >= 0 ? leafValues[child] : nodeValues[-child-1];
+				int[] labels = child >= 0 ? leafLabels[child] : nodeLabels[-child-1];
+				
+				for(int l : labels) {
+					float[] sum = values[l];
+					float[] childLabelValues = childValues[l];
+					for(int i=0; i<n; i++) {
+						sum[i] += childLabelValues[i];
+					}
+					votes[l]++;
+				}
+			}
+			
+			//Average and, in case of bipartitions, apply the threshold
+			for(int l : nodeLabels[node]) {
+				float[] labelValues = values[l];
+				for(int i=0; i<n; i++) {
+					float value = labelValues[i] / votes[l];
+					if(useConfidences) {
+						labelValues[i] = value;
+					}
+					else {
+						labelValues[i] = value >= threshold ? 1 : 0;
+					}
+				}
+			}
+			
+			//Children are not used again
+			for(int child : nodeChildren[node]) {
+				if(child < 0) {
+					nodeValues[-child-1] = null;
+				}
+			}
+		}
+		
+		return nodeValues[nodeChildren.length - 1];
+	}
+	
+	/**
+	 * Combine the predictions of the children of an internal node.
+	 * Each label is averaged among the children covering it and, in case of bipartitions, thresholded.
+	 * 
+	 * @param n Index of the internal node
+	 * @param b Buffers of the current thread
+	 * @param useConfidences True if confidences are combined; otherwise bipartitions are combined
+	 * @param threshold Threshold to combine bipartitions
+	 */
+	private void combine(int n, Buffers b, boolean useConfidences, float threshold) {
+		for(int l : nodeLabels[n]) {
+			b.sum[l] = 0;
+			b.votes[l] = 0;
+		}
+		
+		for(int child : nodeChildren[n]) {
+			float[] values = child >= 0 ? b.leafValues[child] : b.nodeValues[-child-1];
+			int[] labels = child >= 0 ? leafLabels[child] : nodeLabels[-child-1];
+			
+			for(int l : labels) {
+				b.sum[l] += values[l];
+				b.votes[l]++;
+			}
+		}
+		
+		float[] values = b.nodeValues[n];
+		for(int l : nodeLabels[n]) {
+			float value = b.sum[l] / b.votes[l];
+			if(useConfidences) {
+				values[l] = value;
+			}
+			else {
+				values[l] = value >= threshold ? 1 : 0;
+			}
+		}
+	}
+	
+	/**
+	 * Get the buffers of the current thread, creating them if needed
+	 * 
+	 * @return Buffers
+	 */
+	private Buffers getBuffers() {
+		ThreadLocal<Buffers> local = buffers;
+		if(local == null) {
+			synchronized (this) {
+				if(buffers == null) {
+					buffers = ThreadLocal.withInitial(() -> new Buffers(leaves.length, nodeChildren.length, numLabels));
+				}
+				local = buffers;
+			}
+		}
+		
+		return local.get();
+	}
+	
+	/**
+	 * Buffers reused among the evaluations of a thread
+	 */
+	static class Buffers {
+		
+		float[][] leafValues;
+		
+		float[][] nodeValues;
+		
+		float[] sum;
+		
+		int[] votes;
+		
+		boolean[] leafDone;
+		
+		boolean[][] nodeNeeded;
+		
+		int[][] nodeVotes;
+		
+		int[][] nodeRemaining;
+		
+		int[][] nodeCover;
+		
+		Buffers(int nLeaves, int nNodes, int numLabels) {
+			leafValues = new float[nLeaves][numLabels];
+			nodeValues = new float[nNodes][numLabels];
+			sum = new float[numLabels];
+			votes = new int[numLabels];
+			
+			leafDone = new boolean[nLeaves];
+			nodeNeeded = new boolean[nNodes][numLabels];
+			nodeVotes = new int[nNodes][numLabels];
+			nodeRemaining = new int[nNodes][numLabels];
+			nodeCover = new int[nNodes][numLabels];
+		}
+	}
+}
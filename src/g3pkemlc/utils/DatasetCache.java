@@ -0,0 +1,277 @@
+package g3pkemlc.utils;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+
+import mulan.data.InvalidDataFormatException;
+import mulan.data.MultiLabelInstances;
+import mulan.data.Statistics;
+
+/**
+ * Class implementing a JVM-wide cache of multi-label datasets and statistics derived from them.
+ * Datasets are identified by the path and modification time of their arff and xml files,
+ * 	so consecutive or concurrent runs over the same partition share a single parsed copy.
+ * Each run acquires the datasets it uses with get, and releases them with release when it finishes;
+ * 	a dataset is removed from the cache when no run holds it.
+ * Cached objects are shared, so they must not be modified.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class DatasetCache {
+	
+	/**
+	 * Cached datasets by key
+	 */
+	static ConcurrentHashMap<String, CachedDataset> cache = new ConcurrentHashMap<String, CachedDataset>();
+	
+	/**
+	 * Acquire a dataset from the cache, adding it if it was not cached before or if the files were modified.
+	 * The dataset is loaded the first time its data are requested. It must be released when it is no longer used.
+	 * 
+	 * @param arffFilename Path of the arff file
+	 * @param xmlFilename Path of the xml file
+	 * @return Cached dataset
+	 */
+	public static CachedDataset get(String arffFilename, String xmlFilename) {
+		File arff = new File(arffFilename).getAbsoluteFile();
+		File xml = new File(xmlFilename).getAbsoluteFile();
+		
+		String path = arff.getPath() + "|" + xml.getPath();
+		String key = path + "|" + arff.lastModified() + "|" + xml.lastModified();
+		
+		if(! cache.containsKey(key)) {
+			//Remove versions of the same files that were modified; runs using them keep their own reference
+			cache.keySet().removeIf(k -> k.startsWith(path + "|") && !k.equals(key));
+		}
+		
+		//The reference is counted atomically with the insertion, so a concurrent release does not remove it
+		return cache.compute(key, (k, dataset) -> {
+			if(dataset == null) {
+				dataset = new CachedDataset(key, arffFilename, xmlFilename);
+			}
+			dataset.references++;
+			return dataset;
+		});
+	}
+	
+	/**
+	 * Release a dataset acquired with get, removing it from the cache if no other run holds it
+	 * 
+	 * @param dataset Cached dataset; nothing is done if null
+	 */
+	public static void release(CachedDataset dataset) {
+		if(dataset == null) {
+			return;
+		}
+		
+		cache.computeIfPresent(dataset.key, (k, cached) -> {
+			//A modified version of the files may have replaced the dataset in the cache
+			if(cached != dataset) {
+				return cached;
+			}
+			cached.references--;
+			return (cached.references > 0) ? cached : null;
+		});
+	}
+	
+	/**
+	 * Remove all datasets from the cache
+	 */
+	public static void clear() {
+		cache.clear();
+	}
+	
+	/**
+	 * Check if a label is relevant in a given label bitmask
+	 * 
+	 * @param bitmask Label bitmask of an instance
+	 * @param label Index of the label
+	 * @return True if the label is relevant; false otherwise
+	 */
+	public static boolean isRelevant(long[] bitmask, int label) {
+		return ((bitmask[label >>> 6] >>> (label & 63)) & 1L) != 0;
+	}
+	
+	/**
+	 * Class storing a dataset and its derived statistics.
+	 * Each of them is computed only once, the first time it is requested.
+	 */
+	public static class CachedDataset {
+		
+		/**
+		 * Key identifying the files and their version
+		 */
+		String key;
+		
+		/**
+		 * Path of the arff file
+		 */
+		String arffFilename;
+		
+		/**
+		 * Path of the xml file
+		 */
+		String xmlFilename;
+		
+		/**
+		 * Number of runs holding the dataset; only modified inside the operations of the cache
+		 */
+		int references = 0;
+		
+		/**
+		 * Multi-label dataset
+		 */
+		MultiLabelInstances data;
+		
+		/**
+		 * Phi correlation among labels (NaNs replaced by 0)
+		 */
+		double[][] phi;
+		
+		/**
+		 * Relevant labels of each instance, as bitmask
+		 */
+		long[][] labelBitmasks;
+		
+		/**
+		 * Number of relevant labels of each instance
+		 */
+		int[] labelCardinalities;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param key Key identifying the files and their version
+		 * @param arffFilename Path of the arff file
+		 * @param xmlFilename Path of the xml file
+		 */
+		CachedDataset(String key, String arffFilename, String xmlFilename) {
+			this.key = key;
+			this.arffFilename = arffFilename;
+			this.xmlFilename = xmlFilename;
+		}
+		
+		/**
+		 * Getter for the key
+		 * 
+		 * @return Key identifying the files and their version
+		 */
+		public String getKey() {
+			return key;
+		}
+		
+		/**
+		 * Getter for the path of the arff file
+		 * 
+		 * @return Path of the arff file
+		 */
+		public String getArffFilename() {
+			return arffFilename;
+		}
+		
+		/**
+		 * Getter for the path of the xml file
+		 * 
+		 * @return Path of the xml file
+		 */
+		public String getXmlFilename() {
+			return xmlFilename;
+		}
+		
+		/**
+		 * Getter for the dataset
+		 * 
+		 * @return Multi-label dataset
+		 * @throws InvalidDataFormatException if the dataset can not be loaded
+		 */
+		public synchronized MultiLabelInstances getData() throws InvalidDataFormatException {
+			if(data == null) {
+				data = new MultiLabelInstances(arffFilename, xmlFilename);
+			}
+			
+			return data;
+		}
+		
+		/**
+		 * Getter for the phi matrix
+		 * 
+		 * @return Phi correlation among labels, where NaNs are replaced by 0
+		 * @throws Exception if the dataset can not be loaded or phi can not be calculated
+		 */
+		public synchronized double[][] getPhi() throws Exception {
+			if(phi == null) {
+				Statistics stat = new Statistics();
+				double[][] newPhi = stat.calculatePhi(getData());
+				
+				//Change NaNs by 0
+				for(int i=0; i<newPhi.length; i++) {
+					for(int j=0; j<newPhi[0].length; j++) {
+						if(Double.isNaN(newPhi[i][j])) {
+							newPhi[i][j] = 0.0;
+						}
+					}
+				}
+				
+				phi = newPhi;
+			}
+			
+			return phi;
+		}
+		
+		/**
+		 * Getter for the label bitmasks
+		 * 
+		 * @return Bitmask of relevant labels for each instance
+		 * @throws InvalidDataFormatException if the dataset can not be loaded
+		 */
+		public synchronized long[][] getLabelBitmasks() throws InvalidDataFormatException {
+			if(labelBitmasks == null) {
+				computeLabelStatistics();
+			}
+			
+			return labelBitmasks;
+		}
+		
+		/**
+		 * Getter for the label cardinalities
+		 * 
+		 * @return Number of relevant labels of each instance
+		 * @throws InvalidDataFormatException if the dataset can not be loaded
+		 */
+		public synchronized int[] getLabelCardinalities() throws InvalidDataFormatException {
+			if(labelCardinalities == null) {
+				computeLabelStatistics();
+			}
+			
+			return labelCardinalities;
+		}
+		
+		/**
+		 * Compute bitmasks and cardinalities of the labels of each instance
+		 * 
+		 * @throws InvalidDataFormatException if the dataset can not be loaded
+		 */
+		private void computeLabelStatistics() throws InvalidDataFormatException {
+			MultiLabelInstances mlData = getData();
+			int[] labelIndices = mlData.getLabelIndices();
+			int nLabels = mlData.getNumLabels();
+			int nInstances = mlData.getNumInstances();
+			
+			long[][] bitmasks = new long[nInstances][(nLabels + 63) / 64];
+			int[] cardinalities = new int[nInstances];
+			
+			for(int i=0; i<nInstances; i++) {
+				for(int j=0; j<nLabels; j++) {
+					if(mlData.getDataSet().get(i).value(labelIndices[j]) >= 0.5) {
+						bitmasks[i][j >>> 6] |= 1L << (j & 63);
+						cardinalities[i]++;
+					}
+				}
+			}
+			
+			labelBitmasks = bitmasks;
+			labelCardinalities = cardinalities;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package g3pkemlc.utils;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 
 /**
@@ -8,8 +9,13 @@ import java.util.ArrayList;
  * @author Jose M. Moyano
  *
  */
-public class KLabelset {
+public class KLabelset implements Serializable {
 
+	/**
+	 * serialVersionUID
+	 */
+	private static final long serialVersionUID = -2381564019652853107L;
+	
 	/**
 	 * Size of the k-labelset
 	 */
@@ -121,6 +121,7 @@ public class KLabelsetGenerator {
 	 */
 	public void setRandgen(IRandGen randgen) {
 		this.randgen = randgen;
+		this.utils = new Utils(randgen);
 	}
 	
 	/**
@@ -267,8 +268,7 @@ public class KLabelsetGenerator {
 				}
 			}
 			else {
-				System.out.println("Error. Invalid kMode.");
-				System.exit(0);
+				throw new IllegalArgumentException("Invalid kMode: " + kMode);
 			}
 
 			//Select k-labelset (phi-biased or randomly)
@@ -0,0 +1,175 @@
+package g3pkemlc.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Class implementing a write-behind stage to persist the classifiers of the pool.
+ * Build threads serialize the finished classifiers and hand the bytes to a bounded queue, which is drained
+ * 	by dedicated I/O threads that store them in the hard disk. As the snapshot is taken before returning,
+ * 	the build thread may keep using the classifier (e.g., predicting) while it is being stored.
+ * If the queue is full, the build thread waits until there is space in it.
+ * The first error storing an object is kept and thrown by the next call to write or by close.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class PoolWriter {
+	
+	/**
+	 * Queue of objects pending to be written
+	 */
+	BlockingQueue<WriteTask> queue;
+	
+	/**
+	 * I/O threads draining the queue
+	 */
+	Thread[] ioThreads;
+	
+	/**
+	 * Number of objects submitted and not yet written
+	 */
+	int pending = 0;
+	
+	/**
+	 * Monitor for the pending counter
+	 */
+	final Object pendingMonitor = new Object();
+	
+	/**
+	 * First error storing an object; null if there is no error
+	 */
+	volatile IOException error = null;
+	
+	/**
+	 * Task indicating the I/O threads to finish
+	 */
+	static final WriteTask POISON = new WriteTask(null, null);
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param nThreads Number of I/O threads
+	 * @param capacity Maximum number of objects waiting in the queue
+	 */
+	public PoolWriter(int nThreads, int capacity) {
+		queue = new ArrayBlockingQueue<WriteTask>(Math.max(1, capacity));
+		
+		ioThreads = new Thread[Math.max(1, nThreads)];
+		for(int i=0; i<ioThreads.length; i++) {
+			ioThreads[i] = new Thread(new WriteLoop(), "pool-writer-" + i);
+			ioThreads[i].setDaemon(true);
+			ioThreads[i].start();
+		}
+	}
+	
+	/**
+	 * Hand an object to be written to the hard disk.
+	 * The object is serialized before returning, so it can be modified afterwards. It blocks while the queue is full.
+	 * 
+	 * @param obj Object to write
+	 * @param filepath Path of the file for the object
+	 * @throws InterruptedException if interrupted while waiting for space in the queue
+	 * @throws IOException if the object can not be serialized, or some previous object could not be stored
+	 */
+	public void write(Object obj, String filepath) throws InterruptedException, IOException {
+		if(error != null) {
+			throw error;
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(obj);
+		}
+		
+		synchronized (pendingMonitor) {
+			pending++;
+		}
+		queue.put(new WriteTask(bytes.toByteArray(), filepath));
+	}
+	
+	/**
+	 * Wait until all the objects handed so far have been written
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void await() throws InterruptedException {
+		synchronized (pendingMonitor) {
+			while(pending > 0) {
+				pendingMonitor.wait();
+			}
+		}
+	}
+	
+	/**
+	 * Wait until all the objects have been written and stop the I/O threads
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws IOException if some object could not be stored
+	 */
+	public void close() throws InterruptedException, IOException {
+		await();
+		
+		for(int i=0; i<ioThreads.length; i++) {
+			queue.put(POISON);
+		}
+		for(Thread t : ioThreads) {
+			t.join();
+		}
+		
+		if(error != null) {
+			throw error;
+		}
+	}
+	
+	/**
+	 * Loop executed by each I/O thread
+	 */
+	class WriteLoop implements Runnable {
+		
+		public void run() {
+			WriteTask task;
+			
+			try {
+				while((task = queue.take()) != POISON) {
+					try {
+						Files.write(Paths.get(task.filepath), task.bytes);
+					} catch (IOException e) {
+						synchronized (pendingMonitor) {
+							if(error == null) {
+								error = new IOException("The file " + task.filepath + " could not be written", e);
+							}
+						}
+					}
+					
+					synchronized (pendingMonitor) {
+						pending--;
+						pendingMonitor.notifyAll();
+					}
+				}
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Serialized object to write and its path
+	 */
+	static class WriteTask {
+		
+		byte[] bytes;
+		
+		String filepath;
+		
+		WriteTask(byte[] bytes, String filepath) {
+			this.bytes = bytes;
+			this.filepath = filepath;
+		}
+	}
+}
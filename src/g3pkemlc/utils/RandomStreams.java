@@ -0,0 +1,99 @@
+package g3pkemlc.utils;
+
+import java.io.Serializable;
+
+import net.sf.jclec.util.random.IRandGen;
+import net.sf.jclec.util.random.Ranecu;
+
+/**
+ * Class implementing the derivation of independent random numbers generators from the seed of the run.
+ * Each logical unit of work (e.g., the mutation of the i-th individual in a given generation) is identified
+ * 	by its purpose and a sequence of ids, and its generator is seeded by mixing them with the seed of the run
+ * 	using the SplitMix64 function. So, the random numbers used by each unit do not depend on the thread
+ * 	that executes it nor on the order in which the units are executed.
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class RandomStreams implements Serializable {
+	
+	/** Serialization constant */
+	private static final long serialVersionUID = -3218537396442405237L;
+	
+	/**
+	 * Purpose of the units of work
+	 */
+	public enum Purpose {
+		creation,
+		crossover,
+		mutation,
+		klabelsets,
+		islands,
+		migration
+	}
+	
+	/**
+	 * Increment of SplitMix64 (golden ratio)
+	 */
+	static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	
+	/**
+	 * Seed of the run
+	 */
+	long seed;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param seed Seed of the run
+	 */
+	public RandomStreams(long seed) {
+		this.seed = seed;
+	}
+	
+	/**
+	 * Mixing function of SplitMix64
+	 * 
+	 * @param z Value to mix
+	 * @return Mixed value
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+	
+	/**
+	 * Get the 64-bit seed of a unit of work
+	 * 
+	 * @param purpose Purpose of the unit
+	 * @param ids Ids of the unit (e.g., generation and index of the individual)
+	 * @return Seed of the unit
+	 */
+	public long seedOf(Purpose purpose, long... ids) {
+		long s = mix(seed + GOLDEN_GAMMA);
+		s = mix(s + GOLDEN_GAMMA * (purpose.ordinal() + 1));
+		for(long id : ids) {
+			s = mix(s + GOLDEN_GAMMA * (id + 1));
+		}
+		
+		return s;
+	}
+	
+	/**
+	 * Create the random numbers generator of a unit of work
+	 * 
+	 * @param purpose Purpose of the unit
+	 * @param ids Ids of the unit (e.g., generation and index of the individual)
+	 * @return Random numbers generator
+	 */
+	public IRandGen create(Purpose purpose, long... ids) {
+		long s = seedOf(purpose, ids);
+		
+		//Both seeds of Ranecu must be in the range of its corresponding modulus
+		int seed1 = 1 + (int)Long.remainderUnsigned(s, 2147483562L);
+		int seed2 = 1 + (int)Long.remainderUnsigned(mix(s + GOLDEN_GAMMA), 2147483398L);
+		
+		return new Ranecu(seed1, seed2);
+	}
+}
@@ -16,36 +16,34 @@ import g3pkemlc.Prediction;
 public class TreeUtils {
 
 	/**
-	 * Reduce the tree and obtain the final tree prediction
+	 * Reduce the tree and obtain the final tree prediction.
+	 * The table of predictions is only read, so it may be shared among concurrent evaluations;
+	 * 	predictions of combined nodes are kept in a list local to this call.
 	 * 
 	 * @param ind Individual, tree
-	 * @param key Key for the table according to corresponding individual being evaluated (used for concurrency)
-	 * @param tablePredictions Table with predictions of other classifiers and combinations of them
+	 * @param tablePredictions Table with predictions of each classifier
 	 * @param nInstances Number of instances 
 	 * @param useConfidences True if confindences are used to combine predictions; otherwise bipartitions are used
 	 * @return Combined prediction of all nodes in the tree
 	 */
-	public static Prediction reduce(String ind, String key, Hashtable<String, Prediction> tablePredictions, int nInstances, boolean useConfidences) {
+	public static Prediction reduce(String ind, Hashtable<String, Prediction> tablePredictions, int nInstances, boolean useConfidences) {
 		//Match two or more leaves (numer or _number) between parenthesis
 		Pattern pattern = Pattern.compile("\\((_?\\d+ )+_?\\d+\\)");
 		Matcher m = pattern.matcher(ind);
 		
-		//count to add predictions of combined nodes into the table
-		int count = 0;
+		//Predictions of combined nodes, indexed by the count of each one
+		ArrayList<Prediction> combinedPredictions = new ArrayList<Prediction>();
 		Prediction pred = null;// = new Prediction(fullTrainData.getNumInstances(), fullTrainData.getNumLabels());
 		
 		while(m.find()) {
 			//Combine the predictions of current nodes
-			pred = combine(m.group(0), key,tablePredictions, nInstances, useConfidences);
-			
-			//Put combined predictions into the table
-			tablePredictions.put(key+"_"+count, pred);
+			pred = combine(m.group(0), tablePredictions, combinedPredictions, nInstances, useConfidences);
 			
 			//Replace node in the genotype
-			ind = ind.substring(0, m.start()) + "_" + count + ind.substring(m.end(), ind.length());
+			ind = ind.substring(0, m.start()) + "_" + combinedPredictions.size() + ind.substring(m.end(), ind.length());
 			
-			//Increment counter and match next one
-			count++;
+			//Store combined predictions and match next one
+			combinedPredictions.add(pred);
 			m = pattern.matcher(ind);
 		}
 		
@@ -59,13 +57,13 @@ public class TreeUtils {
 	 * Combine the predictions of several nodes
 	 * 
 	 * @param nodes String with the nodes to combine
-	 * @param key Key for the table according to corresponding individual being evaluated (used for concurrency)
-	 * @param tablePredictions Table with predictions of other classifiers and combinations of them
+	 * @param tablePredictions Table with predictions of each classifier
+	 * @param combinedPredictions Predictions of previously combined nodes
 	 * @param nInstances Number of instances 
 	 * @param useConfidences True if confindences are used to combine predictions; otherwise bipartitions are used
 	 * @return Combined prediction of given nodes
 	 */
-	protected static Prediction combine(String nodes, String key, Hashtable<String, Prediction> tablePredictions, int nInstances, boolean useConfidences){
+	protected static Prediction combine(String nodes, Hashtable<String, Prediction> tablePredictions, ArrayList<Prediction> combinedPredictions, int nInstances, boolean useConfidences){
 		Prediction pred = new Prediction(nInstances);
 		
 		Pattern pattern = Pattern.compile("\\d+");
@@ -84,10 +82,10 @@ public class TreeUtils {
 			//If the piece contains the character "_" is a combination of other nodes
 			if(piece.contains("_")) {
 				//Add to the current prediction, the prediction of one of the previously combined nodes
-				pred.addPrediction(tablePredictions.get(key+"_"+n));
+				pred.addPrediction(combinedPredictions.get(n));
 				
 				//Remove because it is not going to be used again
-				tablePredictions.replace(key+"_"+n, new Prediction());
+				combinedPredictions.set(n, null);
 			}
 			else {
 				//Add to the current prediction, the prediction of the corresponding classifier
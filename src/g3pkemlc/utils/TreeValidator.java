@@ -0,0 +1,241 @@
+package g3pkemlc.utils;
+
+/**
+ * Class implementing a validator of the genotype of G3P-kEMLC individuals.
+ * The genotype is checked in a single pass, so its cost is linear in its length:
+ * 	- The tree is a combination node, ended by ";"
+ * 	- Each combination node is "(" followed by its children separated by a space, and ")"
+ * 	- Each combination node has between 2 and maxChildren children
+ * 	- The number of nested combination nodes is at most maxDepth
+ * 	- Each leaf is a number in [0, nMax) range
+ * 
+ * @author Jose M. Moyano
+ * 
+ */
+public class TreeValidator {
+	
+	/**
+	 * Type of the errors
+	 */
+	public enum ErrorType {
+		/** Unexpected character or token */
+		syntax,
+		/** Parenthesis are not balanced */
+		unbalanced,
+		/** Number of children out of [2, maxChildren] range */
+		arity,
+		/** Depth greater than maxDepth */
+		depth,
+		/** Leaf out of [0, nMax) range */
+		leaf,
+		/** Missing ";" or characters after it */
+		terminator
+	}
+	
+	/**
+	 * Max value for the leaves (exclusive)
+	 */
+	int nMax;
+	
+	/**
+	 * Maximum depth of the tree
+	 */
+	int maxDepth;
+	
+	/**
+	 * Maximum number of children at each combination node
+	 */
+	int maxChildren;
+	
+	/**
+	 * Constructor for a validator that only checks the structure of the tree
+	 */
+	public TreeValidator() {
+		this(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param nMax Max value for the leaves (exclusive)
+	 * @param maxDepth Maximum depth of the tree
+	 * @param maxChildren Maximum number of children at each combination node
+	 */
+	public TreeValidator(int nMax, int maxDepth, int maxChildren) {
+		this.nMax = nMax;
+		this.maxDepth = maxDepth;
+		this.maxChildren = maxChildren;
+	}
+	
+	/**
+	 * Validate the genotype of an individual
+	 * 
+	 * @param ind Genotype
+	 * @return Null if it is valid; the first error found otherwise
+	 */
+	public ValidationError validate(String ind) {
+		if(ind.isEmpty() || ind.charAt(0) != '(') {
+			return new ValidationError(ErrorType.syntax, 0, "the tree must start with '('");
+		}
+		
+		//Number of children of each open node
+		int[] children = new int[ind.length()];
+		int top = -1;
+		
+		//Indicates if the last token was a leaf or the end of a node (so a space or ')' are expected)
+		boolean afterChild = false;
+		
+		for(int pos=0; pos<ind.length(); pos++) {
+			char c = ind.charAt(pos);
+			
+			//The root was closed, so only the ending ";" is expected
+			if(top < 0 && pos > 0) {
+				if(c == ';' && pos == ind.length()-1) {
+					return null;
+				}
+				return new ValidationError(ErrorType.terminator, pos, (c == ';') ? "characters after ';'" : "';' expected after the root");
+			}
+			
+			if(c == '(') {
+				if(afterChild) {
+					return new ValidationError(ErrorType.syntax, pos, "' ' expected before '('");
+				}
+				if(top >= 0) {
+					children[top]++;
+				}
+				children[++top] = 0;
+				if(top + 1 > maxDepth) {
+					return new ValidationError(ErrorType.depth, pos, "depth greater than " + maxDepth);
+				}
+			}
+			else if(c >= '0' && c <= '9') {
+				if(afterChild) {
+					return new ValidationError(ErrorType.syntax, pos, "' ' expected before leaf");
+				}
+				
+				int start = pos;
+				long leaf = 0;
+				while(pos < ind.length() && ind.charAt(pos) >= '0' && ind.charAt(pos) <= '9') {
+					leaf = Math.min(leaf*10 + (ind.charAt(pos) - '0'), Integer.MAX_VALUE);
+					pos++;
+				}
+				pos--;
+				
+				if(leaf >= nMax) {
+					return new ValidationError(ErrorType.leaf, start, "leaf " + ind.substring(start, pos+1) + " not lower than " + nMax);
+				}
+				children[top]++;
+				afterChild = true;
+				continue;
+			}
+			else if(c == ' ') {
+				if(!afterChild) {
+					return new ValidationError(ErrorType.syntax, pos, "unexpected ' '");
+				}
+			}
+			else if(c == ')') {
+				if(!afterChild) {
+					return new ValidationError(ErrorType.syntax, pos, "unexpected ')'");
+				}
+				if(children[top] < 2 || children[top] > maxChildren) {
+					return new ValidationError(ErrorType.arity, pos, "node with " + children[top] + " children");
+				}
+				top--;
+				afterChild = true;
+				continue;
+			}
+			else if(c == ';') {
+				return new ValidationError(ErrorType.unbalanced, pos, (top+1) + " nodes not closed before ';'");
+			}
+			else {
+				return new ValidationError(ErrorType.syntax, pos, "unexpected character '" + c + "'");
+			}
+			
+			afterChild = false;
+		}
+		
+		if(top >= 0) {
+			return new ValidationError(ErrorType.unbalanced, ind.length(), (top+1) + " nodes not closed");
+		}
+		return new ValidationError(ErrorType.terminator, ind.length(), "missing ';'");
+	}
+	
+	/**
+	 * Check that the genotype of an individual is valid
+	 * 
+	 * @param ind Genotype
+	 * @throws IllegalStateException if it is not valid
+	 */
+	public void check(String ind) {
+		ValidationError error = validate(ind);
+		if(error != null) {
+			throw new IllegalStateException("Invalid individual " + ind + ": " + error);
+		}
+	}
+	
+	/**
+	 * Error found validating a genotype
+	 */
+	public static class ValidationError {
+		
+		/**
+		 * Type of the error
+		 */
+		ErrorType type;
+		
+		/**
+		 * Position of the genotype where the error was found
+		 */
+		int position;
+		
+		/**
+		 * Description of the error
+		 */
+		String message;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param type Type of the error
+		 * @param position Position of the genotype where the error was found
+		 * @param message Description of the error
+		 */
+		ValidationError(ErrorType type, int position, String message) {
+			this.type = type;
+			this.position = position;
+			this.message = message;
+		}
+		
+		/**
+		 * Getter for the type of the error
+		 * 
+		 * @return Type of the error
+		 */
+		public ErrorType getType() {
+			return type;
+		}
+		
+		/**
+		 * Getter for the position of the error
+		 * 
+		 * @return Position of the genotype where the error was found
+		 */
+		public int getPosition() {
+			return position;
+		}
+		
+		/**
+		 * Getter for the description of the error
+		 * 
+		 * @return Description of the error
+		 */
+		public String getMessage() {
+			return message;
+		}
+		
+		@Override
+		public String toString() {
+			return type + " error at position " + position + ": " + message;
+		}
+	}
+}
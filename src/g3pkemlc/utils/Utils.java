@@ -7,8 +7,12 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -55,15 +59,14 @@ public class Utils {
 	/**
 	 * Random numbers generator
 	 */
-	public static IRandGen randgen = null;
+	IRandGen randgen = null;
 
 	/**
 	 * Empty constructor
 	 */
 	public Utils() {
 		//Do nothing.
-		//At least once the Utils class need to be instantiated with randgen
-		//Then we can just use this constructor
+		//Methods using random numbers need a Utils object instantiated with randgen
 	}
 	
 	/**
@@ -82,7 +85,7 @@ public class Utils {
 	 * @param rand Random numbers generator
 	 */
 	public Utils(IRandGen randgen) {
-		Utils.randgen = randgen;
+		this.randgen = randgen;
 	}
 	
 	/**
@@ -102,16 +105,7 @@ public class Utils {
 	 * @return Number of leaves
 	 */
 	public int countLeaves(String ind) {
-		Pattern p = Pattern.compile("\\d+"); // "\d" is for digits in regex
-		Matcher m = p.matcher(ind);
-		int count = 0;
-		
-		//Increment the counter each time that a number is found on the String
-		while(m.find()){
-			count++;
-		}
-		
-		return count;
+		return ArrayTree.parse(ind).getNumLeaves();
 	}
 	
 	/**
@@ -121,22 +115,11 @@ public class Utils {
 	 * @return ArrayList of Integers with leaves without repetition
 	 */
 	public ArrayList<Integer> getLeaves(String ind) {
-		Pattern p = Pattern.compile("\\d+"); // "\d" is for digits in regex
-		Matcher m = p.matcher(ind);
-		
-		Integer leaf;
 		ArrayList<Integer> leaves = new ArrayList<Integer>();
-		
-		//Add to the list each different number (leaf) found
-		while(m.find()){
-			leaf = Integer.parseInt(m.group());
-			if(!leaves.contains(leaf)) {
-				leaves.add(leaf);
-			}
+		for(int leaf : ArrayTree.parse(ind).getLeaves()) {
+			leaves.add(leaf);
 		}
 		
-		Collections.sort(leaves);
-		
 		return leaves;
 	}
 	
@@ -169,6 +152,16 @@ public class Utils {
 		return leaf;
 	}
 	
+	/**
+	 * Choose a random leaf of a tree
+	 * 
+	 * @param tree Tree
+	 * @return Index of the leaf in the tree
+	 */
+	public int chooseRandomLeaf(ArrayTree tree) {
+		return tree.getLeafIndex(randgen.choose(0, tree.getNumLeaves()));
+	}
+	
 	/**
 	 * Calculate the depth of a given node in the tree
 	 * 
@@ -296,28 +289,55 @@ public class Utils {
 	}
 	
 	/**
-	 * Check if an individual is correct or not
+	 * Choose a random combination node of a tree
 	 * 
-	 * @param ind Individual
-	 * @return True if it is feasible and correct; false otherwise
+	 * @param tree Tree
+	 * @param considerRoot True if the whole tree is considered as a feasible subtree and false otherwise
+	 * @return Index of the chosen node; -1 if there are no feasible nodes
 	 */
-	public boolean checkInd(String ind) {
-		Pattern pattern = Pattern.compile("\\((\\d+ )+\\d+\\)");
+	public int chooseRandomSubTree(ArrayTree tree, boolean considerRoot) {
+		int internal = tree.getNumInternal();
 		
-		//Replace each match by "0"
-		while(pattern.matcher(ind).find()) {
-			ind = ind.replaceAll("\\((\\d+ )+\\d+\\)", "0");
+		if(considerRoot) {
+			return tree.getInternalIndex(randgen.choose(0, internal));
+		}
+		else if(internal > 1) {
+			//The root is the first node in prefix order
+			return tree.getInternalIndex(randgen.choose(1, internal));
+		}
+		else {
+			return -1;
 		}
+	}
+	
+	/**
+	 * Choose a random combination node of a tree among the ones whose subtree does not exceed a given height
+	 * 
+	 * @param tree Tree
+	 * @param maxHeight Maximum height of the subtree
+	 * @return Index of the chosen node; -1 if there are no feasible nodes
+	 */
+	public int chooseRandomSubTree(ArrayTree tree, int maxHeight) {
+		int feasible = tree.countInternal(maxHeight);
 		
-		//If the reduced individual matchs with "0;", it is feasible
-		if(ind.equals("0;")) {
-			return true;
+		if(feasible > 0) {
+			return tree.getInternalIndexByHeight(randgen.choose(0, feasible));
 		}
 		else {
-			return false;
+			return -1;
 		}
 	}
 	
+	/**
+	 * Check if an individual is correct or not
+	 * 
+	 * @param ind Individual
+	 * @return True if it is feasible and correct; false otherwise
+	 */
+	public boolean checkInd(String ind) {
+		return new TreeValidator().validate(ind) == null;
+	}
+	
 	/**
 	 * Check if a given node is a leaf (if it just contains a number)
 	 * 
@@ -546,6 +566,39 @@ public class Utils {
 		return -1;
 	}
 	
+	/**
+	 * Run a task for each index in [0, n) in an executor, and wait until all of them finish
+	 * 
+	 * @param executor Executor running the tasks
+	 * @param n Number of tasks
+	 * @param task Task, receiving the index
+	 * @throws IllegalStateException if some task failed with a checked exception or the thread was interrupted
+	 */
+	public static void runParallel(ExecutorService executor, int n, IntConsumer task) {
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>(n);
+		for(int i=0; i<n; i++) {
+			final int index = i;
+			tasks.add(() -> {
+				task.accept(index);
+				return null;
+			});
+		}
+		
+		try {
+			for(Future<Void> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+	
 	/**
 	 * Transform double array to float array
 	 * 
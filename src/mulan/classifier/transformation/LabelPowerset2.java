@@ -76,6 +76,17 @@ public class LabelPowerset2 extends TransformationBasedMultiLabelLearner {
      * Random number generator for randomly solving tied predictions
      */
     protected Random Rand;
+    /**
+     * Seed for randomly solving tied predictions
+     */
+    protected int seed = 1;
+    /**
+     * Whether the ties are solved with a generator derived from the seed and the
+     * features of each instance, instead of the shared generator. Then, the
+     * prediction of an instance does not depend on the previously predicted ones,
+     * nor on the order in which several threads predict them.
+     */
+    protected boolean instanceTieBreaking = false;
 
     /**
      * Conststructor that initializes the learner with a base classifier
@@ -102,9 +113,43 @@ public class LabelPowerset2 extends TransformationBasedMultiLabelLearner {
      * @param s the seed
      */
     public void setSeed(int s) {
+        seed = s;
         Rand = new Random(s);
     }
 
+    /**
+     * Sets whether ties are solved depending only on the seed and the instance
+     *
+     * @param value true to solve the ties per instance; false to use the shared generator
+     */
+    public void setInstanceTieBreaking(boolean value) {
+        instanceTieBreaking = value;
+    }
+
+    /**
+     * Returns whether ties are solved depending only on the seed and the instance
+     *
+     * @return true if the ties depend on the values of all the features of the instance
+     */
+    public boolean getInstanceTieBreaking() {
+        return instanceTieBreaking;
+    }
+
+    /**
+     * Get the seed for solving the ties in the prediction of an instance,
+     * combining the seed of the learner and the values of the features
+     *
+     * @param instance the instance
+     * @return the seed
+     */
+    protected long tieSeed(Instance instance) {
+        long h = seed;
+        for (int f : featureIndices) {
+            h = 31 * h + Double.doubleToLongBits(instance.value(f));
+        }
+        return h;
+    }
+
     /**
      * The threshold for obtaining the bipartition from probabilities
      * 
@@ -125,6 +170,16 @@ public class LabelPowerset2 extends TransformationBasedMultiLabelLearner {
         }
     }
 
+    /**
+     * Returns the transformation of the data, which maps each class value
+     * of the base classifier to a labelset
+     * 
+     * @return the label powerset transformation
+     */
+    public LabelPowersetTransformation getTransformation() {
+        return transformation;
+    }
+
     protected void buildInternal(MultiLabelInstances mlData) throws Exception {
         Instances transformedData;
         transformation = new LabelPowersetTransformation();
@@ -167,7 +222,7 @@ public class LabelPowerset2 extends TransformationBasedMultiLabelLearner {
                 Logger.getLogger(LabelPowerset2.class.getName()).log(Level.SEVERE, null, ex);
             }
             //System.out.println(Arrays.toString(distribution));
-            int classIndex = Util2.RandomIndexOfMax(distribution, Rand);
+            int classIndex = instanceTieBreaking ? Util2.RandomIndexOfMax(distribution, tieSeed(instance)) : Util2.RandomIndexOfMax(distribution, Rand);
             //debug("" + classIndex);
             String strClass = (transformation.getTransformedFormat().classAttribute()).value(classIndex);
             LabelSet labelSet = null;
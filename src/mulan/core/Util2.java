@@ -47,6 +47,33 @@ public class Util2 {
      * @return the index of find maximum value
      */
     public static int RandomIndexOfMax(double array[], Random rand) {
+        return RandomIndexOfMax(array, rand, 0);
+    }
+
+    /**
+     * Procedure to find index of maximum value in the specified array.
+     * If there are more values equal to the maximum, one of these values is
+     * selected with a random generator initialized with the given seed, so the
+     * selection only depends on the seed. The generator is only created if there are ties.
+     *
+     * @param array the array in which the maximum value should be find
+     * @param seed seed of the random selection if more values equal
+     *             to the maximum are present in the array
+     * @return the index of find maximum value
+     */
+    public static int RandomIndexOfMax(double array[], long seed) {
+        return RandomIndexOfMax(array, null, seed);
+    }
+
+    /**
+     * Find the index of maximum value, randomly breaking the ties
+     *
+     * @param array the array in which the maximum value should be find
+     * @param rand random instance used to break the ties; if null, a new one is created with the seed
+     * @param seed seed used to break the ties if rand is null
+     * @return the index of find maximum value
+     */
+    private static int RandomIndexOfMax(double array[], Random rand, long seed) {
 
         int[] maxIndexes = new int[array.length];
         double max = array[0];
@@ -67,6 +94,9 @@ public class Util2 {
         if (counter == 1) {
             return maxIndexes[0];
         } else {
+            if (rand == null) {
+                rand = new Random(seed);
+            }
             int choose = rand.nextInt(counter);
             return maxIndexes[choose];
         }
@@ -1,6 +1,15 @@
 package net.sf.jclec;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.XMLConfiguration;
@@ -15,12 +24,20 @@ public class RunExperiment
 {
 	/** Usage message error */
 	
-	private static final String USAGE_MES = "\tnet.sf.jclec.RunExperiment <experiment file>\t\t(Execute experiment)";
+	private static final String USAGE_MES = "\tnet.sf.jclec.RunExperiment <experiment file> [<parallel jobs>]\t\t(Execute experiment)";
+	
+	/** Directory containing the workspaces of jobs executed in parallel */
+	
+	private static final String WORKSPACES_DIR = "workspaces/";
+	
+	/** Report including a header line */
+	
+	private static final String TEST_RESULTS_REPORT = "testResults.csv";
 	
 	/**
 	 * Main method
 	 * 
-	 * @param args Configuration File
+	 * @param args Configuration File and, optionally, number of jobs executed in parallel
 	 */
 	
 	public static void main(String[] args) 
@@ -33,14 +50,57 @@ public class RunExperiment
 		else {
 			ExperimentBuilder builder = new ExperimentBuilder();
 			
+			// Second (optional) arg is the number of jobs executed in parallel
+			int parallelJobs = 1;
+			if (args.length > 1) {
+				parallelJobs = Integer.parseInt(args[1]);
+			}
+			
 			System.out.println("Initializing job");
 			
-			// Expand the processes and execute them
-			for(String experiment : builder.buildExperiment(args[0]))
-			{
-				System.out.println("Algorithm started");
-				executeJob(experiment);
-				System.out.println("Algorithm finished");
+			// Expand the processes
+			ArrayList<String> experiments = builder.buildExperiment(args[0]);
+			
+			if (parallelJobs <= 1) {
+				// Execute them sequentially
+				for(String experiment : experiments)
+				{
+					System.out.println("Algorithm started");
+					executeJob(experiment, null);
+					System.out.println("Algorithm finished");
+				}
+			}
+			else {
+				// Execute them in parallel, each one in its own workspace
+				List<String> workspaces = new ArrayList<String>(experiments.size());
+				ExecutorService executorService = Executors.newFixedThreadPool(parallelJobs);
+				
+				for(String experiment : experiments)
+				{
+					String jobName = new File(experiment).getName().replaceFirst("\\.xml$", "");
+					String workspace = WORKSPACES_DIR + jobName + "/";
+					workspaces.add(workspace);
+					
+					// Reports of previous executions are not aggregated again
+					clearReports(workspace);
+					
+					executorService.execute(() -> {
+						System.out.println("Algorithm started: " + jobName);
+						executeJob(experiment, workspace);
+						System.out.println("Algorithm finished: " + jobName);
+					});
+				}
+				executorService.shutdown();
+				
+				try {
+					// Wait until all jobs finish
+					executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+				
+				// Join the reports of all jobs
+				aggregateReports(workspaces);
 			}
 			
 			System.out.println("Job finished");
@@ -51,10 +111,11 @@ public class RunExperiment
 	 * Execute experiment
 	 * 
 	 * @param jobFilename
+	 * @param workspace Directory for the classifiers and reports of the job; null to use the configured one
 	 */
 	
 	@SuppressWarnings("unchecked")
-	private static void executeJob(String jobFilename) 
+	private static void executeJob(String jobFilename, String workspace) 
 	{
 		// Try open job file
 		File jobFile = new File(jobFilename);		
@@ -64,6 +125,10 @@ public class RunExperiment
 				XMLConfiguration jobConf = new XMLConfiguration(jobFile);
 				// Process header
 				String header = "process";
+				// Set the workspace of the job
+				if (workspace != null) {
+					jobConf.setProperty(header+".workspace", workspace);
+				}
 				// Create and configure algorithms
 				String aname = jobConf.getString(header+"[@algorithm-type]");
 				Class<IAlgorithm> aclass = (Class<IAlgorithm>) Class.forName(aname);
@@ -83,8 +148,66 @@ public class RunExperiment
 			}			
 		}
 		else {
-			System.out.println("Job file not found");
-			System.exit(1);			
+			// Only this job fails, so other jobs executed in parallel continue
+			System.out.println("Job file not found: " + jobFilename);
+		}
+	}
+	
+	/**
+	 * Remove the reports left in the workspace of a job by previous executions,
+	 * so only the reports of this execution are aggregated.
+	 * 
+	 * @param workspace Workspace of the job
+	 */
+	
+	private static void clearReports(String workspace)
+	{
+		File [] reports = new File(workspace + "reports/").listFiles();
+		if (reports == null) {
+			return;
+		}
+		
+		for (File report : reports) {
+			if (report.isFile()) {
+				report.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Append the reports of each workspace to the reports in the working directory.
+	 * Workspaces are processed in the order of the jobs, so the result is the same
+	 * as executing the jobs sequentially.
+	 * 
+	 * @param workspaces Workspaces of the jobs
+	 */
+	
+	private static void aggregateReports(List<String> workspaces)
+	{
+		File reportsDir = new File("reports/");
+		reportsDir.mkdirs();
+		
+		for (String workspace : workspaces) {
+			File [] reports = new File(workspace + "reports/").listFiles();
+			if (reports == null) {
+				continue;
+			}
+			Arrays.sort(reports);
+			
+			for (File report : reports) {
+				File target = new File(reportsDir, report.getName());
+				try {
+					List<String> lines = Files.readAllLines(report.toPath());
+					// The header of the test results is only kept once
+					if (report.getName().equals(TEST_RESULTS_REPORT) && target.exists() && lines.size() > 0) {
+						lines = lines.subList(1, lines.size());
+					}
+					Files.write(target.toPath(), lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
 		}
 	}
 }
\ No newline at end of file
@@ -1,9 +1,18 @@
 package net.sf.jclec.stringtree;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 import g3pkemlc.IndividualCreator;
+import g3pkemlc.utils.RandomStreams;
+import g3pkemlc.utils.TreeValidator;
+import g3pkemlc.utils.Utils;
+import net.sf.jclec.IIndividual;
 import net.sf.jclec.ISpecies;
 
 import net.sf.jclec.base.AbstractCreator;
+import net.sf.jclec.util.random.IRandGen;
 
 /**
  * Creation of BinArrayIndividual (and subclasses).
@@ -50,6 +59,21 @@ public class StringTreeCreator extends AbstractCreator
 	 */
 	int nMax;
 	
+	/**
+	 * Validator of the created individuals; null if they are not validated
+	 */
+	TreeValidator validator = null;
+	
+	/**
+	 * Executor creating the individuals in parallel; null if they are created sequentially
+	 */
+	transient ExecutorService executor = null;
+	
+	/**
+	 * Random streams of the creation of each individual, used when creating in parallel
+	 */
+	RandomStreams streams = null;
+	
 
 	/////////////////////////////////////////////////////////////////
 	// ------------------------------------------------- Constructors
@@ -76,6 +100,22 @@ public class StringTreeCreator extends AbstractCreator
 		this.nMax = nMax;
 	}
 	
+	public void setValidator(TreeValidator validator) {
+		this.validator = validator;
+	}
+	
+	/**
+	 * Set the individuals to be created in parallel.
+	 * Each individual is created with its own random numbers generator, given by the generation and its position.
+	 * 
+	 * @param executor Executor creating the individuals; null to create them sequentially
+	 * @param streams Random streams of the run
+	 */
+	public void setParallel(ExecutorService executor, RandomStreams streams) {
+		this.executor = executor;
+		this.streams = streams;
+	}
+	
 	
 	// java.lang.Object methods
 	
@@ -126,6 +166,34 @@ public class StringTreeCreator extends AbstractCreator
 	 * En caso negativo, lanza una excepcin.
 	 */
 
+	/**
+	 * {@inheritDoc}
+	 */
+	
+	@Override
+	public List<IIndividual> provide(int numberOfIndividuals)
+	{
+		if(executor == null) {
+			return super.provide(numberOfIndividuals);
+		}
+		
+		this.numberOfIndividuals = numberOfIndividuals;
+		prepareCreation();
+		
+		int generation = context.getGeneration();
+		String[] genotypes = new String[numberOfIndividuals];
+		Utils.runParallel(executor, numberOfIndividuals, i -> {
+			genotypes[i] = createGenotype(streams.create(RandomStreams.Purpose.creation, generation, i));
+		});
+		
+		createdBuffer = new ArrayList<IIndividual>(numberOfIndividuals);
+		for(String genotype : genotypes) {
+			createdBuffer.add(species.createIndividual(genotype));
+		}
+		
+		return createdBuffer;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -151,8 +219,20 @@ public class StringTreeCreator extends AbstractCreator
 	 * Create a byte [] genotype, filling it randomly
 	 */
 	private final String createGenotype()
+	{
+		return createGenotype(randgen);
+	}
+	
+	/**
+	 * Create a String genotype with a given random numbers generator
+	 */
+	private final String createGenotype(IRandGen randgen)
 	{
 		IndividualCreator creator = new IndividualCreator(randgen);
-		return creator.create(nMax, maxDepth, maxChildren);
+		String genotype = creator.create(nMax, maxDepth, maxChildren);
+		if(validator != null) {
+			validator.check(genotype);
+		}
+		return genotype;
 	}
 }